@@ -53,14 +53,10 @@ import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.FlagOp;
 import com.android.launcher3.util.SQLiteCacheHelper;
 
+import java.io.PrintWriter;
 import java.nio.ByteBuffer;
-import java.util.AbstractMap;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 import java.util.function.Supplier;
 
 import static android.graphics.BitmapFactory.decodeByteArray;
@@ -80,6 +76,9 @@ public abstract class BaseIconCache {
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
 
+    // Memory budget value for an in-memory cache tier which is never trimmed
+    public static final long MEMORY_BUDGET_UNBOUNDED = IconMemoryCache.UNBOUNDED;
+
     public static class CacheEntry {
 
         @NonNull
@@ -88,10 +87,36 @@ public abstract class BaseIconCache {
         public CharSequence contentDescription = "";
     }
 
+    /**
+     * An icon ready to be added to the DB and the memory cache, see {@link #prepareIcon}
+     */
+    static final class PreparedIcon {
+
+        final ComponentKey key;
+        final BitmapInfo bitmap;
+        // Null if the entry is not kept in memory
+        @Nullable final CacheEntry entry;
+        final ContentValues values;
+        final PackageInfo info;
+        final long userSerial;
+        final long lastUpdateTime;
+
+        PreparedIcon(ComponentKey key, BitmapInfo bitmap, @Nullable CacheEntry entry,
+                ContentValues values, PackageInfo info, long userSerial, long lastUpdateTime) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.entry = entry;
+            this.values = values;
+            this.info = info;
+            this.userSerial = userSerial;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+    }
+
     protected final Context mContext;
     protected final PackageManager mPackageManager;
 
-    private final Map<ComponentKey, CacheEntry> mCache;
+    private final IconMemoryCache mCache;
     protected final Handler mWorkerHandler;
 
     protected int mIconDpi;
@@ -105,34 +130,58 @@ public abstract class BaseIconCache {
     private final String mDbFileName;
     private final Looper mBgLooper;
 
+    // Optional store of raw icon pixels, see IconPixelStore
+    private final boolean mUsePixelStore;
+    @Nullable private IconPixelStore mPixelStore;
+
     public BaseIconCache(Context context, String dbFileName, Looper bgLooper,
             int iconDpi, int iconPixelSize, boolean inMemoryCache) {
+        this(context, dbFileName, bgLooper, iconDpi, iconPixelSize, inMemoryCache,
+                MEMORY_BUDGET_UNBOUNDED, MEMORY_BUDGET_UNBOUNDED);
+    }
+
+    /**
+     * @param highResBudgetBytes maximum size of the high-res icons kept in memory. Least recently
+     *                           used entries above this budget are demoted to low-res entries and
+     *                           their icon is read again from the DB when needed.
+     * @param lowResBudgetBytes maximum size of the low-res entries kept in memory. Least recently
+     *                          used entries above this budget are evicted.
+     */
+    public BaseIconCache(Context context, String dbFileName, Looper bgLooper,
+            int iconDpi, int iconPixelSize, boolean inMemoryCache, long highResBudgetBytes,
+            long lowResBudgetBytes) {
+        this(context, dbFileName, bgLooper, iconDpi, iconPixelSize, inMemoryCache,
+                highResBudgetBytes, lowResBudgetBytes, false /* usePixelStore */);
+    }
+
+    /**
+     * @param usePixelStore if true, high-res icons are also stored as raw pixels in a
+     *                      memory-mapped file next to the DB, so that they can be loaded without
+     *                      decoding the PNG stored in the DB.
+     */
+    public BaseIconCache(Context context, String dbFileName, Looper bgLooper,
+            int iconDpi, int iconPixelSize, boolean inMemoryCache, long highResBudgetBytes,
+            long lowResBudgetBytes, boolean usePixelStore) {
         mContext = context;
         mDbFileName = dbFileName;
         mPackageManager = context.getPackageManager();
         mBgLooper = bgLooper;
         mWorkerHandler = new Handler(mBgLooper);
 
-        if (inMemoryCache) {
-            mCache = new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
-        } else {
-            // Use a dummy cache
-            mCache = new AbstractMap<ComponentKey, CacheEntry>() {
-                @Override
-                public Set<Entry<ComponentKey, CacheEntry>> entrySet() {
-                    return Collections.emptySet();
-                }
-
-                @Override
-                public CacheEntry put(ComponentKey key, CacheEntry value) {
-                    return value;
-                }
-            };
-        }
+        mCache = new IconMemoryCache(INITIAL_ICON_CACHE_CAPACITY, inMemoryCache,
+                highResBudgetBytes, lowResBudgetBytes);
 
         updateSystemState();
         mIconDpi = iconDpi;
         mIconDb = new IconDB(context, dbFileName, iconPixelSize);
+        mUsePixelStore = usePixelStore;
+        mPixelStore = createPixelStore(iconPixelSize);
+    }
+
+    @Nullable
+    private IconPixelStore createPixelStore(int iconPixelSize) {
+        return mUsePixelStore ? new IconPixelStore(
+                mContext.getDatabasePath(mDbFileName + "_pixels"), iconPixelSize) : null;
     }
 
     /**
@@ -162,6 +211,10 @@ public abstract class BaseIconCache {
         mIconDb.clear();
         mIconDb.close();
         mIconDb = new IconDB(mContext, mDbFileName, iconPixelSize);
+        if (mPixelStore != null) {
+            mPixelStore.clear();
+        }
+        mPixelStore = createPixelStore(iconPixelSize);
         mCache.clear();
     }
 
@@ -200,16 +253,7 @@ public abstract class BaseIconCache {
      * Remove any records for the supplied package name from memory.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key: mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
+        mCache.removePackage(packageName, user);
     }
 
     /**
@@ -218,6 +262,9 @@ public abstract class BaseIconCache {
     public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
         removeFromMemCacheLocked(packageName, user);
         long userSerial = getSerialNumberForUser(user);
+        if (mPixelStore != null) {
+            mPixelStore.removePackage(packageName, userSerial);
+        }
         mIconDb.delete(
                 IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
                 new String[]{packageName + "/%", Long.toString(userSerial)});
@@ -249,28 +296,57 @@ public abstract class BaseIconCache {
      *                        old data.
      */
     @VisibleForTesting
-    public synchronized <T> void addIconToDBAndMemCache(T object, CachingLogic<T> cachingLogic,
+    public <T> void addIconToDBAndMemCache(T object, CachingLogic<T> cachingLogic,
             PackageInfo info, long userSerial, boolean replaceExisting) {
+        addIconToDBAndMemCache(object, cachingLogic, info, userSerial, replaceExisting, null);
+    }
+
+    /**
+     * Same as {@link #addIconToDBAndMemCache(Object, CachingLogic, PackageInfo, long, boolean)}
+     * but uses {@param renderedIcon}, if not null, instead of loading the icon again.
+     */
+    <T> void addIconToDBAndMemCache(T object, CachingLogic<T> cachingLogic,
+            PackageInfo info, long userSerial, boolean replaceExisting,
+            @Nullable BitmapInfo renderedIcon) {
+        PreparedIcon icon = prepareIcon(
+                object, cachingLogic, info, userSerial, replaceExisting, renderedIcon);
+        if (icon != null) {
+            synchronized (this) {
+                addPreparedIconLocked(icon);
+            }
+        }
+    }
+
+    /**
+     * Builds the cache entry and the DB row of {@param object} without holding the cache lock,
+     * so that loading and flattening the icon don't block the lookups. Returns null if there is
+     * no icon to cache.
+     */
+    @Nullable
+    <T> PreparedIcon prepareIcon(T object, CachingLogic<T> cachingLogic,
+            PackageInfo info, long userSerial, boolean replaceExisting,
+            @Nullable BitmapInfo renderedIcon) {
         UserHandle user = cachingLogic.getUser(object);
         ComponentName componentName = cachingLogic.getComponent(object);
 
         final ComponentKey key = new ComponentKey(componentName, user);
-        CacheEntry entry = null;
+        CacheEntry entry = new CacheEntry();
+        CacheEntry reusableEntry = null;
         if (!replaceExisting) {
-            entry = mCache.get(key);
-            // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.bitmap.isNullOrLowRes()) {
-                entry = null;
+            synchronized (this) {
+                reusableEntry = getReusableEntryLocked(key);
             }
         }
-        if (entry == null) {
-            entry = new CacheEntry();
-            entry.bitmap = cachingLogic.loadIcon(mContext, object);
+        if (reusableEntry != null) {
+            entry.bitmap = reusableEntry.bitmap;
+        } else {
+            entry.bitmap = renderedIcon != null
+                    ? renderedIcon : cachingLogic.loadIcon(mContext, object);
         }
         // Icon can't be loaded from cachingLogic, which implies alternative icon was loaded
         // (e.g. fallback icon, default icon). So we drop here since there's no point in caching
         // an empty entry.
-        if (entry.bitmap.isNullOrLowRes()) return;
+        if (entry.bitmap.isNullOrLowRes()) return null;
 
         CharSequence entryTitle = cachingLogic.getLabel(object);
         if (entryTitle == null) {
@@ -279,12 +355,60 @@ public abstract class BaseIconCache {
         entry.title = entryTitle;
 
         entry.contentDescription = mPackageManager.getUserBadgedLabel(entry.title, user);
-        if (cachingLogic.addToMemCache()) mCache.put(key, entry);
 
         ContentValues values = newContentValues(entry.bitmap, entry.title.toString(),
                 componentName.getPackageName(), cachingLogic.getKeywords(object, mLocaleList));
-        addIconToDB(values, componentName, info, userSerial,
-                cachingLogic.getLastUpdatedTime(object, info));
+        return new PreparedIcon(key, entry.bitmap, cachingLogic.addToMemCache() ? entry : null,
+                values, info, userSerial, cachingLogic.getLastUpdatedTime(object, info));
+    }
+
+    /**
+     * Adds the icons built by {@link #prepareIcon} to the DB in a single transaction, and to the
+     * memory cache
+     */
+    synchronized void addPreparedIcons(List<PreparedIcon> icons) {
+        if (icons.isEmpty()) {
+            return;
+        }
+        mIconDb.runInTransaction(() -> {
+            for (PreparedIcon icon : icons) {
+                addPreparedIconLocked(icon);
+            }
+        });
+    }
+
+    private void addPreparedIconLocked(PreparedIcon icon) {
+        if (icon.entry != null) {
+            mCache.put(icon.key, icon.entry);
+        }
+        addIconToDB(icon.values, icon.key.componentName, icon.info, icon.userSerial,
+                icon.lastUpdateTime, icon.bitmap);
+    }
+
+    /**
+     * Returns true if adding the provided component to the DB requires its icon to be rendered,
+     * that is if there is no high-res entry in memory which can be reused.
+     */
+    synchronized boolean needsIconRender(ComponentKey key, boolean replaceExisting) {
+        return replaceExisting || getReusableEntryLocked(key) == null;
+    }
+
+    /**
+     * Returns the high-res icon of the component if it is in the memory cache, without loading
+     * it. Unlike the other lookups, this can be called on any thread.
+     */
+    @Nullable
+    public synchronized BitmapInfo peekIcon(
+            @NonNull ComponentName componentName, @NonNull UserHandle user) {
+        CacheEntry entry = getReusableEntryLocked(new ComponentKey(componentName, user));
+        return entry == null || isDefaultIcon(entry.bitmap, user) ? null : entry.bitmap;
+    }
+
+    @Nullable
+    private CacheEntry getReusableEntryLocked(ComponentKey key) {
+        CacheEntry entry = mCache.get(key);
+        // We can't reuse the entry if the high-res icon is not present.
+        return entry == null || entry.bitmap.isNullOrLowRes() ? null : entry;
     }
 
     /**
@@ -292,12 +416,16 @@ public abstract class BaseIconCache {
      * @param values {@link ContentValues} containing icon & title
      */
     private void addIconToDB(ContentValues values, ComponentName key,
-            PackageInfo info, long userSerial, long lastUpdateTime) {
+            PackageInfo info, long userSerial, long lastUpdateTime, BitmapInfo bitmapInfo) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
         mIconDb.insertOrReplace(values);
+        if (mPixelStore != null) {
+            mPixelStore.write(IconPixelStore.getKey(key, userSerial), lastUpdateTime,
+                    info.versionCode, values.getAsString(IconDB.COLUMN_SYSTEM_STATE), bitmapInfo);
+        }
     }
 
     public synchronized BitmapInfo getDefaultIcon(UserHandle user) {
@@ -353,10 +481,8 @@ public abstract class BaseIconCache {
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
         if (entry == null || (entry.bitmap.isLowRes() && !useLowResIcon)) {
+            mCache.recordMiss();
             entry = new CacheEntry();
-            if (cachingLogic.addToMemCache()) {
-                mCache.put(cacheKey, entry);
-            }
 
             // Check the DB first.
             T object = null;
@@ -387,6 +513,14 @@ public abstract class BaseIconCache {
                     loadFallbackTitle(object, entry, cachingLogic, user);
                 }
             }
+
+            // The entry is only added once filled out, as the in-memory cache accounts for its
+            // size when it is added
+            if (cachingLogic.addToMemCache()) {
+                mCache.put(cacheKey, entry);
+            }
+        } else {
+            mCache.recordHit();
         }
         return entry;
     }
@@ -437,6 +571,9 @@ public abstract class BaseIconCache {
     public synchronized void clear() {
         assertWorkerThread();
         mIconDb.clear();
+        if (mPixelStore != null) {
+            mPixelStore.clear();
+        }
     }
 
     /**
@@ -463,7 +600,8 @@ public abstract class BaseIconCache {
             li.close();
         }
         if (!TextUtils.isEmpty(title) && entry.bitmap.icon != null) {
-            mCache.put(cacheKey, entry);
+            // The entry is not persisted in the DB, so it must never be trimmed from memory
+            mCache.put(cacheKey, entry, true /* pinned */);
         }
     }
 
@@ -483,6 +621,7 @@ public abstract class BaseIconCache {
         CacheEntry entry = mCache.get(cacheKey);
 
         if (entry == null || (entry.bitmap.isLowRes() && !useLowResIcon)) {
+            mCache.recordMiss();
             entry = new CacheEntry();
             boolean entryUpdated = true;
 
@@ -515,7 +654,7 @@ public abstract class BaseIconCache {
                     ContentValues values = newContentValues(
                             iconInfo, entry.title.toString(), packageName, null);
                     addIconToDB(values, cacheKey.componentName, info, getSerialNumberForUser(user),
-                            info.lastUpdateTime);
+                            info.lastUpdateTime, iconInfo);
 
                 } catch (NameNotFoundException e) {
                     if (DEBUG) Log.d(TAG, "Application not installed " + packageName);
@@ -527,6 +666,8 @@ public abstract class BaseIconCache {
             if (entryUpdated) {
                 mCache.put(cacheKey, entry);
             }
+        } else {
+            mCache.recordHit();
         }
         return entry;
     }
@@ -536,12 +677,32 @@ public abstract class BaseIconCache {
         Cursor c = null;
         Trace.beginSection("loadIconIndividually");
         try {
-            c = mIconDb.query(
-                    lowRes ? IconDB.COLUMNS_LOW_RES : IconDB.COLUMNS_HIGH_RES,
-                    IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
-                    new String[]{
-                            cacheKey.componentName.flattenToString(),
-                            Long.toString(getSerialNumberForUser(cacheKey.user))});
+            String[] selectionArgs = new String[]{
+                    cacheKey.componentName.flattenToString(),
+                    Long.toString(getSerialNumberForUser(cacheKey.user))};
+            String selection = IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?";
+            if (!lowRes && mPixelStore != null) {
+                // Read the row without the icon blobs first, which are only needed if the icon
+                // is missing from the pixel store
+                c = mIconDb.query(IconDB.COLUMNS_LOW_RES_WITH_STATE, selection, selectionArgs);
+                if (!c.moveToNext()) {
+                    return false;
+                }
+                IconPixelStore.Pixels pixels = mPixelStore.read(
+                        IconPixelStore.getKey(cacheKey.componentName,
+                                getSerialNumberForUser(cacheKey.user)),
+                        c.getLong(c.getColumnIndexOrThrow(IconDB.COLUMN_LAST_UPDATED)),
+                        c.getInt(c.getColumnIndexOrThrow(IconDB.COLUMN_VERSION)),
+                        c.getString(c.getColumnIndexOrThrow(IconDB.COLUMN_SYSTEM_STATE)));
+                if (pixels != null) {
+                    return updateTitleAndIconLocked(cacheKey, entry, c, false, pixels);
+                }
+                c.close();
+                c = mIconDb.query(IconDB.COLUMNS_HIGH_RES_WITH_STATE, selection, selectionArgs);
+            } else {
+                c = mIconDb.query(lowRes ? IconDB.COLUMNS_LOW_RES : IconDB.COLUMNS_HIGH_RES,
+                        selection, selectionArgs);
+            }
             if (c.moveToNext()) {
                 return updateTitleAndIconLocked(cacheKey, entry, c, lowRes);
             }
@@ -558,6 +719,14 @@ public abstract class BaseIconCache {
 
     private boolean updateTitleAndIconLocked(
             ComponentKey cacheKey, CacheEntry entry, Cursor c, boolean lowRes) {
+        return updateTitleAndIconLocked(cacheKey, entry, c, lowRes, null);
+    }
+
+    /**
+     * @param pixels if not null, the high-res icon is read from these instead of the cursor
+     */
+    private boolean updateTitleAndIconLocked(ComponentKey cacheKey, CacheEntry entry, Cursor c,
+            boolean lowRes, @Nullable IconPixelStore.Pixels pixels) {
         // Set the alpha to be 255, so that we never have a wrong color
         entry.bitmap = BitmapInfo.of(LOW_RES_ICON,
                 setColorAlphaBound(c.getInt(IconDB.INDEX_COLOR), 255));
@@ -570,17 +739,38 @@ public abstract class BaseIconCache {
                     entry.title, cacheKey.user);
         }
 
-        if (!lowRes) {
+        if (!lowRes && pixels != null) {
+            entry.bitmap = BitmapInfo.of(pixels.icon, entry.bitmap.color);
+            if (pixels.mono != null) {
+                try (BaseIconFactory factory = getIconFactory()) {
+                    entry.bitmap.setMonoIcon(pixels.mono, factory);
+                }
+            }
+        } else if (!lowRes) {
             byte[] data = c.getBlob(IconDB.INDEX_ICON);
             if (data == null) {
                 return false;
             }
+            // When the cursor identifies the DB row, the icon is decoded in software so that it
+            // can be added to the pixel store before being uploaded
+            boolean addToPixelStore = mPixelStore != null
+                    && c.getColumnIndex(IconDB.COLUMN_LAST_UPDATED) >= 0;
+            Bitmap softwareIcon = null;
             try {
                 BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
-                decodeOptions.inPreferredConfig = Config.HARDWARE;
-                entry.bitmap = BitmapInfo.of(
-                        requireNonNull(decodeByteArray(data, 0, data.length, decodeOptions)),
-                        entry.bitmap.color);
+                if (addToPixelStore) {
+                    decodeOptions.inPreferredConfig = Config.ARGB_8888;
+                    softwareIcon = requireNonNull(
+                            decodeByteArray(data, 0, data.length, decodeOptions));
+                    Bitmap hwIcon = softwareIcon.copy(Config.HARDWARE, false /*isMutable*/);
+                    entry.bitmap = BitmapInfo.of(hwIcon != null ? hwIcon : softwareIcon,
+                            entry.bitmap.color);
+                } else {
+                    decodeOptions.inPreferredConfig = Config.HARDWARE;
+                    entry.bitmap = BitmapInfo.of(
+                            requireNonNull(decodeByteArray(data, 0, data.length, decodeOptions)),
+                            entry.bitmap.color);
+                }
             } catch (Exception e) {
                 return false;
             }
@@ -588,25 +778,81 @@ public abstract class BaseIconCache {
             // Decode mono bitmap
             data = c.getBlob(IconDB.INDEX_MONO_ICON);
             Bitmap icon = entry.bitmap.icon;
+            Bitmap softwareMono = null;
             if (data != null && data.length == icon.getHeight() * icon.getWidth()) {
                 Bitmap monoBitmap = Bitmap.createBitmap(
                         icon.getWidth(), icon.getHeight(), Config.ALPHA_8);
                 monoBitmap.copyPixelsFromBuffer(ByteBuffer.wrap(data));
                 Bitmap hwMonoBitmap = monoBitmap.copy(Config.HARDWARE, false /*isMutable*/);
                 if (hwMonoBitmap != null) {
-                    monoBitmap.recycle();
+                    softwareMono = monoBitmap;
                     monoBitmap = hwMonoBitmap;
                 }
                 try (BaseIconFactory factory = getIconFactory()) {
                     entry.bitmap.setMonoIcon(monoBitmap, factory);
                 }
             }
+
+            if (softwareIcon != null) {
+                addToPixelStoreLocked(cacheKey, c, softwareIcon, softwareMono, entry.bitmap);
+                if (softwareIcon != entry.bitmap.icon) {
+                    softwareIcon.recycle();
+                }
+            }
+            if (softwareMono != null) {
+                softwareMono.recycle();
+            }
         }
         entry.bitmap.flags = c.getInt(IconDB.INDEX_FLAGS);
         entry.bitmap = entry.bitmap.withFlags(getUserFlagOpLocked(cacheKey.user));
         return entry.bitmap != null;
     }
 
+    /**
+     * Backfills the pixel store with an icon decoded from the DB
+     */
+    private void addToPixelStoreLocked(ComponentKey cacheKey, Cursor c, Bitmap softwareIcon,
+            @Nullable Bitmap softwareMono, BitmapInfo decoded) {
+        BitmapInfo info = BitmapInfo.of(softwareIcon, decoded.color);
+        if (softwareMono != null || decoded.getMono() != null) {
+            try (BaseIconFactory factory = getIconFactory()) {
+                info.setMonoIcon(softwareMono != null ? softwareMono : decoded.getMono(),
+                        factory);
+            }
+        }
+        mPixelStore.write(
+                IconPixelStore.getKey(cacheKey.componentName,
+                        getSerialNumberForUser(cacheKey.user)),
+                c.getLong(c.getColumnIndexOrThrow(IconDB.COLUMN_LAST_UPDATED)),
+                c.getInt(c.getColumnIndexOrThrow(IconDB.COLUMN_VERSION)),
+                c.getString(c.getColumnIndexOrThrow(IconDB.COLUMN_SYSTEM_STATE)), info);
+    }
+
+    /**
+     * Returns the number of lookups served by the in-memory cache since it was created
+     */
+    public synchronized long getMemoryCacheHitCount() {
+        return mCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of lookups which were not served by the in-memory cache since it was
+     * created
+     */
+    public synchronized long getMemoryCacheMissCount() {
+        return mCache.getMissCount();
+    }
+
+    /**
+     * Dumps the state of the in-memory cache
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        mCache.dump(prefix, writer);
+        if (mPixelStore != null) {
+            mPixelStore.dump(prefix, writer);
+        }
+    }
+
     /**
      * Returns a cursor for an arbitrary query to the cache db
      */
@@ -646,6 +892,14 @@ public abstract class BaseIconCache {
             COLUMNS_HIGH_RES[COLUMNS_LOW_RES.length] = COLUMN_ICON;
             COLUMNS_HIGH_RES[COLUMNS_LOW_RES.length + 1] = COLUMN_MONO_ICON;
         }
+        // Columns identifying the version of a row, used to validate the pixel store
+        private static final String[] COLUMNS_STATE = new String[] {
+                COLUMN_LAST_UPDATED,
+                COLUMN_VERSION,
+                COLUMN_SYSTEM_STATE};
+        static final String[] COLUMNS_LOW_RES_WITH_STATE = concat(COLUMNS_LOW_RES, COLUMNS_STATE);
+        static final String[] COLUMNS_HIGH_RES_WITH_STATE =
+                concat(COLUMNS_HIGH_RES, COLUMNS_STATE);
         private static final int INDEX_TITLE = Arrays.asList(COLUMNS_LOW_RES).indexOf(COLUMN_LABEL);
         private static final int INDEX_COLOR = Arrays.asList(COLUMNS_LOW_RES)
                 .indexOf(COLUMN_ICON_COLOR);
@@ -657,6 +911,12 @@ public abstract class BaseIconCache {
             super(context, dbFileName, (RELEASE_VERSION << 16) + iconPixelSize, TABLE_NAME);
         }
 
+        private static String[] concat(String[] first, String[] second) {
+            String[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+
         @Override
         protected void onCreateTable(SQLiteDatabase db) {
             db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
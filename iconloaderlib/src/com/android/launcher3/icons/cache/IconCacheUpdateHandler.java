@@ -28,8 +28,14 @@ import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.icons.BitmapInfo;
 import com.android.launcher3.icons.cache.BaseIconCache.IconDB;
+import com.android.launcher3.icons.cache.BaseIconCache.PreparedIcon;
+import com.android.launcher3.util.ComponentKey;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,6 +43,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Utility class to handle updating the Icon cache
@@ -44,6 +51,14 @@ import java.util.Stack;
 public class IconCacheUpdateHandler {
 
     private static final String TAG = "IconCacheUpdateHandler";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Maximum number of icons, and maximum time, spent in a single DB transaction before
+     * yielding to the worker thread.
+     */
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final long MAX_BATCH_DURATION_MS = 32;
 
     /**
      * In this mode, all invalid icons are marked as to-be-deleted in {@link #mItemsToDelete}.
@@ -243,8 +258,10 @@ public class IconCacheUpdateHandler {
 
     /**
      * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * LauncherActivityInfo list. Items are updated/added in small batches: the icons of a batch
+     * are rendered in parallel using {@link IconRenderPool}, then committed in order to the DB in
+     * a single transaction. The task yields to the worker thread between batches so that it
+     * doesn't get blocked.
      */
     private class SerializedIconUpdateTask<T> implements Runnable {
         private final long mUserSerial;
@@ -255,6 +272,10 @@ public class IconCacheUpdateHandler {
         private final HashSet<String> mUpdatedPackages = new HashSet<>();
         private final OnUpdateCallback mOnUpdateCallback;
 
+        private int mBatchCount;
+        private int mItemCount;
+        private long mTotalBatchTimeMs;
+
         SerializedIconUpdateTask(long userSerial, UserHandle userHandle,
                 Stack<T> appsToAdd, Stack<T> appsToUpdate, CachingLogic<T> cachingLogic,
                 OnUpdateCallback onUpdateCallback) {
@@ -268,36 +289,116 @@ public class IconCacheUpdateHandler {
 
         @Override
         public void run() {
-            if (!mAppsToUpdate.isEmpty()) {
-                T app = mAppsToUpdate.pop();
-                String pkg = mCachingLogic.getComponent(app).getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-
-                mIconCache.addIconToDBAndMemCache(
-                        app, mCachingLogic, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
+            long startTime = SystemClock.uptimeMillis();
+
+            // Render the batch in chunks as wide as the render pool, until it is full or the
+            // time budget is exceeded
+            ArrayList<PendingIcon<T>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            int parallelism = IconRenderPool.getParallelism();
+            while (batch.size() < MAX_BATCH_SIZE
+                    && SystemClock.uptimeMillis() - startTime < MAX_BATCH_DURATION_MS) {
+                int batchStart = batch.size();
+                int chunkEnd = Math.min(MAX_BATCH_SIZE, batchStart + parallelism);
+                PendingIcon<T> next;
+                while (batch.size() < chunkEnd && (next = pollNext()) != null) {
+                    batch.add(next);
+                }
+                if (batch.size() == batchStart) {
+                    break;
+                }
+                renderIcons(batch.subList(batchStart, batch.size()));
+            }
 
-                if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
-                    // No more app to update. Notify callback.
-                    mOnUpdateCallback.onPackageIconsUpdated(mUpdatedPackages, mUserHandle);
+            // Build the DB rows without the cache lock, then commit them in order in a single
+            // transaction
+            ArrayList<PreparedIcon> prepared = new ArrayList<>(batch.size());
+            boolean updateFinished = false;
+            for (PendingIcon<T> pending : batch) {
+                PreparedIcon icon = prepare(pending);
+                if (icon != null) {
+                    prepared.add(icon);
                 }
+                updateFinished |= pending.isLastUpdate;
+            }
+            mIconCache.addPreparedIcons(prepared);
+            if (updateFinished && !mUpdatedPackages.isEmpty()) {
+                // No more app to update. Notify callback.
+                mOnUpdateCallback.onPackageIconsUpdated(mUpdatedPackages, mUserHandle);
+            }
+            long batchTime = SystemClock.uptimeMillis() - startTime;
+
+            mBatchCount++;
+            mItemCount += batch.size();
+            mTotalBatchTimeMs += batchTime;
+            if (DEBUG) {
+                Log.d(TAG, "Icon update batch " + mBatchCount + ": " + batch.size()
+                        + " items in " + batchTime + "ms");
+            }
 
-                // Let it run one more time.
+            if (mAppsToUpdate.isEmpty() && mAppsToAdd.isEmpty()) {
+                if (DEBUG) {
+                    Log.d(TAG, "Icon update for user " + mUserSerial + " done: " + mItemCount
+                            + " items in " + mBatchCount + " batches, " + mTotalBatchTimeMs
+                            + "ms");
+                }
+            } else {
+                // Yield to the worker thread before the next batch
                 scheduleNext();
+            }
+        }
+
+        /**
+         * Removes the next app to update or add, returning null if there is nothing left
+         */
+        private PendingIcon<T> pollNext() {
+            if (!mAppsToUpdate.isEmpty()) {
+                T app = mAppsToUpdate.pop();
+                PackageInfo info = mPkgInfoMap.get(mCachingLogic.getComponent(app).getPackageName());
+                return new PendingIcon<>(app, info, true /* replaceExisting */,
+                        mAppsToUpdate.isEmpty());
             } else if (!mAppsToAdd.isEmpty()) {
                 T app = mAppsToAdd.pop();
                 PackageInfo info = mPkgInfoMap.get(mCachingLogic.getComponent(app).getPackageName());
+                return new PendingIcon<>(app, info, false /* replaceExisting */, false);
+            }
+            return null;
+        }
+
+        private void renderIcons(List<PendingIcon<T>> chunk) {
+            ArrayList<PendingIcon<T>> toRender = new ArrayList<>(chunk.size());
+            ArrayList<T> apps = new ArrayList<>(chunk.size());
+            for (PendingIcon<T> pending : chunk) {
                 // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
                 // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    mIconCache.addIconToDBAndMemCache(app, mCachingLogic, info,
-                            mUserSerial, false /*replace existing*/);
+                if ((pending.replaceExisting || pending.info != null)
+                        && mIconCache.needsIconRender(new ComponentKey(
+                                mCachingLogic.getComponent(pending.app), mUserHandle),
+                        pending.replaceExisting)) {
+                    toRender.add(pending);
+                    apps.add(pending.app);
                 }
+            }
+            if (apps.isEmpty()) {
+                return;
+            }
+            AtomicReferenceArray<BitmapInfo> icons =
+                    IconRenderPool.renderIcons(mIconCache.mContext, mCachingLogic, apps);
+            for (int i = 0; i < toRender.size(); i++) {
+                toRender.get(i).renderedIcon = icons.get(i);
+            }
+        }
 
-                if (!mAppsToAdd.isEmpty()) {
-                    scheduleNext();
-                }
+        @Nullable
+        private PreparedIcon prepare(PendingIcon<T> pending) {
+            if (pending.replaceExisting) {
+                mUpdatedPackages.add(mCachingLogic.getComponent(pending.app).getPackageName());
+                return mIconCache.prepareIcon(pending.app, mCachingLogic, pending.info,
+                        mUserSerial, true /*replace existing*/, pending.renderedIcon);
+            } else if (pending.info != null) {
+                return mIconCache.prepareIcon(pending.app, mCachingLogic, pending.info,
+                        mUserSerial, false /*replace existing*/, pending.renderedIcon);
             }
+            return null;
         }
 
         public void scheduleNext() {
@@ -306,6 +407,25 @@ public class IconCacheUpdateHandler {
         }
     }
 
+    /**
+     * An app waiting to be committed to the DB, along with its icon if it was pre-rendered
+     */
+    private static class PendingIcon<T> {
+        final T app;
+        final PackageInfo info;
+        final boolean replaceExisting;
+        final boolean isLastUpdate;
+
+        BitmapInfo renderedIcon;
+
+        PendingIcon(T app, PackageInfo info, boolean replaceExisting, boolean isLastUpdate) {
+            this.app = app;
+            this.info = info;
+            this.replaceExisting = replaceExisting;
+            this.isLastUpdate = isLastUpdate;
+        }
+    }
+
     public interface OnUpdateCallback {
 
         void onPackageIconsUpdated(HashSet<String> updatedPackages, UserHandle user);
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static com.android.launcher3.icons.BitmapInfo.LOW_RES_ICON;
+
+import android.graphics.Bitmap;
+import android.os.UserHandle;
+
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.cache.BaseIconCache.CacheEntry;
+import com.android.launcher3.util.ComponentKey;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory store for {@link CacheEntry} used by {@link BaseIconCache}.
+ *
+ * Entries are kept in access order and, when a budget is set, accounted for by size in two
+ * tiers: entries holding a high-res bitmap, weighed by the bitmap allocation size, and low-res
+ * entries, weighed by an estimate of their labels. When the high-res tier is over budget, the
+ * least recently used entries are demoted to a low-res entry, so that the high-res icon is read
+ * again from the DB on demand. When the low-res tier is over budget, the least recently used
+ * entries are evicted. Pinned entries, which are not backed by the DB, are never trimmed.
+ *
+ * This class is not thread safe and must be accessed with the {@link BaseIconCache} lock held.
+ */
+final class IconMemoryCache {
+
+    /** Budget value for a tier which is never trimmed. */
+    static final long UNBOUNDED = 0;
+
+    // Rough estimate of the fixed memory cost of an entry without a high-res bitmap
+    private static final int LOW_RES_ENTRY_OVERHEAD_BYTES = 128;
+
+    private final boolean mEnabled;
+    private final long mHighResBudgetBytes;
+    private final long mLowResBudgetBytes;
+    private final LinkedHashMap<ComponentKey, Node> mEntries;
+
+    private long mHighResBytes;
+    private long mLowResBytes;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mDemotionCount;
+    private long mEvictionCount;
+
+    /**
+     * @param enabled if false, no entry is ever stored
+     * @param highResBudgetBytes maximum size of the high-res tier or {@link #UNBOUNDED}
+     * @param lowResBudgetBytes maximum size of the low-res tier or {@link #UNBOUNDED}
+     */
+    IconMemoryCache(int initialCapacity, boolean enabled, long highResBudgetBytes,
+            long lowResBudgetBytes) {
+        mEnabled = enabled;
+        mHighResBudgetBytes = highResBudgetBytes;
+        mLowResBudgetBytes = lowResBudgetBytes;
+        mEntries = new LinkedHashMap<>(enabled ? initialCapacity : 0, 0.75f,
+                true /* accessOrder */);
+    }
+
+    @Nullable
+    CacheEntry get(ComponentKey key) {
+        Node node = mEntries.get(key);
+        return node == null ? null : node.entry;
+    }
+
+    void put(ComponentKey key, CacheEntry entry) {
+        put(key, entry, false /* pinned */);
+    }
+
+    /**
+     * Adds or replaces the entry for the provided key and trims the cache to its budget.
+     * Entries are measured when they are put, so an entry should be complete before being
+     * added, or put again after it is modified.
+     *
+     * @param pinned if true, the entry is never demoted or evicted
+     */
+    void put(ComponentKey key, CacheEntry entry, boolean pinned) {
+        if (!mEnabled) {
+            return;
+        }
+        Node node = new Node(entry, pinned);
+        onRemoved(mEntries.put(key, node));
+        onAdded(node);
+        trimToBudget(node);
+    }
+
+    void remove(ComponentKey key) {
+        onRemoved(mEntries.remove(key));
+    }
+
+    /**
+     * Removes all the entries for the provided package and user
+     */
+    void removePackage(String packageName, UserHandle user) {
+        Iterator<Map.Entry<ComponentKey, Node>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ComponentKey, Node> e = it.next();
+            ComponentKey key = e.getKey();
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                onRemoved(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    void clear() {
+        mEntries.clear();
+        mHighResBytes = 0;
+        mLowResBytes = 0;
+    }
+
+    void recordHit() {
+        mHitCount++;
+    }
+
+    void recordMiss() {
+        mMissCount++;
+    }
+
+    long getHitCount() {
+        return mHitCount;
+    }
+
+    long getMissCount() {
+        return mMissCount;
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "IconMemoryCache: entries=" + mEntries.size()
+                + " enabled=" + mEnabled);
+        writer.println(prefix + "  highResBytes=" + mHighResBytes
+                + " budget=" + budgetToString(mHighResBudgetBytes));
+        writer.println(prefix + "  lowResBytes=" + mLowResBytes
+                + " budget=" + budgetToString(mLowResBudgetBytes));
+        writer.println(prefix + "  hits=" + mHitCount + " misses=" + mMissCount
+                + " demotions=" + mDemotionCount + " evictions=" + mEvictionCount);
+    }
+
+    private void trimToBudget(Node exclude) {
+        if (mHighResBudgetBytes != UNBOUNDED && mHighResBytes > mHighResBudgetBytes) {
+            for (Node node : mEntries.values()) {
+                if (mHighResBytes <= mHighResBudgetBytes) {
+                    break;
+                }
+                if (node != exclude && !node.pinned && node.highResBytes > 0) {
+                    onRemoved(node);
+                    node.demote();
+                    onAdded(node);
+                    mDemotionCount++;
+                }
+            }
+        }
+
+        if (mLowResBudgetBytes != UNBOUNDED && mLowResBytes > mLowResBudgetBytes) {
+            Iterator<Node> it = mEntries.values().iterator();
+            while (it.hasNext() && mLowResBytes > mLowResBudgetBytes) {
+                Node node = it.next();
+                if (node != exclude && !node.pinned && node.highResBytes == 0) {
+                    onRemoved(node);
+                    it.remove();
+                    mEvictionCount++;
+                }
+            }
+        }
+    }
+
+    private void onAdded(Node node) {
+        mHighResBytes += node.highResBytes;
+        mLowResBytes += node.lowResBytes;
+    }
+
+    private void onRemoved(@Nullable Node node) {
+        if (node != null) {
+            mHighResBytes -= node.highResBytes;
+            mLowResBytes -= node.lowResBytes;
+        }
+    }
+
+    private static String budgetToString(long budget) {
+        return budget == UNBOUNDED ? "unbounded" : Long.toString(budget);
+    }
+
+    private static final class Node {
+
+        final boolean pinned;
+
+        CacheEntry entry;
+        long highResBytes;
+        long lowResBytes;
+
+        Node(CacheEntry entry, boolean pinned) {
+            this.pinned = pinned;
+            setEntry(entry);
+        }
+
+        /**
+         * Replaces the entry with a low-res copy. A new entry is created as callers may still
+         * hold a reference to the previous one.
+         */
+        void demote() {
+            BitmapInfo lowRes = BitmapInfo.of(LOW_RES_ICON, entry.bitmap.color);
+            lowRes.flags = entry.bitmap.flags;
+
+            CacheEntry demoted = new CacheEntry();
+            demoted.bitmap = lowRes;
+            demoted.title = entry.title;
+            demoted.contentDescription = entry.contentDescription;
+            setEntry(demoted);
+        }
+
+        private void setEntry(CacheEntry entry) {
+            this.entry = entry;
+            highResBytes = measureHighRes(entry.bitmap);
+            lowResBytes = highResBytes > 0 ? 0 : LOW_RES_ENTRY_OVERHEAD_BYTES
+                    + 2L * (length(entry.title) + length(entry.contentDescription));
+        }
+
+        private static long measureHighRes(BitmapInfo info) {
+            if (info.isNullOrLowRes()) {
+                return 0;
+            }
+            long size = info.icon.getAllocationByteCount();
+            Bitmap mono = info.getMono();
+            if (mono != null && mono != info.icon) {
+                size += mono.getAllocationByteCount();
+            }
+            return size;
+        }
+
+        private static int length(@Nullable CharSequence text) {
+            return text == null ? 0 : text.length();
+        }
+    }
+}
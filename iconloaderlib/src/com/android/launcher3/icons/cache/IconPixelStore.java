@@ -0,0 +1,518 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.launcher3.icons.BitmapInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * An append-only file of raw icon pixels, used by {@link BaseIconCache} next to the icon DB so
+ * that loading a high-res icon does not require reading a PNG blob from SQLite and decoding it.
+ *
+ * Each record holds the pixels of an ARGB_8888 icon, and optionally of its ALPHA_8 mono icon, as
+ * laid out in memory by {@link Bitmap#copyPixelsToBuffer}. The file is memory-mapped and icons
+ * are read with {@link Bitmap#copyPixelsFromBuffer} straight from the mapping. A compact index of
+ * the records is rebuilt from the record headers when the file is opened.
+ *
+ * Records are keyed by component and user serial, and also hold the last update time, version
+ * and system state of the DB row they were written with. The DB stays the source of truth: a
+ * record is only used if these match the current DB row, so deleting or resetting DB rows does
+ * not require any bookkeeping here. Replaced records are left in the file and reclaimed when the
+ * file is compacted.
+ *
+ * This class is not thread safe and must be accessed with the {@link BaseIconCache} lock held.
+ */
+final class IconPixelStore {
+
+    private static final String TAG = "IconPixelStore";
+
+    private static final int MAGIC = 0x49504958;
+    private static final int FORMAT_VERSION = 1;
+    // Magic, format version and icon size
+    private static final int HEADER_SIZE = 12;
+    // Total length and metadata length of a record
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final long MAX_FILE_SIZE = 64L << 20;
+    // The file is mapped in chunks of this size, so that only the last chunk is mapped again as
+    // the file grows
+    @VisibleForTesting
+    static final int MAP_CHUNK_SIZE = 4 << 20;
+    // Compact on open when more than this many bytes are taken by replaced records
+    private static final long MIN_GARBAGE_TO_COMPACT = 1L << 20;
+
+    private final File mFile;
+    private final int mIconPixelSize;
+    private final HashMap<String, Slot> mIndex = new HashMap<>();
+
+    private boolean mOpened;
+    @Nullable private RandomAccessFile mRaf;
+    @Nullable private FileChannel mChannel;
+    private final MappedByteBuffer[] mChunks =
+            new MappedByteBuffer[(int) (MAX_FILE_SIZE / MAP_CHUNK_SIZE)];
+    private long mFileSize;
+    private long mLiveBytes;
+
+    // Software bitmap the pixels are copied into before being uploaded to a hardware bitmap
+    @Nullable private Bitmap mScratchBitmap;
+
+    private int mReadCount;
+    private int mMissCount;
+
+    IconPixelStore(@NonNull File file, int iconPixelSize) {
+        mFile = file;
+        mIconPixelSize = iconPixelSize;
+    }
+
+    /**
+     * Returns the key of the records for the provided component
+     */
+    static String getKey(ComponentName componentName, long userSerial) {
+        return componentName.flattenToString() + '#' + userSerial;
+    }
+
+    /**
+     * Returns the icon stored for {@param key}, or null if there is none or it was stored for a
+     * different DB row.
+     */
+    @Nullable
+    Pixels read(String key, long lastUpdated, int version, @Nullable String systemState) {
+        ensureOpen();
+        Slot slot = mIndex.get(key);
+        ByteBuffer buffer = slot == null || !slot.matches(lastUpdated, version, systemState)
+                ? null : getBytes(slot.pixelsOffset, slot.end());
+        if (buffer == null) {
+            mMissCount++;
+            return null;
+        }
+
+        buffer.limit((int) slot.iconByteCount());
+        Bitmap scratch = getScratchBitmap(slot.width, slot.height);
+        scratch.copyPixelsFromBuffer(buffer);
+        Bitmap icon = scratch.copy(Config.HARDWARE, false /* isMutable */);
+        if (icon == null) {
+            icon = scratch.copy(Config.ARGB_8888, false /* isMutable */);
+        }
+
+        Bitmap mono = null;
+        if (slot.hasMono) {
+            buffer.limit((int) (slot.end() - slot.pixelsOffset));
+            Bitmap softwareMono = Bitmap.createBitmap(slot.width, slot.height, Config.ALPHA_8);
+            softwareMono.copyPixelsFromBuffer(buffer);
+            mono = softwareMono.copy(Config.HARDWARE, false /* isMutable */);
+            if (mono != null) {
+                softwareMono.recycle();
+            } else {
+                mono = softwareMono;
+            }
+        }
+        mReadCount++;
+        return new Pixels(icon, mono);
+    }
+
+    /**
+     * Appends the pixels of {@param info} for {@param key}, replacing any previous record. Icons
+     * which are not software ARGB_8888 bitmaps are not stored.
+     */
+    void write(String key, long lastUpdated, int version, @Nullable String systemState,
+            BitmapInfo info) {
+        ensureOpen();
+        Bitmap icon = info.icon;
+        if (mChannel == null || info.isNullOrLowRes() || icon.getConfig() != Config.ARGB_8888) {
+            remove(key);
+            return;
+        }
+        Bitmap mono = info.getMono();
+        boolean hasMono = mono != null && mono.getConfig() == Config.ALPHA_8
+                && mono.getWidth() == icon.getWidth() && mono.getHeight() == icon.getHeight();
+
+        Slot slot = new Slot(lastUpdated, version, systemState == null ? "" : systemState,
+                icon.getWidth(), icon.getHeight(), hasMono);
+        try {
+            byte[] meta = slot.writeMeta(key);
+            long recordSize = RECORD_HEADER_SIZE + meta.length + slot.pixelsByteCount();
+            if (mFileSize + recordSize > MAX_FILE_SIZE) {
+                compact();
+                if (mChannel == null || mFileSize + recordSize > MAX_FILE_SIZE) {
+                    remove(key);
+                    return;
+                }
+            }
+
+            ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+            record.putInt((int) recordSize - 4);
+            record.putInt(meta.length);
+            record.put(meta);
+            icon.copyPixelsToBuffer(record);
+            if (hasMono) {
+                mono.copyPixelsToBuffer(record);
+            }
+            record.flip();
+
+            long offset = mFileSize;
+            while (record.hasRemaining()) {
+                mChannel.write(record, offset + record.position());
+            }
+            mFileSize += recordSize;
+            slot.recordOffset = offset;
+            slot.pixelsOffset = offset + RECORD_HEADER_SIZE + meta.length;
+            putSlot(key, slot);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error writing icon pixels", e);
+            remove(key);
+        }
+    }
+
+    void remove(String key) {
+        Slot slot = mIndex.remove(key);
+        if (slot != null) {
+            mLiveBytes -= slot.recordSize();
+        }
+    }
+
+    /**
+     * Removes the records of all the components of the provided package and user
+     */
+    void removePackage(String packageName, long userSerial) {
+        String prefix = packageName + '/';
+        String suffix = "#" + userSerial;
+        Iterator<HashMap.Entry<String, Slot>> it = mIndex.entrySet().iterator();
+        while (it.hasNext()) {
+            HashMap.Entry<String, Slot> e = it.next();
+            if (e.getKey().startsWith(prefix) && e.getKey().endsWith(suffix)) {
+                mLiveBytes -= e.getValue().recordSize();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the records and truncates the file
+     */
+    void clear() {
+        close();
+        mFile.delete();
+        mOpened = false;
+    }
+
+    void close() {
+        mIndex.clear();
+        Arrays.fill(mChunks, null);
+        mChannel = null;
+        mFileSize = 0;
+        mLiveBytes = 0;
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing icon pixel store", e);
+            }
+            mRaf = null;
+        }
+        if (mScratchBitmap != null) {
+            mScratchBitmap.recycle();
+            mScratchBitmap = null;
+        }
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "IconPixelStore: records=" + mIndex.size()
+                + " fileSize=" + mFileSize + " liveBytes=" + mLiveBytes
+                + " reads=" + mReadCount + " misses=" + mMissCount);
+    }
+
+    @VisibleForTesting
+    long getFileSize() {
+        return mFileSize;
+    }
+
+    private void ensureOpen() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+        try {
+            mRaf = new RandomAccessFile(mFile, "rw");
+            mChannel = mRaf.getChannel();
+            mFileSize = mChannel.size();
+            if (!readHeader()) {
+                writeHeader();
+            } else {
+                readIndex();
+                if (mFileSize - HEADER_SIZE - mLiveBytes > Math.max(mLiveBytes,
+                        MIN_GARBAGE_TO_COMPACT)) {
+                    compact();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error opening icon pixel store", e);
+            close();
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        if (mFileSize < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = readFully(0, HEADER_SIZE);
+        return header.getInt() == MAGIC && header.getInt() == FORMAT_VERSION
+                && header.getInt() == mIconPixelSize;
+    }
+
+    private void writeHeader() throws IOException {
+        mChannel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(mIconPixelSize).flip();
+        mChannel.write(header, 0);
+        mFileSize = HEADER_SIZE;
+        Arrays.fill(mChunks, null);
+        mIndex.clear();
+        mLiveBytes = 0;
+    }
+
+    /**
+     * Rebuilds the index from the record headers, dropping any truncated record at the end
+     */
+    private void readIndex() throws IOException {
+        long offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= mFileSize) {
+            ByteBuffer recordHeader = readFully(offset, RECORD_HEADER_SIZE);
+            long recordSize = 4L + recordHeader.getInt();
+            int metaLength = recordHeader.getInt();
+            if (metaLength <= 0 || offset + RECORD_HEADER_SIZE + metaLength > mFileSize) {
+                break;
+            }
+            ByteBuffer meta = readFully(offset + RECORD_HEADER_SIZE, metaLength);
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(meta.array(), 0, metaLength));
+            String key = in.readUTF();
+            Slot slot = Slot.readMeta(in);
+            slot.recordOffset = offset;
+            slot.pixelsOffset = offset + RECORD_HEADER_SIZE + metaLength;
+            if (slot.recordSize() != recordSize || slot.end() > mFileSize) {
+                break;
+            }
+            putSlot(key, slot);
+            offset += recordSize;
+        }
+        if (offset < mFileSize) {
+            Log.w(TAG, "Dropping " + (mFileSize - offset) + " invalid bytes");
+            mChannel.truncate(offset);
+            mFileSize = offset;
+        }
+    }
+
+    /**
+     * Rewrites the file with only the records in the index
+     */
+    private void compact() throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        ArrayList<HashMap.Entry<String, Slot>> entries = new ArrayList<>(mIndex.entrySet());
+        entries.sort((a, b) -> Long.compare(a.getValue().recordOffset, b.getValue().recordOffset));
+        try (RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw")) {
+            FileChannel out = tmp.getChannel();
+            out.truncate(0);
+            mChannel.transferTo(0, HEADER_SIZE, out);
+            long offset = HEADER_SIZE;
+            for (HashMap.Entry<String, Slot> e : entries) {
+                Slot slot = e.getValue();
+                long size = slot.recordSize();
+                long copied = 0;
+                while (copied < size) {
+                    copied += mChannel.transferTo(slot.recordOffset + copied, size - copied,
+                            out.position(offset + copied));
+                }
+                slot.pixelsOffset += offset - slot.recordOffset;
+                slot.recordOffset = offset;
+                offset += size;
+            }
+        }
+
+        HashMap<String, Slot> index = new HashMap<>(mIndex);
+        long liveBytes = mLiveBytes;
+        close();
+        if (!tmpFile.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        mFileSize = mChannel.size();
+        mIndex.putAll(index);
+        mLiveBytes = liveBytes;
+    }
+
+    private void putSlot(String key, Slot slot) {
+        remove(key);
+        mIndex.put(key, slot);
+        mLiveBytes += slot.recordSize();
+    }
+
+    /**
+     * Returns the bytes of the file from {@param offset} to {@param end}, or null if they can not
+     * be read. The bytes are mapped unless they span two chunks.
+     */
+    @Nullable
+    private ByteBuffer getBytes(long offset, long end) {
+        if (mChannel == null) {
+            return null;
+        }
+        int chunkIndex = (int) (offset / MAP_CHUNK_SIZE);
+        long chunkStart = (long) chunkIndex * MAP_CHUNK_SIZE;
+        try {
+            if (end > chunkStart + MAP_CHUNK_SIZE) {
+                return readFully(offset, (int) (end - offset));
+            }
+            MappedByteBuffer chunk = mChunks[chunkIndex];
+            if (chunk == null || chunkStart + chunk.capacity() < end) {
+                chunk = mChannel.map(MapMode.READ_ONLY, chunkStart,
+                        Math.min(MAP_CHUNK_SIZE, mFileSize - chunkStart));
+                mChunks[chunkIndex] = chunk;
+            }
+            ByteBuffer buffer = chunk.duplicate();
+            buffer.position((int) (offset - chunkStart));
+            buffer.limit((int) (end - chunkStart));
+            return buffer.slice();
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading icon pixel store", e);
+            return null;
+        }
+    }
+
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private Bitmap getScratchBitmap(int width, int height) {
+        if (mScratchBitmap == null || mScratchBitmap.getWidth() != width
+                || mScratchBitmap.getHeight() != height) {
+            if (mScratchBitmap != null) {
+                mScratchBitmap.recycle();
+            }
+            mScratchBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+        }
+        return mScratchBitmap;
+    }
+
+    /**
+     * Bitmaps read from the store
+     */
+    static final class Pixels {
+
+        @NonNull final Bitmap icon;
+        @Nullable final Bitmap mono;
+
+        Pixels(@NonNull Bitmap icon, @Nullable Bitmap mono) {
+            this.icon = icon;
+            this.mono = mono;
+        }
+    }
+
+    private static final class Slot {
+
+        final long lastUpdated;
+        final int version;
+        final String systemState;
+        final int width;
+        final int height;
+        final boolean hasMono;
+
+        long recordOffset;
+        long pixelsOffset;
+
+        Slot(long lastUpdated, int version, String systemState, int width, int height,
+                boolean hasMono) {
+            this.lastUpdated = lastUpdated;
+            this.version = version;
+            this.systemState = systemState;
+            this.width = width;
+            this.height = height;
+            this.hasMono = hasMono;
+        }
+
+        boolean matches(long lastUpdated, int version, @Nullable String systemState) {
+            return this.lastUpdated == lastUpdated && this.version == version
+                    && Objects.equals(this.systemState, systemState == null ? "" : systemState);
+        }
+
+        long iconByteCount() {
+            return (long) width * height * 4;
+        }
+
+        long pixelsByteCount() {
+            return iconByteCount() + (hasMono ? (long) width * height : 0);
+        }
+
+        long end() {
+            return pixelsOffset + pixelsByteCount();
+        }
+
+        long recordSize() {
+            return end() - recordOffset;
+        }
+
+        byte[] writeMeta(String key) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(key);
+            out.writeLong(lastUpdated);
+            out.writeInt(version);
+            out.writeUTF(systemState);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeBoolean(hasMono);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Slot readMeta(DataInputStream in) throws IOException {
+            return new Slot(in.readLong(), in.readInt(), in.readUTF(), in.readInt(),
+                    in.readInt(), in.readBoolean());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.icons.BitmapInfo;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded pool used to render icons in parallel when many of them are missing from the cache,
+ * for example on the first launch after clearing data.
+ *
+ * Rendering is thread safe as long as every thread uses its own icon factory, which
+ * {@link CachingLogic#loadIcon} does by obtaining one from the factory pool for each call. This
+ * also gives each thread its own {@link com.android.launcher3.icons.IconNormalizer}, so that the
+ * threads do not contend on its lock and scratch buffers.
+ *
+ * Rendering only produces bitmaps, callers are expected to commit the results to the cache and
+ * the DB themselves, in order, on their own thread.
+ */
+public final class IconRenderPool {
+
+    private static final String TAG = "IconRenderPool";
+
+    private static final int MAX_HELPER_THREADS = 3;
+    private static final long KEEP_ALIVE_MS = 1000;
+
+    // The calling thread always takes part in rendering, so one less helper than cores is used
+    private static final int HELPER_THREAD_COUNT = Math.max(0,
+            Math.min(MAX_HELPER_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private IconRenderPool() { }
+
+    /**
+     * Returns the maximum number of icons rendered at the same time, including the calling thread
+     */
+    public static int getParallelism() {
+        return HELPER_THREAD_COUNT + 1;
+    }
+
+    /**
+     * Renders the icons of {@param objects} using {@param cachingLogic} and returns them in the
+     * same order. The calling thread takes part in rendering and this method returns once all
+     * the icons are rendered.
+     *
+     * {@link CachingLogic#loadIcon} must not acquire any lock held by the caller. If an icon
+     * fails to render, its result is null and the caller can fall back to rendering it on its
+     * own thread.
+     */
+    @NonNull
+    public static <T> AtomicReferenceArray<BitmapInfo> renderIcons(@NonNull Context context,
+            @NonNull CachingLogic<T> cachingLogic, @NonNull List<T> objects) {
+        int count = objects.size();
+        AtomicReferenceArray<BitmapInfo> results = new AtomicReferenceArray<>(count);
+        int helperCount = Math.min(HELPER_THREAD_COUNT, count - 1);
+        if (helperCount <= 0) {
+            for (int i = 0; i < count; i++) {
+                results.set(i, renderIcon(context, cachingLogic, objects.get(i)));
+            }
+            return results;
+        }
+
+        Trace.beginSection("renderIconsInParallel");
+        AtomicInteger nextIndex = new AtomicInteger();
+        CountDownLatch remaining = new CountDownLatch(count);
+        Runnable worker = () -> {
+            int i;
+            while ((i = nextIndex.getAndIncrement()) < count) {
+                results.set(i, renderIcon(context, cachingLogic, objects.get(i)));
+                remaining.countDown();
+            }
+        };
+
+        // Helpers which start after all the icons are claimed exit immediately, so waiting below
+        // only ever waits for icons which are actively being rendered.
+        ThreadPoolExecutor executor = getExecutor();
+        for (int i = 0; i < helperCount; i++) {
+            executor.execute(worker);
+        }
+        worker.run();
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Trace.endSection();
+        }
+        return results;
+    }
+
+    @Nullable
+    private static <T> BitmapInfo renderIcon(Context context, CachingLogic<T> cachingLogic,
+            T object) {
+        try {
+            return cachingLogic.loadIcon(context, object);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Error rendering icon for " + cachingLogic.getComponent(object), e);
+            return null;
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            sExecutor = new ThreadPoolExecutor(HELPER_THREAD_COUNT, HELPER_THREAD_COUNT,
+                    KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    r -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }, "icon-render-" + threadCount.incrementAndGet()));
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+}
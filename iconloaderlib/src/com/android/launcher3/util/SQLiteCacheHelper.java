@@ -7,8 +7,13 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
@@ -23,6 +28,12 @@ public abstract class SQLiteCacheHelper {
 
     private boolean mIgnoreWrites;
 
+    // Non null while writes are batched in a transaction, see #runInTransaction
+    private SQLiteDatabase mTransactionDb;
+    private Thread mTransactionThread;
+    // Prepared insert statements of the current transaction, keyed by their sorted column list
+    private final HashMap<String, SQLiteStatement> mInsertStatements = new HashMap<>();
+
     public SQLiteCacheHelper(Context context, String name, int version, String tableName) {
         if (IN_MEMORY_CACHE) {
             name = null;
@@ -57,6 +68,10 @@ public abstract class SQLiteCacheHelper {
             return;
         }
         try {
+            if (mTransactionDb != null && mTransactionThread == Thread.currentThread()) {
+                insertOrReplaceInTransaction(values);
+                return;
+            }
             mOpenHelper.getWritableDatabase().insertWithOnConflict(
                     mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
         } catch (SQLiteFullException e) {
@@ -66,6 +81,97 @@ public abstract class SQLiteCacheHelper {
         }
     }
 
+    /**
+     * Runs {@param writes} on the calling thread, committing all the writes it makes on that
+     * thread in a single transaction. Inserts made through {@link #insertOrReplace} reuse a
+     * prepared statement for the duration of the transaction. Nested calls join the outer
+     * transaction.
+     *
+     * Callers must ensure that no other thread waits on this DB while holding a lock needed
+     * by {@param writes}.
+     */
+    public void runInTransaction(Runnable writes) {
+        if (mIgnoreWrites || mTransactionDb != null) {
+            writes.run();
+            return;
+        }
+
+        SQLiteDatabase db;
+        try {
+            db = mOpenHelper.getWritableDatabase();
+            db.beginTransactionNonExclusive();
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+            writes.run();
+            return;
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Unable to start transaction, writing without batching", e);
+            writes.run();
+            return;
+        }
+
+        mTransactionDb = db;
+        mTransactionThread = Thread.currentThread();
+        try {
+            writes.run();
+            db.setTransactionSuccessful();
+        } finally {
+            mTransactionDb = null;
+            mTransactionThread = null;
+            for (SQLiteStatement statement : mInsertStatements.values()) {
+                statement.close();
+            }
+            mInsertStatements.clear();
+            try {
+                db.endTransaction();
+            } catch (SQLiteFullException e) {
+                onDiskFull(e);
+            } catch (SQLiteException e) {
+                Log.d(TAG, "Ignoring sqlite exception", e);
+            }
+        }
+    }
+
+    private void insertOrReplaceInTransaction(ContentValues values) {
+        ArrayList<String> columns = new ArrayList<>(values.keySet());
+        Collections.sort(columns);
+        String key = String.join(",", columns);
+
+        SQLiteStatement statement = mInsertStatements.get(key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                    .append(mTableName).append(" (").append(key).append(") VALUES (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+            statement = mTransactionDb.compileStatement(sql.toString());
+            mInsertStatements.put(key, statement);
+        }
+
+        statement.clearBindings();
+        for (int i = 0; i < columns.size(); i++) {
+            bindValue(statement, i + 1, values.get(columns.get(i)));
+        }
+        statement.executeInsert();
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
     private void onDiskFull(SQLiteFullException e) {
         Log.e(TAG, "Disk full, all write operations will be ignored", e);
         mIgnoreWrites = true;
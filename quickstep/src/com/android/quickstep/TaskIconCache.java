@@ -17,9 +17,11 @@ package com.android.quickstep;
 
 import static com.android.launcher3.uioverrides.QuickstepLauncher.GO_LOW_RAM_RECENTS_ENABLED;
 import static com.android.launcher3.util.DisplayController.CHANGE_DENSITY;
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
 
 import android.app.ActivityManager;
 import android.app.ActivityManager.TaskDescription;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -29,11 +31,15 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.UserHandle;
 import android.text.TextUtils;
+import android.util.Pair;
 import android.util.SparseArray;
 import android.view.accessibility.AccessibilityManager;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
 
+import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.R;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.icons.BaseIconFactory;
@@ -44,12 +50,14 @@ import com.android.launcher3.util.DisplayController;
 import com.android.launcher3.util.DisplayController.DisplayInfoChangeListener;
 import com.android.launcher3.util.DisplayController.Info;
 import com.android.launcher3.util.Preconditions;
-import com.android.quickstep.util.CancellableTask;
-import com.android.quickstep.util.TaskKeyLruCache;
+import com.android.quickstep.util.CancellableRequest;
+import com.android.quickstep.util.ConcurrentTaskKeyLruCache;
 import com.android.systemui.shared.recents.model.Task;
 import com.android.systemui.shared.recents.model.Task.TaskKey;
 import com.android.systemui.shared.system.PackageManagerWrapper;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
@@ -62,7 +70,7 @@ public class TaskIconCache implements DisplayInfoChangeListener {
     private final AccessibilityManager mAccessibilityManager;
 
     private final Context mContext;
-    private final TaskKeyLruCache<TaskCacheEntry> mIconCache;
+    private final ConcurrentTaskKeyLruCache<TaskCacheEntry> mIconCache;
     private final SparseArray<BitmapInfo> mDefaultIcons = new SparseArray<>();
     private BitmapInfo mDefaultIconBase = null;
 
@@ -70,6 +78,10 @@ public class TaskIconCache implements DisplayInfoChangeListener {
 
     private BaseIconFactory mIconFactory;
 
+    // Requests made in the current main thread message, not yet submitted
+    @Nullable
+    private IconLoadBatch mOpenBatch;
+
     public TaskIconCache(Context context, Executor bgExecutor, IconProvider iconProvider) {
         mContext = context;
         mBgExecutor = bgExecutor;
@@ -79,7 +91,7 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         Resources res = context.getResources();
         int cacheSize = res.getInteger(R.integer.recentsIconCacheSize);
 
-        mIconCache = new TaskKeyLruCache<>(cacheSize);
+        mIconCache = new ConcurrentTaskKeyLruCache<>(cacheSize);
 
         DisplayController.INSTANCE.get(mContext).addChangeListener(this);
     }
@@ -94,31 +106,31 @@ public class TaskIconCache implements DisplayInfoChangeListener {
     /**
      * Asynchronously fetches the icon and other task data.
      *
+     * The requests made while handling the same main thread message, typically for all the
+     * visible tasks of overview, are loaded together in a single background job.
+     *
      * @param task The task to fetch the data for
      * @param callback The callback to receive the task after its data has been populated.
      * @return A cancelable handle to the request
      */
-    public CancellableTask updateIconInBackground(Task task, Consumer<Task> callback) {
+    public CancellableRequest updateIconInBackground(Task task, Consumer<Task> callback) {
         Preconditions.assertUIThread();
         if (task.icon != null) {
             // Nothing to load, the icon is already loaded
             callback.accept(task);
             return null;
         }
-        CancellableTask<TaskCacheEntry> request = new CancellableTask<TaskCacheEntry>() {
-            @Override
-            public TaskCacheEntry getResultOnBg() {
-                return getCacheEntry(task);
-            }
-
-            @Override
-            public void handleResult(TaskCacheEntry result) {
-                task.icon = result.icon;
-                task.titleDescription = result.contentDescription;
-                callback.accept(task);
-            }
-        };
-        mBgExecutor.execute(request);
+        if (mOpenBatch == null) {
+            IconLoadBatch batch = new IconLoadBatch();
+            mOpenBatch = batch;
+            // Submit the batch once the caller is done requesting icons
+            MAIN_EXECUTOR.getHandler().post(() -> {
+                mOpenBatch = null;
+                mBgExecutor.execute(batch);
+            });
+        }
+        IconLoadRequest request = new IconLoadRequest(task, callback);
+        mOpenBatch.mRequests.add(request);
         return request;
     }
 
@@ -139,7 +151,7 @@ public class TaskIconCache implements DisplayInfoChangeListener {
     }
 
     @WorkerThread
-    private TaskCacheEntry getCacheEntry(Task task) {
+    private TaskCacheEntry getCacheEntry(Task task, BaseIconFactory bif, IconLoadBatch batch) {
         TaskCacheEntry entry = mIconCache.getAndInvalidateIfModified(task.key);
         if (entry != null) {
             return entry;
@@ -147,7 +159,6 @@ public class TaskIconCache implements DisplayInfoChangeListener {
 
         TaskDescription desc = task.taskDescription;
         TaskKey key = task.key;
-        ActivityInfo activityInfo = null;
 
         // Create new cache entry
         entry = new TaskCacheEntry();
@@ -156,33 +167,35 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         // TODO: Load icon resource (b/143363444)
         Bitmap icon = getIcon(desc, key.userId);
         if (icon != null) {
-            entry.icon = getBitmapInfo(
+            entry.icon = getBitmapInfo(bif,
                     new BitmapDrawable(mContext.getResources(), icon),
                     key.userId,
                     desc.getPrimaryColor(),
                     false /* isInstantApp */).newIcon(mContext);
         } else {
-            activityInfo = PackageManagerWrapper.getInstance().getActivityInfo(
-                    key.getComponent(), key.userId);
-            if (activityInfo != null) {
-                BitmapInfo bitmapInfo = getBitmapInfo(
-                        mIconProvider.getIcon(activityInfo),
-                        key.userId,
-                        desc.getPrimaryColor(),
-                        activityInfo.applicationInfo.isInstantApp());
-                entry.icon = bitmapInfo.newIcon(mContext);
+            BitmapInfo launcherIcon = getLauncherIcon(key);
+            if (launcherIcon != null) {
+                // Reuse the icon of the app rendered by the launcher
+                entry.icon = launcherIcon.newIcon(mContext);
             } else {
-                entry.icon = getDefaultIcon(key.userId);
+                ActivityInfo activityInfo = batch.getActivityInfo(key);
+                if (activityInfo != null) {
+                    BitmapInfo bitmapInfo = getBitmapInfo(bif,
+                            mIconProvider.getIcon(activityInfo),
+                            key.userId,
+                            desc.getPrimaryColor(),
+                            activityInfo.applicationInfo.isInstantApp());
+                    entry.icon = bitmapInfo.newIcon(mContext);
+                } else {
+                    entry.icon = getDefaultIcon(key.userId);
+                }
             }
         }
 
         // Loading content descriptions if accessibility or low RAM recents is enabled.
         if (GO_LOW_RAM_RECENTS_ENABLED || mAccessibilityManager.isEnabled()) {
             // Skip loading the content description if the activity no longer exists
-            if (activityInfo == null) {
-                activityInfo = PackageManagerWrapper.getInstance().getActivityInfo(
-                        key.getComponent(), key.userId);
-            }
+            ActivityInfo activityInfo = batch.getActivityInfo(key);
             if (activityInfo != null) {
                 entry.contentDescription = getBadgedContentDescription(
                         activityInfo, task.key.userId, task.taskDescription);
@@ -193,6 +206,19 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         return entry;
     }
 
+    /**
+     * Returns the icon of the task's app if the launcher already has it in memory
+     */
+    @Nullable
+    private BitmapInfo getLauncherIcon(TaskKey key) {
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        ComponentName component = key.getComponent();
+        if (app == null || component == null) {
+            return null;
+        }
+        return app.getIconCache().peekIcon(component, UserHandle.of(key.userId));
+    }
+
     private Bitmap getIcon(ActivityManager.TaskDescription desc, int userId) {
         if (desc.getInMemoryIcon() != null) {
             return desc.getInMemoryIcon();
@@ -240,16 +266,14 @@ public class TaskIconCache implements DisplayInfoChangeListener {
     }
 
     @WorkerThread
-    private BitmapInfo getBitmapInfo(Drawable drawable, int userId,
+    private BitmapInfo getBitmapInfo(BaseIconFactory bif, Drawable drawable, int userId,
             int primaryColor, boolean isInstantApp) {
-        try (BaseIconFactory bif = getIconFactory()) {
-            bif.disableColorExtraction();
-            bif.setWrapperBackgroundColor(primaryColor);
+        bif.disableColorExtraction();
+        bif.setWrapperBackgroundColor(primaryColor);
 
-            // User version code O, so that the icon is always wrapped in an adaptive icon container
-            return bif.createBadgedIconBitmap(drawable,
-                    new IconOptions().setUser(UserHandle.of(userId)).setInstantApp(isInstantApp));
-        }
+        // User version code O, so that the icon is always wrapped in an adaptive icon container
+        return bif.createBadgedIconBitmap(drawable,
+                new IconOptions().setUser(UserHandle.of(userId)).setInstantApp(isInstantApp));
     }
 
     @WorkerThread
@@ -272,4 +296,74 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         public Drawable icon;
         public String contentDescription = "";
     }
+
+    /**
+     * Icon requests loaded together, sharing the icon factory and the activity lookups. Each
+     * result is posted as soon as it is loaded, so that the first icons are not delayed by the
+     * slower ones.
+     */
+    private class IconLoadBatch implements Runnable {
+
+        private final ArrayList<IconLoadRequest> mRequests = new ArrayList<>();
+        // Activities looked up by this batch, including the ones which no longer exist
+        private final HashMap<Pair<ComponentName, Integer>, ActivityInfo> mActivityInfos =
+                new HashMap<>();
+
+        @Override
+        public void run() {
+            try (BaseIconFactory bif = getIconFactory()) {
+                for (IconLoadRequest request : mRequests) {
+                    if (request.mCancelled) {
+                        continue;
+                    }
+                    TaskCacheEntry result = getCacheEntry(request.mTask, bif, this);
+                    MAIN_EXECUTOR.execute(() -> {
+                        if (!request.mCancelled) {
+                            request.handleResult(result);
+                        }
+                    });
+                }
+            }
+        }
+
+        @WorkerThread
+        @Nullable
+        ActivityInfo getActivityInfo(TaskKey key) {
+            Pair<ComponentName, Integer> lookupKey = Pair.create(key.getComponent(), key.userId);
+            if (mActivityInfos.containsKey(lookupKey)) {
+                return mActivityInfos.get(lookupKey);
+            }
+            ActivityInfo activityInfo = PackageManagerWrapper.getInstance().getActivityInfo(
+                    key.getComponent(), key.userId);
+            mActivityInfos.put(lookupKey, activityInfo);
+            return activityInfo;
+        }
+    }
+
+    /**
+     * Handle to an icon request, which is loaded by an {@link IconLoadBatch}
+     */
+    private static class IconLoadRequest implements CancellableRequest {
+
+        private final Task mTask;
+        private final Consumer<Task> mCallback;
+        private volatile boolean mCancelled;
+
+        IconLoadRequest(Task task, Consumer<Task> callback) {
+            mTask = task;
+            mCallback = callback;
+        }
+
+        @UiThread
+        void handleResult(TaskCacheEntry result) {
+            mTask.icon = result.icon;
+            mTask.titleDescription = result.contentDescription;
+            mCallback.accept(mTask);
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
 }
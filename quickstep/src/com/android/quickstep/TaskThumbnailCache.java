@@ -15,31 +15,77 @@
  */
 package com.android.quickstep;
 
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.android.launcher3.R;
+import com.android.launcher3.util.Executors.SimpleThreadFactory;
 import com.android.launcher3.util.Preconditions;
+import com.android.quickstep.util.CancellableRequest;
 import com.android.quickstep.util.CancellableTask;
-import com.android.quickstep.util.TaskKeyLruCache;
+import com.android.quickstep.util.ConcurrentTaskKeyLruCache;
+import com.android.quickstep.util.ThumbnailDiskCache;
 import com.android.systemui.shared.recents.model.Task;
 import com.android.systemui.shared.recents.model.Task.TaskKey;
 import com.android.systemui.shared.recents.model.ThumbnailData;
 import com.android.systemui.shared.system.ActivityManagerWrapper;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
+/**
+ * Cache of the task thumbnails, with separate tiers for the high resolution and the reduced
+ * resolution thumbnails. Each tier is limited by the byte size of its thumbnails, so that it
+ * holds more reduced resolution thumbnails than high resolution ones.
+ *
+ * Under memory pressure, the high resolution thumbnails are demoted: they are replaced by their
+ * reduced resolution version instead of being dropped.
+ *
+ * Optionally, the reduced resolution thumbnails are also kept on disk, see
+ * {@link ThumbnailDiskCache}. The thumbnail found on disk is returned before the one loaded from
+ * the system, so that overview has something to show when the memory cache is cold.
+ */
 public class TaskThumbnailCache {
 
     private final Executor mBgExecutor;
 
     private final int mCacheSize;
-    private final TaskKeyLruCache<ThumbnailData> mCache;
+    private final ThumbnailLruCache mHighResCache;
+    private final ThumbnailLruCache mLowResCache;
     private final HighResLoadingState mHighResLoadingState;
     private final boolean mEnableTaskSnapshotPreloading;
 
+    // Null if the disk cache is disabled
+    @Nullable
+    private final ThumbnailDiskCache mDiskCache;
+    // Executor of the disk writes, so that they don't delay the loads
+    @Nullable
+    private final Executor mDiskExecutor;
+
+    // Prefetches in flight by task id, which the requests for the same thumbnail join
+    private final SparseArray<PrefetchRequest> mPrefetches = new SparseArray<>();
+
+    // Statistics of the thumbnail requests, reported in the dump
+    private int mHitCount;
+    private int mMissCount;
+    private int mDemotedCount;
+
     public static class HighResLoadingState {
         private boolean mForceHighResThumbnails;
         private boolean mVisible;
@@ -97,7 +143,22 @@ public class TaskThumbnailCache {
         Resources res = context.getResources();
         mCacheSize = res.getInteger(R.integer.recentsThumbnailCacheSize);
         mEnableTaskSnapshotPreloading = res.getBoolean(R.bool.config_enableTaskSnapshotPreloading);
-        mCache = new TaskKeyLruCache<>(mCacheSize);
+        // Each tier can hold as many bytes as mCacheSize full screen thumbnails
+        DisplayMetrics dm = res.getDisplayMetrics();
+        long budget = (long) mCacheSize * dm.widthPixels * dm.heightPixels * 4;
+        int budgetBytes = (int) Math.min(Integer.MAX_VALUE, budget);
+        mHighResCache = new ThumbnailLruCache(budgetBytes);
+        mLowResCache = new ThumbnailLruCache(budgetBytes);
+
+        if (res.getBoolean(R.bool.config_enableTaskThumbnailDiskCache)) {
+            mDiskCache = new ThumbnailDiskCache(
+                    new File(context.getCacheDir(), "recents_thumbnails"));
+            mDiskExecutor = Executors.newSingleThreadExecutor(
+                    new SimpleThreadFactory("TaskThumbnailDiskCache-", THREAD_PRIORITY_BACKGROUND));
+        } else {
+            mDiskCache = null;
+            mDiskExecutor = null;
+        }
     }
 
     /**
@@ -120,7 +181,19 @@ public class TaskThumbnailCache {
      */
     public void updateTaskSnapShot(int taskId, ThumbnailData thumbnail) {
         Preconditions.assertUIThread();
-        mCache.updateIfAlreadyInCache(taskId, thumbnail);
+        // Keep the snapshot in the tier matching its resolution only, as a thumbnail left in the
+        // other tier is outdated
+        ThumbnailLruCache cache = thumbnail.reducedResolution ? mLowResCache : mHighResCache;
+        ThumbnailLruCache otherCache = thumbnail.reducedResolution ? mHighResCache : mLowResCache;
+        TaskKey otherKey = otherCache.getKey(taskId);
+        if (otherKey != null) {
+            otherCache.remove(otherKey);
+            if (cache.getKey(taskId) == null) {
+                cache.put(otherKey, thumbnail);
+                return;
+            }
+        }
+        cache.updateIfAlreadyInCache(taskId, thumbnail);
     }
 
     /**
@@ -129,12 +202,14 @@ public class TaskThumbnailCache {
      * @param callback The callback to receive the task after its data has been populated.
      * @return A cancelable handle to the request
      */
-    public CancellableTask updateThumbnailInBackground(
+    public CancellableRequest updateThumbnailInBackground(
             Task task, Consumer<ThumbnailData> callback) {
         Preconditions.assertUIThread();
 
         boolean lowResolution = !mHighResLoadingState.isEnabled();
+        // The thumbnails read from disk are not real snapshots, and are replaced once loaded
         if (task.thumbnail != null && task.thumbnail.thumbnail != null
+                && task.thumbnail.isRealSnapshot
                 && (!task.thumbnail.reducedResolution || lowResolution)) {
             // Nothing to load, the thumbnail is already high-resolution or matches what the
             // request, so just callback
@@ -148,47 +223,189 @@ public class TaskThumbnailCache {
         });
     }
 
-    private CancellableTask updateThumbnailInBackground(TaskKey key, boolean lowResolution,
+    private CancellableRequest updateThumbnailInBackground(TaskKey key, boolean lowResolution,
             Consumer<ThumbnailData> callback) {
         Preconditions.assertUIThread();
 
-        ThumbnailData cachedThumbnail = mCache.getAndInvalidateIfModified(key);
-        if (cachedThumbnail != null &&  cachedThumbnail.thumbnail != null
-                && (!cachedThumbnail.reducedResolution || lowResolution)) {
+        ThumbnailData cachedThumbnail = getCachedThumbnail(key, lowResolution);
+        if (cachedThumbnail != null) {
             // Already cached, lets use that thumbnail
+            mHitCount++;
             callback.accept(cachedThumbnail);
             return null;
         }
+        mMissCount++;
+
+        PrefetchRequest prefetch = mPrefetches.get(key.id);
+        if (prefetch != null && prefetch.matches(key, lowResolution)) {
+            // The thumbnail is already being loaded, wait for it
+            return prefetch.join(callback);
+        }
+
+        CancellableTask<ThumbnailData> diskRequest = null;
+        if (mDiskCache != null) {
+            // Show the thumbnail stored on disk while the current one is loading
+            diskRequest = new CancellableTask<ThumbnailData>() {
+                @Override
+                public ThumbnailData getResultOnBg() {
+                    return mDiskCache.read(key);
+                }
 
+                @Override
+                public void handleResult(ThumbnailData result) {
+                    if (result != null) {
+                        callback.accept(result);
+                    }
+                }
+            };
+            mBgExecutor.execute(diskRequest);
+        }
+        CancellableTask<ThumbnailData> placeholderRequest = diskRequest;
         CancellableTask<ThumbnailData> request = new CancellableTask<ThumbnailData>() {
             @Override
             public ThumbnailData getResultOnBg() {
-                return ActivityManagerWrapper.getInstance().getTaskThumbnail(
-                        key.id, lowResolution);
+                return loadThumbnail(key, lowResolution);
             }
 
             @Override
             public void handleResult(ThumbnailData result) {
-                mCache.put(key, result);
+                putInCache(key, result);
                 callback.accept(result);
             }
+
+            @Override
+            public void cancel() {
+                super.cancel();
+                if (placeholderRequest != null) {
+                    placeholderRequest.cancel();
+                }
+            }
         };
         mBgExecutor.execute(request);
         return request;
     }
 
+    /**
+     * Loads the thumbnail of a task from the system, and stores it on disk if enabled
+     */
+    @WorkerThread
+    private ThumbnailData loadThumbnail(TaskKey key, boolean lowResolution) {
+        ThumbnailData thumbnail = ActivityManagerWrapper.getInstance().getTaskThumbnail(
+                key.id, lowResolution);
+        if (mDiskCache != null && thumbnail != null) {
+            mDiskExecutor.execute(() -> mDiskCache.write(key, thumbnail));
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Asynchronously loads the thumbnail of a task which is likely to be visible soon into the
+     * cache. Requests for the same thumbnail made while it is loading wait for this load.
+     *
+     * @return A cancelable handle to the request, or null if the thumbnail is already cached. The
+     *         load continues after it is cancelled if other requests are waiting for it.
+     */
+    public CancellableRequest prefetchThumbnail(TaskKey key, boolean lowResolution) {
+        Preconditions.assertUIThread();
+
+        if (getCachedThumbnail(key, lowResolution) != null) {
+            return null;
+        }
+
+        PrefetchRequest request = new PrefetchRequest(key, lowResolution);
+        mPrefetches.put(key.id, request);
+        mBgExecutor.execute(request);
+        return request;
+    }
+
+    /**
+     * Returns the valid cached thumbnail of {@param key}, in high resolution unless
+     * {@param lowResolution} is true, or null if there is none
+     */
+    private ThumbnailData getCachedThumbnail(TaskKey key, boolean lowResolution) {
+        ThumbnailData thumbnail = mHighResCache.getAndInvalidateIfModified(key);
+        if ((thumbnail == null || thumbnail.thumbnail == null) && lowResolution) {
+            thumbnail = mLowResCache.getAndInvalidateIfModified(key);
+        }
+        return thumbnail != null && thumbnail.thumbnail != null
+                && (!thumbnail.reducedResolution || lowResolution) ? thumbnail : null;
+    }
+
+    private void putInCache(TaskKey key, ThumbnailData thumbnail) {
+        if (thumbnail.reducedResolution) {
+            // Don't hide a high resolution thumbnail loaded in the meantime
+            if (getCachedThumbnail(key, false /* lowResolution */) == null) {
+                mLowResCache.put(key, thumbnail);
+            }
+        } else {
+            mHighResCache.put(key, thumbnail);
+            mLowResCache.remove(key);
+        }
+    }
+
+    /**
+     * Releases memory according to {@param level}, see
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_MODERATE) {
+            // Clear everything once we reach a low-mem situation, or are likely to be killed
+            clear();
+        } else if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_BACKGROUND) {
+            demoteHighResThumbnails();
+        }
+    }
+
+    /**
+     * Replaces the high resolution thumbnails by their reduced resolution version, which is
+     * loaded in the background
+     */
+    private void demoteHighResThumbnails() {
+        Preconditions.assertUIThread();
+        ArrayList<TaskKey> keys = mHighResCache.getKeys();
+        mHighResCache.evictAll();
+        if (mHighResLoadingState.mForceHighResThumbnails) {
+            // There are no reduced resolution thumbnails
+            return;
+        }
+        // Load the most recently used thumbnails last, so that they are kept in the low tier
+        for (TaskKey key : keys) {
+            if (getCachedThumbnail(key, true /* lowResolution */) != null
+                    || mPrefetches.get(key.id) != null) {
+                continue;
+            }
+            mDemotedCount++;
+            mBgExecutor.execute(new CancellableTask<ThumbnailData>() {
+                @Override
+                public ThumbnailData getResultOnBg() {
+                    return loadThumbnail(key, true /* lowResolution */);
+                }
+
+                @Override
+                public void handleResult(ThumbnailData result) {
+                    putInCache(key, result);
+                }
+            });
+        }
+    }
+
     /**
      * Clears the cache.
      */
     public void clear() {
-        mCache.evictAll();
+        mHighResCache.evictAll();
+        mLowResCache.evictAll();
     }
 
     /**
      * Removes the cached thumbnail for the given task.
      */
     public void remove(Task.TaskKey key) {
-        mCache.remove(key);
+        mHighResCache.remove(key);
+        mLowResCache.remove(key);
+        if (mDiskCache != null) {
+            mDiskExecutor.execute(() -> mDiskCache.remove(key.id));
+        }
     }
 
     /**
@@ -212,6 +429,25 @@ public class TaskThumbnailCache {
         return mEnableTaskSnapshotPreloading && mHighResLoadingState.mVisible;
     }
 
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "TaskThumbnailCache:");
+        dumpTier(prefix + "  ", "highRes", mHighResCache, writer);
+        dumpTier(prefix + "  ", "lowRes", mLowResCache, writer);
+        int requestCount = mHitCount + mMissCount;
+        writer.println(prefix + "  hits=" + mHitCount + " misses=" + mMissCount
+                + " hitRate=" + (requestCount == 0 ? "-" : (100 * mHitCount / requestCount) + "%")
+                + " demoted=" + mDemotedCount);
+        if (mDiskCache != null) {
+            mDiskCache.dump(prefix + "  ", writer);
+        }
+    }
+
+    private static void dumpTier(String prefix, String name, ThumbnailLruCache cache,
+            PrintWriter writer) {
+        writer.println(prefix + name + ": entries=" + cache.getEntryCount()
+                + " bytes=" + cache.getSize() + "/" + cache.getMaxSize());
+    }
+
     /**
      * @return Whether device supports low-res thumbnails. Low-res files are an optimization
      * for faster load times of snapshots. Devices can optionally disable low-res files so that
@@ -227,4 +463,104 @@ public class TaskThumbnailCache {
         return true;
     }
 
+    /**
+     * A cache of thumbnails weighed by their byte size
+     */
+    private static class ThumbnailLruCache extends ConcurrentTaskKeyLruCache<ThumbnailData> {
+
+        ThumbnailLruCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(ThumbnailData value) {
+            Bitmap bitmap = value.thumbnail;
+            return bitmap != null ? bitmap.getAllocationByteCount() : 1;
+        }
+    }
+
+    private class PrefetchRequest extends CancellableTask<ThumbnailData> {
+
+        private final TaskKey mKey;
+        private final boolean mLowResolution;
+        private final ArrayList<JoinedRequest> mJoinedRequests = new ArrayList<>();
+
+        // Whether the prefetch itself was cancelled, in which case the load only continues for
+        // the joined requests
+        private boolean mReleased;
+
+        PrefetchRequest(TaskKey key, boolean lowResolution) {
+            mKey = key;
+            mLowResolution = lowResolution;
+        }
+
+        boolean matches(TaskKey key, boolean lowResolution) {
+            return mKey.lastActiveTime == key.lastActiveTime
+                    && mKey.windowingMode == key.windowingMode
+                    && (!mLowResolution || lowResolution);
+        }
+
+        CancellableRequest join(Consumer<ThumbnailData> callback) {
+            JoinedRequest request = new JoinedRequest(this, callback);
+            mJoinedRequests.add(request);
+            return request;
+        }
+
+        @Override
+        public ThumbnailData getResultOnBg() {
+            return loadThumbnail(mKey, mLowResolution);
+        }
+
+        @Override
+        public void handleResult(ThumbnailData result) {
+            if (mPrefetches.get(mKey.id) == this) {
+                mPrefetches.remove(mKey.id);
+            }
+            putInCache(mKey, result);
+            for (JoinedRequest request : mJoinedRequests) {
+                request.mCallback.accept(result);
+            }
+            mJoinedRequests.clear();
+        }
+
+        @Override
+        public void cancel() {
+            mReleased = true;
+            if (mJoinedRequests.isEmpty()) {
+                cancelLoad();
+            }
+        }
+
+        void onJoinedRequestCancelled(JoinedRequest request) {
+            if (mJoinedRequests.remove(request) && mReleased && mJoinedRequests.isEmpty()) {
+                cancelLoad();
+            }
+        }
+
+        private void cancelLoad() {
+            super.cancel();
+            if (mPrefetches.get(mKey.id) == this) {
+                mPrefetches.remove(mKey.id);
+            }
+        }
+    }
+
+    /**
+     * A request waiting for a {@link PrefetchRequest}, which delivers the result to it
+     */
+    private static class JoinedRequest implements CancellableRequest {
+
+        private final PrefetchRequest mPrefetch;
+        private final Consumer<ThumbnailData> mCallback;
+
+        JoinedRequest(PrefetchRequest prefetch, Consumer<ThumbnailData> callback) {
+            mPrefetch = prefetch;
+            mCallback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            mPrefetch.onJoinedRequestCancelled(this);
+        }
+    }
 }
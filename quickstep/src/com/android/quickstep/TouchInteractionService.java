@@ -63,6 +63,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 
 import com.android.launcher3.BaseDraggingActivity;
+import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.R;
 import com.android.launcher3.ResourceUtils;
 import com.android.launcher3.Utilities;
@@ -1042,5 +1043,10 @@ public class TouchInteractionService extends Service
         mConsumer.writeToProto(serviceProto);
 
         proto.setTouchInteractionService(serviceProto);
+
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        if (app != null) {
+            proto.setLoaderStats(app.getModel().getLoaderStats().toProto());
+        }
     }
 }
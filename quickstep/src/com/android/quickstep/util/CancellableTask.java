@@ -23,7 +23,7 @@ import androidx.annotation.WorkerThread;
 /**
  * Utility class to executore a task on background and post the result on UI thread
  */
-public abstract class CancellableTask<T> implements Runnable {
+public abstract class CancellableTask<T> implements Runnable, CancellableRequest {
 
     private boolean mCancelled = false;
 
@@ -62,6 +62,7 @@ public abstract class CancellableTask<T> implements Runnable {
      * Cancels the request. If it is called before {@link #handleResult(Object)}, that method
      * will not be called
      */
+    @Override
     public void cancel() {
         mCancelled = true;
     }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A variant of {@link TaskKeyLruCache} for caches which are read on the main thread while
+ * loaders insert entries in the background.
+ *
+ * Lookups don't take any lock: the entries are in a {@link ConcurrentHashMap} and a lookup only
+ * marks its entry as referenced. Writes are serialized, and evict the entries in an approximate
+ * LRU order using the CLOCK (second chance) algorithm: the entries are kept in insertion order,
+ * and a referenced entry is moved back to the end with its mark cleared instead of being evicted.
+ *
+ * @param <V> The type of the value
+ */
+public class ConcurrentTaskKeyLruCache<V> {
+
+    private static final String TAG = "ConcurrentTaskKeyLruCache";
+
+    private final ConcurrentHashMap<Integer, Entry<V>> mMap = new ConcurrentHashMap<>();
+    private final int mMaxSize;
+
+    // Guards the writes, and the fields below
+    private final Object mWriteLock = new Object();
+    // Entries in their eviction order, including the entries which are no longer in mMap
+    private final ArrayDeque<Entry<V>> mClock = new ArrayDeque<>();
+    private int mStaleCount;
+    private volatile int mSize;
+
+    public ConcurrentTaskKeyLruCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the size of {@param value} in the cache, 1 by default
+     */
+    protected int sizeOf(V value) {
+        return 1;
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public void evictAll() {
+        synchronized (mWriteLock) {
+            mMap.clear();
+            mClock.clear();
+            mStaleCount = 0;
+            mSize = 0;
+        }
+    }
+
+    /**
+     * Removes a particular entry from the cache
+     */
+    public void remove(TaskKey key) {
+        synchronized (mWriteLock) {
+            Entry<V> entry = mMap.remove(key.id);
+            if (entry != null) {
+                onRemovedLocked(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries matching keyCheck
+     */
+    public void removeAll(Predicate<TaskKey> keyCheck) {
+        synchronized (mWriteLock) {
+            Iterator<Entry<V>> it = mMap.values().iterator();
+            while (it.hasNext()) {
+                Entry<V> entry = it.next();
+                if (keyCheck.test(entry.mKey)) {
+                    it.remove();
+                    onRemovedLocked(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the entry if it is still valid
+     */
+    public V getAndInvalidateIfModified(TaskKey key) {
+        Entry<V> entry = mMap.get(key.id);
+        if (entry != null && entry.mKey.windowingMode == key.windowingMode
+                && entry.mKey.lastActiveTime == key.lastActiveTime) {
+            entry.mReferenced = true;
+            return entry.mValue;
+        }
+        if (entry != null) {
+            synchronized (mWriteLock) {
+                if (mMap.remove(key.id, entry)) {
+                    onRemovedLocked(entry);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key of the entry of {@param taskId}, or null if the task isn't cached
+     */
+    @Nullable
+    public TaskKey getKey(int taskId) {
+        Entry<V> entry = mMap.get(taskId);
+        return entry != null ? entry.mKey : null;
+    }
+
+    /**
+     * Adds an entry to the cache, optionally evicting the least recently accessed entries
+     */
+    public final void put(TaskKey key, V value) {
+        if (key == null || value == null) {
+            Log.e(TAG, "Unexpected null key or value: " + key + ", " + value);
+            return;
+        }
+        Entry<V> entry = new Entry<>(key, value, sizeOf(value));
+        synchronized (mWriteLock) {
+            Entry<V> previous = mMap.put(key.id, entry);
+            if (previous != null) {
+                onRemovedLocked(previous);
+            }
+            mClock.addLast(entry);
+            mSize += entry.mSize;
+            trimToSizeLocked();
+        }
+    }
+
+    /**
+     * Updates the cache entry if it is already present in the cache
+     */
+    public void updateIfAlreadyInCache(int taskId, V data) {
+        synchronized (mWriteLock) {
+            Entry<V> entry = mMap.get(taskId);
+            if (entry != null) {
+                int size = sizeOf(data);
+                mSize += size - entry.mSize;
+                entry.mValue = data;
+                entry.mSize = size;
+                trimToSizeLocked();
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of all the entries, in their eviction order
+     */
+    public ArrayList<TaskKey> getKeys() {
+        synchronized (mWriteLock) {
+            ArrayList<TaskKey> keys = new ArrayList<>(mMap.size());
+            for (Entry<V> entry : mClock) {
+                if (mMap.get(entry.mKey.id) == entry) {
+                    keys.add(entry.mKey);
+                }
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of entries
+     */
+    public int getEntryCount() {
+        return mMap.size();
+    }
+
+    private void onRemovedLocked(Entry<V> entry) {
+        mSize -= entry.mSize;
+        // The entry is dropped from the clock when the hand reaches it, or when the clock holds
+        // more removed entries than valid ones
+        mStaleCount++;
+        if (mStaleCount > mMap.size()) {
+            mClock.removeIf(e -> mMap.get(e.mKey.id) != e);
+            mStaleCount = 0;
+        }
+    }
+
+    private void trimToSizeLocked() {
+        while (mSize > mMaxSize && !mClock.isEmpty()) {
+            Entry<V> entry = mClock.pollFirst();
+            if (mMap.get(entry.mKey.id) != entry) {
+                // Already removed
+                mStaleCount--;
+            } else if (entry.mReferenced && mClock.size() > 0) {
+                // Second chance
+                entry.mReferenced = false;
+                mClock.addLast(entry);
+            } else {
+                mMap.remove(entry.mKey.id);
+                mSize -= entry.mSize;
+            }
+        }
+    }
+
+    private static class Entry<V> {
+
+        final TaskKey mKey;
+        volatile V mValue;
+        volatile boolean mReferenced;
+        // Only accessed with the write lock
+        int mSize;
+
+        Entry(TaskKey key, V value, int size) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+        }
+    }
+}
@@ -19,20 +19,32 @@ import android.util.Log;
 
 import com.android.systemui.shared.recents.model.Task.TaskKey;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.function.Predicate;
 
 /**
- * A simple LRU cache for task key entries
+ * A simple LRU cache for task key entries. By default the size of the cache is its number of
+ * entries, subclasses can weigh the entries by overriding {@link #sizeOf(Object)}.
  * @param <V> The type of the value
  */
 public class TaskKeyLruCache<V> {
 
-    private final MyLinkedHashMap<V> mMap;
+    private final LinkedHashMap<Integer, Entry<V>> mMap =
+            new LinkedHashMap<>(0, 0.75f, true /* accessOrder */);
+    private final int mMaxSize;
+    private int mSize;
 
     public TaskKeyLruCache(int maxSize) {
-        mMap = new MyLinkedHashMap<>(maxSize);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the size of {@param value} in the cache, 1 by default
+     */
+    protected int sizeOf(V value) {
+        return 1;
     }
 
     /**
@@ -40,20 +52,60 @@ public class TaskKeyLruCache<V> {
      */
     public synchronized void evictAll() {
         mMap.clear();
+        mSize = 0;
     }
 
     /**
      * Removes a particular entry from the cache
      */
     public synchronized void remove(TaskKey key) {
-        mMap.remove(key.id);
+        Entry<V> entry = mMap.remove(key.id);
+        if (entry != null) {
+            mSize -= entry.mSize;
+        }
     }
 
     /**
      * Removes all entries matching keyCheck
      */
     public synchronized void removeAll(Predicate<TaskKey> keyCheck) {
-        mMap.entrySet().removeIf(e -> keyCheck.test(e.getValue().mKey));
+        Iterator<Entry<V>> it = mMap.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> entry = it.next();
+            if (keyCheck.test(entry.mKey)) {
+                it.remove();
+                mSize -= entry.mSize;
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of all the entries, from the least to the most recently accessed
+     */
+    public synchronized ArrayList<TaskKey> getKeys() {
+        ArrayList<TaskKey> keys = new ArrayList<>(mMap.size());
+        for (Entry<V> entry : mMap.values()) {
+            keys.add(entry.mKey);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries
+     */
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of entries
+     */
+    public synchronized int getEntryCount() {
+        return mMap.size();
     }
 
     /**
@@ -76,7 +128,10 @@ public class TaskKeyLruCache<V> {
      */
     public final synchronized void put(TaskKey key, V value) {
         if (key != null && value != null) {
-            mMap.put(key.id, new Entry<>(key, value));
+            Entry<V> entry = new Entry<>(key, value, sizeOf(value));
+            Entry<V> previous = mMap.put(key.id, entry);
+            mSize += entry.mSize - (previous != null ? previous.mSize : 0);
+            trimToSize();
         } else {
             Log.e("TaskKeyCache", "Unexpected null key or value: " + key + ", " + value);
         }
@@ -88,7 +143,22 @@ public class TaskKeyLruCache<V> {
     public synchronized void updateIfAlreadyInCache(int taskId, V data) {
         Entry<V> entry = mMap.get(taskId);
         if (entry != null) {
+            int size = sizeOf(data);
+            mSize += size - entry.mSize;
             entry.mValue = data;
+            entry.mSize = size;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Removes the least recently accessed entries until the cache fits in its max size
+     */
+    private void trimToSize() {
+        Iterator<Entry<V>> it = mMap.values().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            mSize -= it.next().mSize;
+            it.remove();
         }
     }
 
@@ -96,10 +166,12 @@ public class TaskKeyLruCache<V> {
 
         final TaskKey mKey;
         V mValue;
+        int mSize;
 
-        Entry(TaskKey key, V value) {
+        Entry(TaskKey key, V value, int size) {
             mKey = key;
             mValue = value;
+            mSize = size;
         }
 
         @Override
@@ -107,19 +179,4 @@ public class TaskKeyLruCache<V> {
             return mKey.id;
         }
     }
-
-    private static class MyLinkedHashMap<V> extends LinkedHashMap<Integer, Entry<V>> {
-
-        private final int mMaxSize;
-
-        MyLinkedHashMap(int maxSize) {
-            super(0, 0.75f, true /* accessOrder */);
-            mMaxSize = maxSize;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Integer, TaskKeyLruCache.Entry<V>> eldest) {
-            return size() > mMaxSize;
-        }
-    }
 }
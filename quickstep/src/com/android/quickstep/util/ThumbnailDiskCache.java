@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+import com.android.systemui.shared.recents.model.ThumbnailData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * A directory of compressed reduced resolution task thumbnails, so that overview can show the
+ * recent tasks right after the launcher process restarts, while their current thumbnails are
+ * loaded from the system.
+ *
+ * Each thumbnail is stored in its own file, named after the task id and the last active time of
+ * the task, so that a thumbnail is only used for the task state it was taken in. The file holds
+ * the thumbnail metadata followed by the thumbnail compressed as WEBP. The thumbnails are evicted
+ * once they are older than {@link #MAX_AGE_MS}, and the oldest ones are evicted when the
+ * directory grows over {@link #MAX_SIZE_BYTES}.
+ *
+ * The thumbnails read from disk are marked as reduced resolution and not real snapshots, so they
+ * are replaced by the system thumbnail and are not used for the task actions.
+ *
+ * This class is thread safe. The thumbnails are compressed and decompressed without holding the
+ * lock.
+ */
+public class ThumbnailDiskCache {
+
+    private static final String TAG = "ThumbnailDiskCache";
+
+    private static final int MAGIC = 0x54484d42;
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_SUFFIX = ".thumb";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final long MAX_SIZE_BYTES = 8L << 20;
+    private static final long MAX_AGE_MS = 3L * 24 * 60 * 60 * 1000;
+    private static final int COMPRESS_QUALITY = 80;
+
+    private final File mDir;
+
+    // Records by task id, only accessed with the lock held
+    private final SparseArray<Record> mRecords = new SparseArray<>();
+    private boolean mIndexLoaded;
+    private long mSize;
+
+    private int mReadCount;
+    private int mMissCount;
+    private int mWriteCount;
+
+    public ThumbnailDiskCache(@NonNull File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Returns the thumbnail stored for {@param key}, or null if there is none or it was stored
+     * for a different state of the task
+     */
+    @WorkerThread
+    @Nullable
+    public ThumbnailData read(TaskKey key) {
+        File file;
+        synchronized (this) {
+            ensureIndexLoaded();
+            Record record = mRecords.get(key.id);
+            if (record == null || record.lastActiveTime != key.lastActiveTime) {
+                mMissCount++;
+                return null;
+            }
+            if (record.isExpired(System.currentTimeMillis())) {
+                removeLocked(key.id);
+                mMissCount++;
+                return null;
+            }
+            file = record.file;
+        }
+
+        ThumbnailData thumbnail = null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            thumbnail = readThumbnail(in);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading thumbnail", e);
+        }
+
+        synchronized (this) {
+            if (thumbnail == null) {
+                Record record = mRecords.get(key.id);
+                if (record != null && record.file.equals(file)) {
+                    removeLocked(key.id);
+                }
+                mMissCount++;
+            } else {
+                mReadCount++;
+            }
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Stores {@param thumbnail} for {@param key}, replacing any previous thumbnail of the task.
+     * Only the reduced resolution real snapshots are stored.
+     */
+    @WorkerThread
+    public void write(TaskKey key, ThumbnailData thumbnail) {
+        if (thumbnail.thumbnail == null || !thumbnail.reducedResolution
+                || !thumbnail.isRealSnapshot) {
+            return;
+        }
+        synchronized (this) {
+            ensureIndexLoaded();
+            Record record = mRecords.get(key.id);
+            if (record != null && record.lastActiveTime == key.lastActiveTime) {
+                // The task did not change since the stored thumbnail was taken
+                return;
+            }
+        }
+
+        byte[] data;
+        try {
+            data = writeThumbnail(thumbnail);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error compressing thumbnail", e);
+            return;
+        }
+
+        File file = new File(mDir, key.id + "_" + key.lastActiveTime + FILE_SUFFIX);
+        File tempFile = new File(mDir, file.getName() + TEMP_FILE_SUFFIX);
+        synchronized (this) {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                return;
+            }
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                out.write(data);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing thumbnail", e);
+                tempFile.delete();
+                return;
+            }
+            removeLocked(key.id);
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+            putLocked(new Record(key.id, file, key.lastActiveTime, data.length,
+                    System.currentTimeMillis()));
+            mWriteCount++;
+            trimToSizeLocked();
+        }
+    }
+
+    /**
+     * Removes the stored thumbnail of the task
+     */
+    @WorkerThread
+    public synchronized void remove(int taskId) {
+        ensureIndexLoaded();
+        removeLocked(taskId);
+    }
+
+    /**
+     * Removes all the stored thumbnails
+     */
+    @WorkerThread
+    public synchronized void clear() {
+        ensureIndexLoaded();
+        for (int i = mRecords.size() - 1; i >= 0; i--) {
+            mRecords.valueAt(i).file.delete();
+        }
+        mRecords.clear();
+        mSize = 0;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "ThumbnailDiskCache: thumbnails=" + mRecords.size()
+                + " bytes=" + mSize + "/" + MAX_SIZE_BYTES
+                + " reads=" + mReadCount + " misses=" + mMissCount + " writes=" + mWriteCount);
+    }
+
+    @VisibleForTesting
+    synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Builds the records from the files of the directory, and deletes the expired and invalid
+     * files
+     */
+    private void ensureIndexLoaded() {
+        if (mIndexLoaded) {
+            return;
+        }
+        mIndexLoaded = true;
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            Record record = parseRecord(file);
+            if (record == null || record.isExpired(now)) {
+                file.delete();
+                continue;
+            }
+            Record existing = mRecords.get(record.taskId);
+            if (existing != null && existing.lastModified >= record.lastModified) {
+                file.delete();
+                continue;
+            }
+            removeLocked(record.taskId);
+            putLocked(record);
+        }
+        trimToSizeLocked();
+    }
+
+    private void putLocked(Record record) {
+        mRecords.put(record.taskId, record);
+        mSize += record.size;
+    }
+
+    private void removeLocked(int taskId) {
+        Record record = mRecords.get(taskId);
+        if (record != null) {
+            mRecords.remove(taskId);
+            mSize -= record.size;
+            record.file.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently written thumbnails until the directory fits in its budget
+     */
+    private void trimToSizeLocked() {
+        if (mSize <= MAX_SIZE_BYTES) {
+            return;
+        }
+        ArrayList<Integer> taskIds = new ArrayList<>(mRecords.size());
+        for (int i = 0; i < mRecords.size(); i++) {
+            taskIds.add(mRecords.keyAt(i));
+        }
+        taskIds.sort((a, b) -> Long.compare(
+                mRecords.get(a).lastModified, mRecords.get(b).lastModified));
+        for (int i = 0; i < taskIds.size() && mSize > MAX_SIZE_BYTES; i++) {
+            removeLocked(taskIds.get(i));
+        }
+    }
+
+    /**
+     * Returns the record of {@param file}, or null if it is not a thumbnail file
+     */
+    @Nullable
+    private static Record parseRecord(File file) {
+        String name = file.getName();
+        int separator = name.indexOf('_');
+        if (!name.endsWith(FILE_SUFFIX) || separator <= 0) {
+            return null;
+        }
+        try {
+            int taskId = Integer.parseInt(name.substring(0, separator));
+            long lastActiveTime = Long.parseLong(
+                    name.substring(separator + 1, name.length() - FILE_SUFFIX.length()));
+            return new Record(taskId, file, lastActiveTime, file.length(), file.lastModified());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static byte[] writeThumbnail(ThumbnailData thumbnail) throws IOException {
+        Bitmap bitmap = thumbnail.thumbnail;
+        Bitmap softwareBitmap = bitmap.getConfig() == Config.HARDWARE
+                ? bitmap.copy(Config.ARGB_8888, false /* isMutable */) : bitmap;
+        if (softwareBitmap == null) {
+            throw new IOException("Can't read thumbnail pixels");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(thumbnail.rotation);
+        out.writeInt(thumbnail.windowingMode);
+        out.writeInt(thumbnail.appearance);
+        out.writeFloat(thumbnail.scale);
+        writeRect(out, thumbnail.insets);
+        writeRect(out, thumbnail.letterboxInsets);
+        out.flush();
+        boolean compressed = softwareBitmap.compress(
+                CompressFormat.WEBP_LOSSY, COMPRESS_QUALITY, bytes);
+        if (softwareBitmap != bitmap) {
+            softwareBitmap.recycle();
+        }
+        if (!compressed) {
+            throw new IOException("Can't compress thumbnail");
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    private static ThumbnailData readThumbnail(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        ThumbnailData thumbnail = new ThumbnailData();
+        thumbnail.rotation = in.readInt();
+        thumbnail.windowingMode = in.readInt();
+        thumbnail.appearance = in.readInt();
+        thumbnail.scale = in.readFloat();
+        readRect(in, thumbnail.insets);
+        readRect(in, thumbnail.letterboxInsets);
+        thumbnail.reducedResolution = true;
+        thumbnail.isRealSnapshot = false;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Config.HARDWARE;
+        thumbnail.thumbnail = BitmapFactory.decodeStream(in, null, options);
+        return thumbnail.thumbnail != null ? thumbnail : null;
+    }
+
+    private static void writeRect(DataOutputStream out, Rect rect) throws IOException {
+        out.writeInt(rect.left);
+        out.writeInt(rect.top);
+        out.writeInt(rect.right);
+        out.writeInt(rect.bottom);
+    }
+
+    private static void readRect(DataInputStream in, Rect outRect) throws IOException {
+        outRect.set(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+    }
+
+    private static class Record {
+
+        final int taskId;
+        final File file;
+        final long lastActiveTime;
+        final long size;
+        final long lastModified;
+
+        Record(int taskId, File file, long lastActiveTime, long size, long lastModified) {
+            this.taskId = taskId;
+            this.file = file;
+            this.lastActiveTime = lastActiveTime;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean isExpired(long now) {
+            return now - lastModified > MAX_AGE_MS;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import android.util.SparseArray;
+
+import androidx.annotation.UiThread;
+
+import com.android.quickstep.TaskThumbnailCache;
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+
+import java.util.ArrayList;
+
+/**
+ * Loads the thumbnails of the tasks where a fling of the recents list will land, so that they
+ * are ready when the scroll settles.
+ *
+ * The caller provides the tasks of the projected window each time it changes. The prefetches
+ * of the tasks which are no longer in the window are cancelled, unless a task view already waits
+ * for them.
+ */
+public class ThumbnailPrefetcher {
+
+    private final TaskThumbnailCache mThumbnailCache;
+
+    // Prefetches in flight, by task id
+    private SparseArray<Prefetch> mPrefetches = new SparseArray<>();
+    private SparseArray<Prefetch> mTmpPrefetches = new SparseArray<>();
+
+    public ThumbnailPrefetcher(TaskThumbnailCache thumbnailCache) {
+        mThumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Prefetches the thumbnails of {@param lowResTasks} and {@param highResTasks}, and cancels
+     * the other prefetches
+     */
+    @UiThread
+    public void setProjectedTasks(ArrayList<TaskKey> lowResTasks,
+            ArrayList<TaskKey> highResTasks) {
+        for (int i = 0; i < highResTasks.size(); i++) {
+            prefetch(highResTasks.get(i), false /* lowResolution */);
+        }
+        for (int i = 0; i < lowResTasks.size(); i++) {
+            TaskKey key = lowResTasks.get(i);
+            if (mTmpPrefetches.indexOfKey(key.id) < 0) {
+                prefetch(key, true /* lowResolution */);
+            }
+        }
+        cancelAll();
+
+        SparseArray<Prefetch> prefetches = mPrefetches;
+        mPrefetches = mTmpPrefetches;
+        mTmpPrefetches = prefetches;
+    }
+
+    /**
+     * Cancels all the prefetches
+     */
+    @UiThread
+    public void cancelAll() {
+        for (int i = 0; i < mPrefetches.size(); i++) {
+            Prefetch prefetch = mPrefetches.valueAt(i);
+            if (prefetch != null) {
+                prefetch.request.cancel();
+            }
+        }
+        mPrefetches.clear();
+    }
+
+    private void prefetch(TaskKey key, boolean lowResolution) {
+        Prefetch prefetch = mPrefetches.get(key.id);
+        if (prefetch != null && (!prefetch.lowResolution || lowResolution)) {
+            // Keep the prefetch in flight
+            mPrefetches.remove(key.id);
+        } else {
+            CancellableRequest request = mThumbnailCache.prefetchThumbnail(key, lowResolution);
+            prefetch = request == null ? null : new Prefetch(request, lowResolution);
+        }
+        // A null prefetch marks the thumbnails which are already cached
+        mTmpPrefetches.put(key.id, prefetch);
+    }
+
+    private static class Prefetch {
+
+        final CancellableRequest request;
+        final boolean lowResolution;
+
+        Prefetch(CancellableRequest request, boolean lowResolution) {
+            this.request = request;
+            this.lowResolution = lowResolution;
+        }
+    }
+}
@@ -169,10 +169,12 @@ import com.android.quickstep.util.SplitScreenBounds;
 import com.android.quickstep.util.SplitSelectStateController;
 import com.android.quickstep.util.SurfaceTransactionApplier;
 import com.android.quickstep.util.TaskViewSimulator;
+import com.android.quickstep.util.ThumbnailPrefetcher;
 import com.android.quickstep.util.TransformParams;
 import com.android.quickstep.util.VibratorWrapper;
 import com.android.systemui.plugins.ResourceProvider;
 import com.android.systemui.shared.recents.model.Task;
+import com.android.systemui.shared.recents.model.Task.TaskKey;
 import com.android.systemui.shared.recents.model.ThumbnailData;
 import com.android.systemui.shared.system.ActivityManagerWrapper;
 import com.android.systemui.shared.system.InteractionJankMonitorWrapper;
@@ -442,6 +444,13 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
     // Keeps track of the previously known visible tasks for purposes of loading/unloading task data
     private final SparseBooleanArray mHasVisibleTaskData = new SparseBooleanArray();
 
+    // Loads the thumbnails of the tasks where a fling will land
+    private final ThumbnailPrefetcher mThumbnailPrefetcher;
+    private final ArrayList<TaskKey> mPrefetchLowResTasks = new ArrayList<>();
+    private final ArrayList<TaskKey> mPrefetchHighResTasks = new ArrayList<>();
+    // Final scroll of the fling the thumbnails are prefetched for
+    private int mPrefetchFinalScroll = Integer.MIN_VALUE;
+
     private final InvariantDeviceProfile mIdp;
 
     /**
@@ -693,6 +702,7 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         mFastFlingVelocity = getResources()
                 .getDimensionPixelSize(R.dimen.recents_fast_fling_velocity);
         mModel = RecentsModel.INSTANCE.get(context);
+        mThumbnailPrefetcher = new ThumbnailPrefetcher(mModel.getThumbnailCache());
         mIdp = InvariantDeviceProfile.INSTANCE.get(context);
 
         mClearAllButton = (ClearAllButton) LayoutInflater.from(context)
@@ -1809,6 +1819,13 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
             // After scrolling, update the visible task's data
             loadVisibleTaskData(TaskView.FLAG_UPDATE_ALL);
         }
+        if (scrolling && !isHandlingTouch()) {
+            updateThumbnailPrefetch();
+        } else if (mPrefetchFinalScroll != Integer.MIN_VALUE) {
+            // The visible tasks wait for the prefetches they need
+            mThumbnailPrefetcher.cancelAll();
+            mPrefetchFinalScroll = Integer.MIN_VALUE;
+        }
 
         // Update ActionsView's visibility when scroll changes.
         updateActionsViewFocusedScroll();
@@ -1950,6 +1967,57 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         }
     }
 
+    /**
+     * Prefetches the thumbnails of the tasks which will be visible at the end of the current
+     * fling, using the same bounds as {@link #loadVisibleTaskData(int)} around the final scroll
+     * of the scroller. The tasks where the fling lands are loaded in high resolution, as they
+     * would not be while flinging fast.
+     */
+    private void updateThumbnailPrefetch() {
+        int finalScroll = mOrientationHandler.getPrimaryValue(mScroller.getFinalX(),
+                mScroller.getFinalY());
+        if (finalScroll == mPrefetchFinalScroll || mTaskListChangeId == -1) {
+            return;
+        }
+        mPrefetchFinalScroll = finalScroll;
+        mPrefetchLowResTasks.clear();
+        mPrefetchHighResTasks.clear();
+
+        int pageOrientedSize = mOrientationHandler.getMeasuredSize(this);
+        if (Math.abs(finalScroll - mOrientationHandler.getPrimaryScroll(this))
+                > pageOrientedSize / 2) {
+            // Otherwise the fling lands on the visible tasks, which are already loaded
+            int halfScreenSize = pageOrientedSize / 2;
+            int landingPage = showAsGrid() ? INVALID_PAGE : getDestinationPage(finalScroll);
+            for (int i = 0; i < getTaskViewCount(); i++) {
+                TaskView taskView = requireTaskViewAt(i);
+                boolean visible;
+                boolean highRes;
+                if (showAsGrid()) {
+                    visible = isTaskViewWithinBounds(taskView, finalScroll - halfScreenSize,
+                            finalScroll + pageOrientedSize + halfScreenSize);
+                    highRes = isTaskViewWithinBounds(taskView, finalScroll,
+                            finalScroll + pageOrientedSize);
+                } else {
+                    int distance = Math.abs(indexOfChild(taskView) - landingPage);
+                    visible = landingPage != INVALID_PAGE && distance <= 2;
+                    highRes = visible && distance <= 1;
+                }
+                if (!visible || (taskView == getRunningTaskView() && mGestureActive)) {
+                    continue;
+                }
+                for (TaskView.TaskIdAttributeContainer container :
+                        taskView.getTaskIdAttributeContainers()) {
+                    if (container != null && container.getTask() != null) {
+                        (highRes ? mPrefetchHighResTasks : mPrefetchLowResTasks)
+                                .add(container.getTask().key);
+                    }
+                }
+            }
+        }
+        mThumbnailPrefetcher.setProjectedTasks(mPrefetchLowResTasks, mPrefetchHighResTasks);
+    }
+
     /**
      * Unloads any associated data from the currently visible tasks
      */
@@ -1963,6 +2031,8 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
             }
         }
         mHasVisibleTaskData.clear();
+        mThumbnailPrefetcher.cancelAll();
+        mPrefetchFinalScroll = Integer.MIN_VALUE;
     }
 
     @Override
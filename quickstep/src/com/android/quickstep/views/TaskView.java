@@ -95,7 +95,7 @@ import com.android.quickstep.TaskOverlayFactory;
 import com.android.quickstep.TaskThumbnailCache;
 import com.android.quickstep.TaskUtils;
 import com.android.quickstep.TaskViewUtils;
-import com.android.quickstep.util.CancellableTask;
+import com.android.quickstep.util.CancellableRequest;
 import com.android.quickstep.util.RecentsOrientedState;
 import com.android.quickstep.util.TaskCornerRadius;
 import com.android.quickstep.util.TransformParams;
@@ -418,9 +418,9 @@ public class TaskView extends FrameLayout implements Reusable {
 
     // The current background requests to load the task thumbnail and icon
     @Nullable
-    private CancellableTask mThumbnailLoadRequest;
+    private CancellableRequest mThumbnailLoadRequest;
     @Nullable
-    private CancellableTask mIconLoadRequest;
+    private CancellableRequest mIconLoadRequest;
 
     private boolean mEndQuickswitchCuj;
 
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static com.android.quickstep.util.ConcurrentTaskKeyLruCacheTest.CACHE_SIZE;
+import static com.android.quickstep.util.ConcurrentTaskKeyLruCacheTest.WRITER_COUNT;
+import static com.android.quickstep.util.ConcurrentTaskKeyLruCacheTest.runContention;
+
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the lookups of {@link ConcurrentTaskKeyLruCache} with the synchronized
+ * {@link TaskKeyLruCache} while other threads keep writing to the cache
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentTaskKeyLruCachePerfTest {
+
+    private static final String TAG = "ConcurrentTaskKeyLruCachePerfTest";
+
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void testLookupsAreNotSlowerThanSynchronizedCache() throws InterruptedException {
+        TaskKeyLruCache<String> syncCache = new TaskKeyLruCache<>(CACHE_SIZE);
+        ConcurrentTaskKeyLruCache<String> concurrentCache =
+                new ConcurrentTaskKeyLruCache<>(CACHE_SIZE);
+
+        // Warm up both code paths before measuring
+        runContention(key -> syncCache.getAndInvalidateIfModified(key),
+                key -> syncCache.put(key, "value"), ITERATIONS / 10);
+        runContention(key -> concurrentCache.getAndInvalidateIfModified(key),
+                key -> concurrentCache.put(key, "value"), ITERATIONS / 10);
+
+        long syncNanos = runContention(key -> syncCache.getAndInvalidateIfModified(key),
+                key -> syncCache.put(key, "value"), ITERATIONS);
+        long concurrentNanos = runContention(
+                key -> concurrentCache.getAndInvalidateIfModified(key),
+                key -> concurrentCache.put(key, "value"), ITERATIONS);
+
+        String result = "Average get with " + WRITER_COUNT + " writers, synchronized: "
+                + syncNanos / ITERATIONS + "ns, concurrent: " + concurrentNanos / ITERATIONS + "ns";
+        Log.d(TAG, result);
+        assertTrue(result, concurrentNanos <= syncNanos);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Tests for {@link ConcurrentTaskKeyLruCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentTaskKeyLruCacheTest {
+
+    static final int CACHE_SIZE = 16;
+    static final int WRITER_COUNT = 3;
+    private static final int TASK_COUNT = 32;
+    private static final int CONTENTION_ITERATIONS = 10000;
+
+    @Test
+    public void testSecondChanceClearsReferencedMark() {
+        ConcurrentTaskKeyLruCache<String> cache = new ConcurrentTaskKeyLruCache<>(2);
+        cache.put(createKey(1), "a");
+        cache.put(createKey(2), "b");
+        cache.getAndInvalidateIfModified(createKey(1));
+
+        // The referenced entry is moved behind the entry added after it
+        cache.put(createKey(3), "c");
+        assertEquals(Arrays.asList(3, 1), getTaskIds(cache));
+        cache.put(createKey(4), "d");
+        assertEquals(Arrays.asList(1, 4), getTaskIds(cache));
+
+        // Its mark was cleared, so it is evicted when the hand reaches it again
+        cache.put(createKey(5), "e");
+        assertEquals(Arrays.asList(4, 5), getTaskIds(cache));
+    }
+
+    @Test
+    public void testModifiedEntriesAreInvalidated() {
+        ConcurrentTaskKeyLruCache<String> cache = new ConcurrentTaskKeyLruCache<>(2);
+        cache.put(createKey(1), "a");
+
+        TaskKey modifiedKey = new TaskKey(1, 0, new Intent(), null, 0, 100);
+        assertNull(cache.getAndInvalidateIfModified(modifiedKey));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testUpdateAndRemoveAll() {
+        ConcurrentTaskKeyLruCache<String> cache = new ConcurrentTaskKeyLruCache<String>(10) {
+            @Override
+            protected int sizeOf(String value) {
+                return value.length();
+            }
+        };
+        cache.updateIfAlreadyInCache(1, "aaaa");
+        assertEquals(0, cache.getEntryCount());
+
+        cache.put(createKey(1), "aaaa");
+        cache.put(createKey(2), "bbbb");
+        cache.updateIfAlreadyInCache(2, "bb");
+        assertEquals(6, cache.getSize());
+        assertEquals("bb", cache.getAndInvalidateIfModified(createKey(2)));
+
+        cache.put(createKey(3), "cccc");
+        cache.removeAll(key -> key.id != 2);
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(2, cache.getSize());
+        assertEquals(2, cache.getKeys().get(0).id);
+    }
+
+    @Test
+    public void testSizeStaysConsistentUnderContention() throws InterruptedException {
+        ConcurrentTaskKeyLruCache<String> cache = new ConcurrentTaskKeyLruCache<>(CACHE_SIZE);
+        runContention(key -> cache.getAndInvalidateIfModified(key),
+                key -> cache.put(key, "value"), CONTENTION_ITERATIONS);
+
+        assertTrue(cache.getSize() <= CACHE_SIZE);
+        assertEquals(cache.getEntryCount(), cache.getSize());
+        assertEquals(cache.getEntryCount(), cache.getKeys().size());
+    }
+
+    /**
+     * Runs {@param iterations} lookups on the current thread while {@link #WRITER_COUNT} threads
+     * keep adding entries, and returns the time spent in the lookups
+     */
+    static long runContention(Function<TaskKey, String> reader, Consumer<TaskKey> writer,
+            int iterations) throws InterruptedException {
+        TaskKey[] keys = new TaskKey[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            keys[i] = createKey(i);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread[] writers = new Thread[WRITER_COUNT];
+        for (int i = 0; i < WRITER_COUNT; i++) {
+            int offset = i;
+            writers[i] = new Thread(() -> {
+                for (int j = offset; !done.get(); j++) {
+                    writer.accept(keys[j % TASK_COUNT]);
+                }
+            });
+            writers[i].start();
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            reader.apply(keys[i % TASK_COUNT]);
+        }
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        done.set(true);
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        return nanos;
+    }
+
+    /**
+     * Returns the ids of the cached tasks in their eviction order, without referencing them
+     */
+    private static List<Integer> getTaskIds(ConcurrentTaskKeyLruCache<String> cache) {
+        List<Integer> ids = new ArrayList<>();
+        for (TaskKey key : cache.getKeys()) {
+            ids.add(key.id);
+        }
+        return ids;
+    }
+
+    private static TaskKey createKey(int id) {
+        return new TaskKey(id, 0, new Intent(), null, 0, 0);
+    }
+}
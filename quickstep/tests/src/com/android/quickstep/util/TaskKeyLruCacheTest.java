@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Intent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link TaskKeyLruCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class TaskKeyLruCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        TaskKeyLruCache<String> cache = new TaskKeyLruCache<>(2);
+        cache.put(createKey(1), "a");
+        cache.put(createKey(2), "b");
+        cache.getAndInvalidateIfModified(createKey(1));
+        cache.put(createKey(3), "c");
+
+        assertNull(cache.getAndInvalidateIfModified(createKey(2)));
+        assertEquals("a", cache.getAndInvalidateIfModified(createKey(1)));
+        assertEquals("c", cache.getAndInvalidateIfModified(createKey(3)));
+    }
+
+    @Test
+    public void testEntriesAreWeighed() {
+        TaskKeyLruCache<String> cache = new TaskKeyLruCache<String>(10) {
+            @Override
+            protected int sizeOf(String value) {
+                return value.length();
+            }
+        };
+        cache.put(createKey(1), "aaaa");
+        cache.put(createKey(2), "bbbb");
+        assertEquals(8, cache.getSize());
+
+        cache.updateIfAlreadyInCache(2, "bb");
+        assertEquals(6, cache.getSize());
+
+        cache.put(createKey(3), "cccccc");
+        assertEquals(8, cache.getSize());
+        assertEquals(Arrays.asList(2, 3), Arrays.asList(
+                cache.getKeys().get(0).id, cache.getKeys().get(1).id));
+
+        cache.remove(createKey(2));
+        assertEquals(6, cache.getSize());
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    private static TaskKey createKey(int id) {
+        return new TaskKey(id, 0, new Intent(), null, 0, 0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+import com.android.systemui.shared.recents.model.ThumbnailData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Tests for {@link ThumbnailDiskCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailDiskCacheTest {
+
+    private File mDir;
+    private ThumbnailDiskCache mCache;
+
+    @Before
+    public void setup() {
+        mDir = new File(getApplicationContext().getCacheDir(), "thumbnail_disk_cache_test");
+        mCache = new ThumbnailDiskCache(mDir);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mDir.delete();
+    }
+
+    @Test
+    public void testThumbnailIsReadAfterRestart() {
+        ThumbnailData thumbnail = createThumbnail();
+        thumbnail.insets.set(1, 2, 3, 4);
+        mCache.write(createKey(1, 10), thumbnail);
+
+        ThumbnailData read = new ThumbnailDiskCache(mDir).read(createKey(1, 10));
+        assertNotNull(read);
+        assertEquals(thumbnail.insets, read.insets);
+        assertEquals(thumbnail.thumbnail.getWidth(), read.thumbnail.getWidth());
+        assertTrue(read.reducedResolution);
+        assertFalse(read.isRealSnapshot);
+    }
+
+    @Test
+    public void testThumbnailOfOtherTaskStateIsIgnored() {
+        mCache.write(createKey(1, 10), createThumbnail());
+        assertNull(mCache.read(createKey(1, 20)));
+
+        mCache.write(createKey(1, 20), createThumbnail());
+        assertNotNull(mCache.read(createKey(1, 20)));
+        assertNull(mCache.read(createKey(1, 10)));
+    }
+
+    @Test
+    public void testOnlyReducedResolutionSnapshotsAreStored() {
+        ThumbnailData thumbnail = createThumbnail();
+        thumbnail.reducedResolution = false;
+        mCache.write(createKey(1, 10), thumbnail);
+        assertNull(mCache.read(createKey(1, 10)));
+        assertEquals(0, mCache.getSize());
+    }
+
+    @Test
+    public void testRemove() {
+        mCache.write(createKey(1, 10), createThumbnail());
+        mCache.remove(1);
+        assertNull(mCache.read(createKey(1, 10)));
+        assertEquals(0, mCache.getSize());
+        assertNull(new ThumbnailDiskCache(mDir).read(createKey(1, 10)));
+    }
+
+    private static ThumbnailData createThumbnail() {
+        ThumbnailData thumbnail = new ThumbnailData();
+        thumbnail.thumbnail = Bitmap.createBitmap(40, 80, Config.ARGB_8888);
+        thumbnail.thumbnail.eraseColor(Color.RED);
+        thumbnail.reducedResolution = true;
+        thumbnail.isRealSnapshot = true;
+        return thumbnail;
+    }
+
+    private static TaskKey createKey(int id, long lastActiveTime) {
+        return new TaskKey(id, 0, new Intent(), null, 0, lastActiveTime);
+    }
+}
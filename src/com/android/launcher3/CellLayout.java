@@ -36,9 +36,11 @@ import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.os.Parcelable;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.AttributeSet;
 import android.util.FloatProperty;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.Property;
 import android.util.SparseArray;
 import android.view.MotionEvent;
@@ -49,6 +51,7 @@ import android.view.accessibility.AccessibilityEvent;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.graphics.ColorUtils;
 import androidx.core.view.ViewCompat;
 
@@ -62,6 +65,7 @@ import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.LauncherAppWidgetInfo;
 import com.android.launcher3.util.CellAndSpan;
 import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.IntArray;
 import com.android.launcher3.util.ParcelableSparseArray;
 import com.android.launcher3.util.Themes;
 import com.android.launcher3.util.Thunk;
@@ -75,11 +79,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Stack;
+import java.util.concurrent.TimeUnit;
 
 import static android.animation.ValueAnimator.areAnimatorsEnabled;
 import static com.android.launcher3.anim.Interpolators.DEACCEL_1_5;
 import static com.android.launcher3.dragndrop.DraggableView.DRAGGABLE_ICON;
 import static com.android.launcher3.icons.IconNormalizer.ICON_VISIBLE_AREA_FACTOR;
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
+import static com.android.launcher3.util.Executors.UI_HELPER_EXECUTOR;
 
 public class CellLayout extends ViewGroup {
     private static final String TAG = "CellLayout";
@@ -199,9 +206,19 @@ public class CellLayout extends ViewGroup {
     final float mReorderPreviewAnimationMagnitude;
 
     private final ArrayList<View> mIntersectingViews = new ArrayList<>();
-    private final Rect mOccupiedRect = new Rect();
     private final int[] mDirectionVector = new int[2];
 
+    // Cached outcome of the regions in which the dragged view can't be placed, shared by all the
+    // caches as outcomes are copied between them
+    private static final CellAndSpan[] NO_REORDER_SOLUTION = new CellAndSpan[0];
+    // Time given to find the reorder hint shown while dragging over a new cell
+    private static final long REORDER_HINT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+    private final ReorderSolutionCache mReorderSolutionCache = new ReorderSolutionCache();
+    private ReorderSearch mReorderSearch;
+    private final int[] mTmpReorderCell = new int[2];
+    // Incremented to cancel the pending precomputation of reorder solutions
+    private volatile int mReorderPrecomputeId;
+
     final int[] mPreviousReorderDirection = new int[2];
     private static final int INVALID_DIRECTION = -100;
 
@@ -416,6 +433,8 @@ public class CellLayout extends ViewGroup {
         mOccupied = new GridOccupancy(mCountX, mCountY);
         mTmpOccupied = new GridOccupancy(mCountX, mCountY);
         mTempRectStack.clear();
+        mReorderSearch = null;
+        cancelReorderPrecomputation();
         mShortcutsAndWidgets.setCellDimensions(mCellWidth, mCellHeight, mCountX, mCountY,
                 mBorderSpace);
         requestLayout();
@@ -490,7 +509,7 @@ public class CellLayout extends ViewGroup {
             debugPaint.setStrokeWidth(Utilities.dpToPx(1));
             for (int x = 0; x < mCountX; x++) {
                 for (int y = 0; y < mCountY; y++) {
-                    if (!mOccupied.cells[x][y]) {
+                    if (!mOccupied.isOccupied(x, y)) {
                         continue;
                     }
                     targetCell[0] = x;
@@ -1321,12 +1340,8 @@ public class CellLayout extends ViewGroup {
                 int xSize = -1;
                 if (ignoreOccupied) {
                     // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (mOccupied.cells[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
+                    if (!mOccupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                        continue inner;
                     }
                     xSize = minSpanX;
                     ySize = minSpanY;
@@ -1339,21 +1354,17 @@ public class CellLayout extends ViewGroup {
                     boolean hitMaxY = ySize >= spanY;
                     while (!(hitMaxX && hitMaxY)) {
                         if (incX && !hitMaxX) {
-                            for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX - 1 || mOccupied.cells[x + xSize][y + j]) {
-                                    // We can't move out horizontally
-                                    hitMaxX = true;
-                                }
+                            if (!mOccupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
                             }
                             if (!hitMaxX) {
                                 xSize++;
                             }
                         } else if (!hitMaxY) {
-                            for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || mOccupied.cells[x + i][y + ySize]) {
-                                    // We can't move out vertically
-                                    hitMaxY = true;
-                                }
+                            if (!mOccupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
                             }
                             if (!hitMaxY) {
                                 ySize++;
@@ -1408,92 +1419,6 @@ public class CellLayout extends ViewGroup {
         return bestXY;
     }
 
-    /**
-     * Find a vacant area that will fit the given bounds nearest the requested
-     * cell location, and will also weigh in a suggested direction vector of the
-     * desired location. This method computers distance based on unit grid distances,
-     * not pixel distances.
-     *
-     * @param cellX         The X cell nearest to which you want to search for a vacant area.
-     * @param cellY         The Y cell nearest which you want to search for a vacant area.
-     * @param spanX         Horizontal span of the object.
-     * @param spanY         Vertical span of the object.
-     * @param direction     The favored direction in which the views should move from x, y
-     * @param occupied      The array which represents which cells in the CellLayout are occupied
-     * @param blockOccupied The array which represents which cells in the specified block (cellX,
-     *                      cellY, spanX, spanY) are occupied. This is used when try to move a group of views.
-     * @param result        Array in which to place the result, or null (in which case a new array will
-     *                      be allocated)
-     * @return The X, Y cell of a vacant area that can contain this object,
-     * nearest the requested location.
-     */
-    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-                                  boolean[][] occupied, boolean blockOccupied[][], int[] result) {
-        // Keep track of best-scoring drop area
-        final int[] bestXY = result != null ? result : new int[2];
-        float bestDistance = Float.MAX_VALUE;
-        int bestDirectionScore = Integer.MIN_VALUE;
-
-        final int countX = mCountX;
-        final int countY = mCountY;
-
-        for (int y = 0; y < countY - (spanY - 1); y++) {
-            inner:
-            for (int x = 0; x < countX - (spanX - 1); x++) {
-                // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
-                }
-
-                float distance = (float) Math.hypot(x - cellX, y - cellY);
-                int[] curDirection = mTmpPoint;
-                computeDirectionVector(x - cellX, y - cellY, curDirection);
-                // The direction score is just the dot product of the two candidate direction
-                // and that passed in.
-                int curDirectionScore = direction[0] * curDirection[0] +
-                        direction[1] * curDirection[1];
-                if (Float.compare(distance, bestDistance) < 0 ||
-                        (Float.compare(distance, bestDistance) == 0
-                                && curDirectionScore > bestDirectionScore)) {
-                    bestDistance = distance;
-                    bestDirectionScore = curDirectionScore;
-                    bestXY[0] = x;
-                    bestXY[1] = y;
-                }
-            }
-        }
-
-        // Return -1, -1 if no suitable location found
-        if (bestDistance == Float.MAX_VALUE) {
-            bestXY[0] = -1;
-            bestXY[1] = -1;
-        }
-        return bestXY;
-    }
-
-    private boolean addViewToTempLocation(View v, Rect rectOccupiedByPotentialDrop,
-                                          int[] direction, ItemConfiguration currentState) {
-        CellAndSpan c = currentState.map.get(v);
-        boolean success = false;
-        mTmpOccupied.markCells(c, false);
-        mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
-
-        findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
-                mTmpOccupied.cells, null, mTempLocation);
-
-        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-            c.cellX = mTempLocation[0];
-            c.cellY = mTempLocation[1];
-            success = true;
-        }
-        mTmpOccupied.markCells(c, true);
-        return success;
-    }
-
     /**
      * This helper class defines a cluster of views. It helps with defining complex edges
      * of the cluster and determining how those edges interact with other views. The edges
@@ -1506,30 +1431,37 @@ public class CellLayout extends ViewGroup {
         final static int RIGHT = 1 << 2;
         final static int BOTTOM = 1 << 3;
 
-        final ArrayList<View> views;
-        final ItemConfiguration config;
+        final ArrayList<View> views = new ArrayList<>();
+        ItemConfiguration config;
         final Rect boundingRect = new Rect();
 
-        final int[] leftEdge = new int[mCountY];
-        final int[] rightEdge = new int[mCountY];
-        final int[] topEdge = new int[mCountX];
-        final int[] bottomEdge = new int[mCountX];
+        final int[] leftEdge;
+        final int[] rightEdge;
+        final int[] topEdge;
+        final int[] bottomEdge;
         int dirtyEdges;
         boolean boundingRectDirty;
 
-        @SuppressWarnings("unchecked")
-        public ViewCluster(ArrayList<View> views, ItemConfiguration config) {
-            this.views = (ArrayList<View>) views.clone();
+        ViewCluster(int countX, int countY) {
+            leftEdge = new int[countY];
+            rightEdge = new int[countY];
+            topEdge = new int[countX];
+            bottomEdge = new int[countX];
+        }
+
+        void init(ArrayList<View> views, ItemConfiguration config) {
+            this.views.clear();
+            this.views.addAll(views);
             this.config = config;
             resetEdges();
         }
 
         void resetEdges() {
-            for (int i = 0; i < mCountX; i++) {
+            for (int i = 0; i < topEdge.length; i++) {
                 topEdge[i] = -1;
                 bottomEdge[i] = -1;
             }
-            for (int i = 0; i < mCountY; i++) {
+            for (int i = 0; i < leftEdge.length; i++) {
                 leftEdge[i] = -1;
                 rightEdge[i] = -1;
             }
@@ -1682,325 +1614,567 @@ public class CellLayout extends ViewGroup {
     }
 
     /**
-     *
-     * @param views                         交集的View集合
-     * @param rectOccupiedByPotentialDrop
-     * @param direction
-     * @param dragView
-     * @param currentState
-     * @return
+     * Searches for rearrangements of the items which make room for the dragged item. The search
+     * works on an {@link ItemConfiguration} and its own scratch state, without reading the
+     * views, so that solutions can also be searched off the UI thread, see
+     * {@link #precomputeReorderSolutions}.
      */
-    private boolean pushViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
-                                            int[] direction, View dragView, ItemConfiguration currentState) {
-
-        ViewCluster cluster = new ViewCluster(views, currentState);
-        Rect clusterRect = cluster.getBoundingRect();
-        int whichEdge;
-        int pushDistance;
-        boolean fail = false;
-
-        // Determine the edge of the cluster that will be leading the push and how far
-        // the cluster must be shifted(移动).
-        if (direction[0] < 0) {// 左移
-            whichEdge = ViewCluster.LEFT;
-            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
-        } else if (direction[0] > 0) {// 右移
-            whichEdge = ViewCluster.RIGHT;
-            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
-        } else if (direction[1] < 0) {// 上移
-            whichEdge = ViewCluster.TOP;
-            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
-        } else {// 下移
-            whichEdge = ViewCluster.BOTTOM;
-            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
-        }
-
-        // Break early for invalid push distance.
-        if (pushDistance <= 0) {
-            return false;
+    private class ReorderSearch {
+
+        private final ReorderSolutionCache mCache;
+        // Size of the grid when the search was created, as it may not run on the UI thread
+        private final int mGridCountX;
+        private final int mGridCountY;
+
+        private final GridOccupancy mTmpOccupied;
+        private final ArrayList<View> mIntersectingViews = new ArrayList<>();
+        private final Rect mOccupiedRect = new Rect();
+        private final Rect mTmpReorderRect = new Rect();
+        private final int[] mTempLocation = new int[2];
+        private final int[] mTmpPoint = new int[2];
+        private ViewCluster mTmpViewCluster;
+
+        // Deadline of the current search, or 0 if it is not bounded
+        long mDeadlineNanos;
+        boolean mTimedOut;
+
+        ReorderSearch(ReorderSolutionCache cache, int countX, int countY) {
+            mCache = cache;
+            mGridCountX = countX;
+            mGridCountY = countY;
+            mTmpOccupied = new GridOccupancy(countX, countY);
         }
 
-        // Mark the occupied state as false for the group of views we want to move.
-        for (View v : views) {
-            CellAndSpan c = currentState.map.get(v);
-            mTmpOccupied.markCells(c, false);
+        /**
+         * Resets the scratch state before searching from the provided occupancy
+         */
+        void reset(GridOccupancy occupied) {
+            occupied.copyTo(mTmpOccupied);
         }
 
-        // We save the current configuration -- if we fail to find a solution we will revert
-        // to the initial state. The process of finding a solution modifies the configuration
-        // in place, hence the need for revert in the failure case.
-        currentState.save();
-
-        // The pushing algorithm is simplified by considering the views in the order in which
-        // they would be pushed by the cluster. For example, if the cluster is leading with its
-        // left edge, we consider sort the views by their right edge, from right to left.
-        cluster.sortConfigurationForEdgePush(whichEdge);
-
-        while (pushDistance > 0 && !fail) {
-            for (View v : currentState.sortedViews) {
-                // For each view that isn't in the cluster, we see if the leading edge of the
-                // cluster is contacting the edge of that view. If so, we add that view to the
-                // cluster.
-                if (!cluster.views.contains(v) && v != dragView) {
-                    if (cluster.isViewTouchingEdge(v, whichEdge)) {
-                        LayoutParams lp = (LayoutParams) v.getLayoutParams();
-                        if (!lp.canReorder) {
-                            // The push solution includes the all apps button, this is not viable.
-                            fail = true;
-                            break;
-                        }
-                        cluster.addView(v);
-                        CellAndSpan c = currentState.map.get(v);
+        /**
+         * Find a vacant area that will fit the given bounds nearest the requested
+         * cell location, and will also weigh in a suggested direction vector of the
+         * desired location. This method computers distance based on unit grid distances,
+         * not pixel distances.
+         *
+         * @param cellX         The X cell nearest to which you want to search for a vacant area.
+         * @param cellY         The Y cell nearest which you want to search for a vacant area.
+         * @param spanX         Horizontal span of the object.
+         * @param spanY         Vertical span of the object.
+         * @param direction     The favored direction in which the views should move from x, y
+         * @param occupied      The occupancy of the cells in the CellLayout
+         * @param blockOccupied The occupancy of the cells in the specified block (cellX, cellY,
+         *                      spanX, spanY), or null. This is used when try to move a group of
+         *                      views.
+         * @param result        Array in which to place the result, or null (in which case a new array will
+         *                      be allocated)
+         * @return The X, Y cell of a vacant area that can contain this object,
+         * nearest the requested location.
+         */
+        private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                                      GridOccupancy occupied, GridOccupancy blockOccupied,
+                                      int[] result) {
+            // Keep track of best-scoring drop area
+            final int[] bestXY = result != null ? result : new int[2];
+            float bestDistance = Float.MAX_VALUE;
+            int bestDirectionScore = Integer.MIN_VALUE;
+
+            final int countX = mGridCountX;
+            final int countY = mGridCountY;
+
+            for (int y = 0; y < countY - (spanY - 1); y++) {
+                long vacant = blockOccupied == null
+                        ? occupied.getVacantCellsInRow(y, spanX, spanY) : 0;
+                for (int x = 0; x < countX - (spanX - 1); x++) {
+                    // First, let's see if this thing fits anywhere
+                    if (blockOccupied == null
+                            ? (vacant & (1L << x)) == 0
+                            : !occupied.isRegionVacant(x, y, blockOccupied)) {
+                        continue;
+                    }
 
-                        // Adding view to cluster, mark it as not occupied.
-                        mTmpOccupied.markCells(c, false);
+                    float distance = (float) Math.hypot(x - cellX, y - cellY);
+                    int[] curDirection = mTmpPoint;
+                    computeDirectionVector(x - cellX, y - cellY, curDirection);
+                    // The direction score is just the dot product of the two candidate direction
+                    // and that passed in.
+                    int curDirectionScore = direction[0] * curDirection[0] +
+                            direction[1] * curDirection[1];
+                    if (Float.compare(distance, bestDistance) < 0 ||
+                            (Float.compare(distance, bestDistance) == 0
+                                    && curDirectionScore > bestDirectionScore)) {
+                        bestDistance = distance;
+                        bestDirectionScore = curDirectionScore;
+                        bestXY[0] = x;
+                        bestXY[1] = y;
                     }
                 }
             }
-            pushDistance--;
 
-            // The cluster has been completed, now we move the whole thing over in the appropriate
-            // direction.
-            cluster.shift(whichEdge, 1);
+            // Return -1, -1 if no suitable location found
+            if (bestDistance == Float.MAX_VALUE) {
+                bestXY[0] = -1;
+                bestXY[1] = -1;
+            }
+            return bestXY;
         }
 
-        boolean foundSolution = false;
-        clusterRect = cluster.getBoundingRect();
+        private boolean addViewToTempLocation(View v, Rect rectOccupiedByPotentialDrop,
+                                              int[] direction, ItemConfiguration currentState) {
+            CellAndSpan c = currentState.map.get(v);
+            boolean success = false;
+            mTmpOccupied.markCells(c, false);
+            mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
 
-        // Due to the nature of the algorithm, the only check required to verify a valid solution
-        // is to ensure that completed shifted cluster lies completely within the cell layout.
-        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mCountX && clusterRect.top >= 0 &&
-                clusterRect.bottom <= mCountY) {
-            foundSolution = true;
-        } else {
-            currentState.restore();
-        }
+            findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
+                    mTmpOccupied, null, mTempLocation);
 
-        // In either case, we set the occupied array as marked for the location of the views
-        for (View v : cluster.views) {
-            CellAndSpan c = currentState.map.get(v);
+            if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+                c.cellX = mTempLocation[0];
+                c.cellY = mTempLocation[1];
+                success = true;
+            }
             mTmpOccupied.markCells(c, true);
+            return success;
         }
 
-        return foundSolution;
-    }
+        /**
+         *
+         * @param views                         交集的View集合
+         * @param rectOccupiedByPotentialDrop
+         * @param direction
+         * @param dragView
+         * @param currentState
+         * @return
+         */
+        private boolean pushViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
+                                                int[] direction, View dragView, ItemConfiguration currentState) {
 
-    private boolean addViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
-                                           int[] direction, View dragView, ItemConfiguration currentState) {
-        if (views.size() == 0) return true;
+            if (mTmpViewCluster == null) {
+                mTmpViewCluster = new ViewCluster(mGridCountX, mGridCountY);
+            }
+            ViewCluster cluster = mTmpViewCluster;
+            cluster.init(views, currentState);
+            Rect clusterRect = cluster.getBoundingRect();
+            int whichEdge;
+            int pushDistance;
+            boolean fail = false;
+
+            // Determine the edge of the cluster that will be leading the push and how far
+            // the cluster must be shifted(移动).
+            if (direction[0] < 0) {// 左移
+                whichEdge = ViewCluster.LEFT;
+                pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
+            } else if (direction[0] > 0) {// 右移
+                whichEdge = ViewCluster.RIGHT;
+                pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
+            } else if (direction[1] < 0) {// 上移
+                whichEdge = ViewCluster.TOP;
+                pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
+            } else {// 下移
+                whichEdge = ViewCluster.BOTTOM;
+                pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
+            }
 
-        boolean success = false;
-        Rect boundingRect = new Rect();
-        // We construct a rect which represents the entire group of views passed in
-        currentState.getBoundingRectForViews(views, boundingRect);
+            // Break early for invalid push distance.
+            if (pushDistance <= 0) {
+                return false;
+            }
 
-        // Mark the occupied state as false for the group of views we want to move.
-        for (View v : views) {
-            CellAndSpan c = currentState.map.get(v);
-            mTmpOccupied.markCells(c, false);
-        }
+            // Mark the occupied state as false for the group of views we want to move.
+            for (View v : views) {
+                CellAndSpan c = currentState.map.get(v);
+                mTmpOccupied.markCells(c, false);
+            }
 
-        GridOccupancy blockOccupied = new GridOccupancy(boundingRect.width(), boundingRect.height());
-        int top = boundingRect.top;
-        int left = boundingRect.left;
-        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
-        // for interlocking.
-        for (View v : views) {
-            CellAndSpan c = currentState.map.get(v);
-            blockOccupied.markCells(c.cellX - left, c.cellY - top, c.spanX, c.spanY, true);
-        }
+            // We save the current configuration -- if we fail to find a solution we will revert
+            // to the initial state. The process of finding a solution modifies the configuration
+            // in place, hence the need for revert in the failure case.
+            currentState.save();
+
+            // The pushing algorithm is simplified by considering the views in the order in which
+            // they would be pushed by the cluster. For example, if the cluster is leading with its
+            // left edge, we consider sort the views by their right edge, from right to left.
+            cluster.sortConfigurationForEdgePush(whichEdge);
+
+            while (pushDistance > 0 && !fail) {
+                for (View v : currentState.sortedViews) {
+                    // For each view that isn't in the cluster, we see if the leading edge of the
+                    // cluster is contacting the edge of that view. If so, we add that view to the
+                    // cluster.
+                    if (!cluster.views.contains(v) && v != dragView) {
+                        if (cluster.isViewTouchingEdge(v, whichEdge)) {
+                            if (currentState.fixedViews.contains(v)) {
+                                // The push solution includes the all apps button, this is not
+                                // viable.
+                                fail = true;
+                                break;
+                            }
+                            cluster.addView(v);
+                            CellAndSpan c = currentState.map.get(v);
 
-        mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
+                            // Adding view to cluster, mark it as not occupied.
+                            mTmpOccupied.markCells(c, false);
+                        }
+                    }
+                }
+                pushDistance--;
+
+                // The cluster has been completed, now we move the whole thing over in the
+                // appropriate direction.
+                cluster.shift(whichEdge, 1);
+            }
 
-        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
-                boundingRect.height(), direction,
-                mTmpOccupied.cells, blockOccupied.cells, mTempLocation);
+            boolean foundSolution = false;
+            clusterRect = cluster.getBoundingRect();
 
-        // If we successfuly found a location by pushing the block of views, we commit it
-        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
-            int deltaX = mTempLocation[0] - boundingRect.left;
-            int deltaY = mTempLocation[1] - boundingRect.top;
-            for (View v : views) {
+            // Due to the nature of the algorithm, the only check required to verify a valid
+            // solution is to ensure that completed shifted cluster lies completely within the cell
+            // layout.
+            if (!fail && clusterRect.left >= 0 && clusterRect.right <= mGridCountX
+                    && clusterRect.top >= 0 && clusterRect.bottom <= mGridCountY) {
+                foundSolution = true;
+            } else {
+                currentState.restore();
+            }
+
+            // In either case, we set the occupied array as marked for the location of the views
+            for (View v : cluster.views) {
                 CellAndSpan c = currentState.map.get(v);
-                c.cellX += deltaX;
-                c.cellY += deltaY;
+                mTmpOccupied.markCells(c, true);
             }
-            success = true;
-        }
 
-        // In either case, we set the occupied array as marked for the location of the views
-        for (View v : views) {
-            CellAndSpan c = currentState.map.get(v);
-            mTmpOccupied.markCells(c, true);
+            return foundSolution;
         }
-        return success;
-    }
 
-    // This method tries to find a reordering solution which satisfies(满足因素) the push mechanic(方法，手段) by trying
-    // to push items in each of the cardinal(主要的) directions, in an order based on the direction vector
-    // passed.
-    private boolean attemptPushInDirection(ArrayList<View> intersectingViews, Rect occupied,
-                                           int[] direction, View ignoreView, ItemConfiguration solution) {
-        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
-            // If the direction vector has two non-zero components, we try pushing
-            // separately in each of the components.
-            int temp = direction[1];
-            direction[1] = 0;
+        private boolean addViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
+                                               int[] direction, View dragView, ItemConfiguration currentState) {
+            if (views.size() == 0) return true;
 
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+            boolean success = false;
+            Rect boundingRect = mTmpReorderRect;
+            // We construct a rect which represents the entire group of views passed in
+            currentState.getBoundingRectForViews(views, boundingRect);
+
+            // Mark the occupied state as false for the group of views we want to move.
+            for (View v : views) {
+                CellAndSpan c = currentState.map.get(v);
+                mTmpOccupied.markCells(c, false);
             }
-            direction[1] = temp;
-            temp = direction[0];
-            direction[0] = 0;
 
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+            GridOccupancy blockOccupied = new GridOccupancy(boundingRect.width(), boundingRect.height());
+            int top = boundingRect.top;
+            int left = boundingRect.left;
+            // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+            // for interlocking.
+            for (View v : views) {
+                CellAndSpan c = currentState.map.get(v);
+                blockOccupied.markCells(c.cellX - left, c.cellY - top, c.spanX, c.spanY, true);
             }
-            // Revert the direction
-            direction[0] = temp;
 
-            // Now we try pushing in each component of the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            temp = direction[1];
-            direction[1] = 0;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+            mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
+
+            findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
+                    boundingRect.height(), direction,
+                    mTmpOccupied, blockOccupied, mTempLocation);
+
+            // If we successfuly found a location by pushing the block of views, we commit it
+            if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+                int deltaX = mTempLocation[0] - boundingRect.left;
+                int deltaY = mTempLocation[1] - boundingRect.top;
+                for (View v : views) {
+                    CellAndSpan c = currentState.map.get(v);
+                    c.cellX += deltaX;
+                    c.cellY += deltaY;
+                }
+                success = true;
             }
 
-            direction[1] = temp;
-            temp = direction[0];
-            direction[0] = 0;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+            // In either case, we set the occupied array as marked for the location of the views
+            for (View v : views) {
+                CellAndSpan c = currentState.map.get(v);
+                mTmpOccupied.markCells(c, true);
             }
-            // revert the direction
-            direction[0] = temp;
-            direction[0] *= -1;
-            direction[1] *= -1;
+            return success;
+        }
+
+        // This method tries to find a reordering solution which satisfies(满足因素) the push mechanic(方法，手段) by trying
+        // to push items in each of the cardinal(主要的) directions, in an order based on the direction vector
+        // passed.
+        private boolean attemptPushInDirection(ArrayList<View> intersectingViews, Rect occupied,
+                                               int[] direction, View ignoreView, ItemConfiguration solution) {
+            if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+                // If the direction vector has two non-zero components, we try pushing
+                // separately in each of the components.
+                int temp = direction[1];
+                direction[1] = 0;
+
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+                direction[1] = temp;
+                temp = direction[0];
+                direction[0] = 0;
 
-        } else {
-            // If the direction vector has a single non-zero component, we push first in the
-            // direction of the vector
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+                // Revert the direction
+                direction[0] = temp;
+
+                // Now we try pushing in each component of the opposite direction
+                direction[0] *= -1;
+                direction[1] *= -1;
+                temp = direction[1];
+                direction[1] = 0;
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+
+                direction[1] = temp;
+                temp = direction[0];
+                direction[0] = 0;
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+                // revert the direction
+                direction[0] = temp;
+                direction[0] *= -1;
+                direction[1] *= -1;
+
+            } else {
+                // If the direction vector has a single non-zero component, we push first in the
+                // direction of the vector
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+                // Then we try the opposite direction
+                direction[0] *= -1;
+                direction[1] *= -1;
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+                // Switch the direction back
+                direction[0] *= -1;
+                direction[1] *= -1;
+
+                // If we have failed to find a push solution with the above, then we try
+                // to find a solution by pushing along the perpendicular axis.
+
+                // Swap the components
+                int temp = direction[1];
+                direction[1] = direction[0];
+                direction[0] = temp;
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+
+                // Then we try the opposite direction
+                direction[0] *= -1;
+                direction[1] *= -1;
+                if (pushViewsToTempLocation(intersectingViews, occupied, direction,
+                        ignoreView, solution)) {
+                    return true;
+                }
+                // Switch the direction back
+                direction[0] *= -1;
+                direction[1] *= -1;
+
+                // Swap the components back
+                temp = direction[1];
+                direction[1] = direction[0];
+                direction[0] = temp;
             }
-            // Then we try the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+            return false;
+        }
+
+        /**
+         * Rearrangement if exists
+         * 如果存在则重新排序
+         * @param cellX
+         * @param cellY
+         * @param spanX
+         * @param spanY
+         * @param direction
+         * @param ignoreView    忽略的View(dragView自己)
+         * @param solution
+         * @return              返回是否成功
+         */
+        boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                                    View ignoreView, ItemConfiguration solution) {
+            // Return early if get invalid cell positions
+            if (cellX < 0 || cellY < 0) return false;
+
+            mIntersectingViews.clear();
+            // 更新dragView占据的区域
+            mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+
+            // Mark the desired location of the view currently being dragged.
+            if (ignoreView != null) {
+                CellAndSpan c = solution.map.get(ignoreView);
+                if (c != null) {
+                    c.cellX = cellX;
+                    c.cellY = cellY;
+                }
+            }
+            Rect r1 = mTmpReorderRect;
+            for (View child : solution.map.keySet()) {
+                if (child == ignoreView) continue;
+                CellAndSpan c = solution.map.get(child);
+                r1.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+                if (Rect.intersects(mOccupiedRect, r1)) {
+                    if (solution.fixedViews.contains(child)) {
+                        return false;
+                    }
+                    mIntersectingViews.add(child);
+                }
             }
-            // Switch the direction back
-            direction[0] *= -1;
-            direction[1] *= -1;
 
-            // If we have failed to find a push solution with the above, then we try
-            // to find a solution by pushing along the perpendicular axis.
+            // 查找所有交集的View的集合
+            solution.intersectingViews = new ArrayList<>(mIntersectingViews);
 
-            // Swap the components
-            int temp = direction[1];
-            direction[1] = direction[0];
-            direction[0] = temp;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
-                return true;
+            long key = mCache.getKey(cellX, cellY, spanX, spanY, direction);
+            CellAndSpan[] cached = mCache.get(key);
+            if (cached != null) {
+                return mCache.apply(cached, solution);
             }
+            boolean success = findRearrangement(direction, ignoreView, solution);
+            if (!mTimedOut) {
+                mCache.put(key, success ? solution : null);
+            }
+            return success;
+        }
 
-            // Then we try the opposite direction
-            direction[0] *= -1;
-            direction[1] *= -1;
-            if (pushViewsToTempLocation(intersectingViews, occupied, direction,
-                    ignoreView, solution)) {
+        private boolean findRearrangement(int[] direction, View ignoreView,
+                ItemConfiguration solution) {
+            // First we try to find a solution which respects the push mechanic. That is,
+            // we try to find a solution such that no displaced item travels through another item
+            // without also displacing that item.
+            if (attemptPushInDirection(mIntersectingViews, mOccupiedRect, direction, ignoreView,
+                    solution)) {
                 return true;
             }
-            // Switch the direction back
-            direction[0] *= -1;
-            direction[1] *= -1;
 
-            // Swap the components back
-            temp = direction[1];
-            direction[1] = direction[0];
-            direction[0] = temp;
-        }
-        return false;
-    }
-
-    /**
-     * Rearrangement if exists
-     * 如果存在则重新排序
-     * @param cellX
-     * @param cellY
-     * @param spanX
-     * @param spanY
-     * @param direction
-     * @param ignoreView    忽略的View(dragView自己)
-     * @param solution
-     * @return              返回是否成功
-     */
-    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY, int[] direction,
-                                        View ignoreView, ItemConfiguration solution) {
-        // Return early if get invalid cell positions
-        if (cellX < 0 || cellY < 0) return false;
-
-        mIntersectingViews.clear();
-        // 更新dragView占据的区域
-        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
-
-        // Mark the desired location of the view currently being dragged.
-        if (ignoreView != null) {
-            CellAndSpan c = solution.map.get(ignoreView);
-            if (c != null) {
-                c.cellX = cellX;
-                c.cellY = cellY;
+            // Next we try moving the views as a block, but without requiring the push mechanic.
+            if (isOverBudget() || addViewsToTempLocation(mIntersectingViews, mOccupiedRect,
+                    direction, ignoreView, solution)) {
+                return !mTimedOut;
             }
-        }
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
-        for (View child : solution.map.keySet()) {
-            if (child == ignoreView) continue;
-            CellAndSpan c = solution.map.get(child);
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            r1.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
-            if (Rect.intersects(r0, r1)) {
-                if (!lp.canReorder) {
+
+            // Ok, they couldn't move as a block, let's move them individually
+            for (View v : mIntersectingViews) {
+                if (isOverBudget()
+                        || !addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
                     return false;
                 }
-                mIntersectingViews.add(child);
             }
+            return true;
         }
 
-        // 查找所有交集的View的集合
-        solution.intersectingViews = new ArrayList<>(mIntersectingViews);
+        /**
+         * Returns true if the current reorder search has run out of time, in which case it should
+         * stop and its partial results should not be cached
+         */
+        private boolean isOverBudget() {
+            if (mDeadlineNanos > 0 && System.nanoTime() > mDeadlineNanos) {
+                mTimedOut = true;
+            }
+            return mTimedOut;
+        }
+    }
 
-        // First we try to find a solution which respects the push mechanic. That is,
-        // we try to find a solution such that no displaced item travels through another item
-        // without also displacing that item.
-        if (attemptPushInDirection(mIntersectingViews, mOccupiedRect, direction, ignoreView,
-                solution)) {
-            return true;
+    private ReorderSearch getReorderSearch() {
+        if (mReorderSearch == null) {
+            mReorderSearch = new ReorderSearch(mReorderSolutionCache, mCountX, mCountY);
         }
+        return mReorderSearch;
+    }
 
-        // Next we try moving the views as a block, but without requiring the push mechanic.
-        if (addViewsToTempLocation(mIntersectingViews, mOccupiedRect, direction, ignoreView,
-                solution)) {
-            return true;
+    /**
+     * Searches, on a background thread, the rearrangements which make room for {@param dragView}
+     * at the cells around (cellX, cellY), so that they are already cached when the drag reaches
+     * those cells. The search works on a snapshot of the layout, and its results are dropped if
+     * the layout changes in the meantime. Only the full span of the dragged item is searched, in
+     * every direction, as the item is rarely shrunk.
+     */
+    void precomputeReorderSolutions(View dragView, int cellX, int cellY, int spanX, int spanY) {
+        int id = ++mReorderPrecomputeId;
+        if (spanX * spanY <= 1 || spanX > mCountX || spanY > mCountY) {
+            // Icons are fast enough to reorder on the UI thread
+            return;
         }
 
-        // Ok, they couldn't move as a block, let's move them individually
-        for (View v : mIntersectingViews) {
-            if (!addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
-                return false;
+        mReorderSolutionCache.validate(dragView);
+        ReorderSolutionCache precomputed = new ReorderSolutionCache();
+        precomputed.copyStateFrom(mReorderSolutionCache);
+        GridOccupancy occupied = new GridOccupancy(mCountX, mCountY);
+        mOccupied.copyTo(occupied);
+        ItemConfiguration base = new ItemConfiguration();
+        copyCurrentStateToSolution(base, false);
+        ReorderSearch search = new ReorderSearch(precomputed, mCountX, mCountY);
+
+        // Regions around the cell, in every direction which isn't cached yet
+        IntArray candidates = new IntArray();
+        int[] direction = new int[2];
+        for (int y = Math.max(cellY - 1, 0); y <= Math.min(cellY + 1, mCountY - spanY); y++) {
+            for (int x = Math.max(cellX - 1, 0); x <= Math.min(cellX + 1, mCountX - spanX); x++) {
+                for (direction[0] = -1; direction[0] <= 1; direction[0]++) {
+                    for (direction[1] = -1; direction[1] <= 1; direction[1]++) {
+                        if ((direction[0] != 0 || direction[1] != 0)
+                                && mReorderSolutionCache.get(mReorderSolutionCache.getKey(
+                                        x, y, spanX, spanY, direction)) == null) {
+                            candidates.add(x);
+                            candidates.add(y);
+                            candidates.add(direction[0]);
+                            candidates.add(direction[1]);
+                        }
+                    }
+                }
             }
         }
-        return true;
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        UI_HELPER_EXECUTOR.execute(() -> {
+            ItemConfiguration solution = new ItemConfiguration();
+            int[] searchDirection = new int[2];
+            for (int i = 0; i < candidates.size(); i += 4) {
+                if (id != mReorderPrecomputeId) {
+                    return;
+                }
+                solution.resetTo(base);
+                search.reset(occupied);
+                // Each candidate gets the budget of the hint search, so that a search which is no
+                // longer needed doesn't hold the executor for long
+                search.mDeadlineNanos = System.nanoTime() + REORDER_HINT_BUDGET_NANOS;
+                search.mTimedOut = false;
+                searchDirection[0] = candidates.get(i + 2);
+                searchDirection[1] = candidates.get(i + 3);
+                search.rearrangementExists(candidates.get(i), candidates.get(i + 1), spanX, spanY,
+                        searchDirection, dragView, solution);
+            }
+            MAIN_EXECUTOR.execute(() -> {
+                if (id == mReorderPrecomputeId) {
+                    mReorderSolutionCache.putAll(precomputed);
+                }
+            });
+        });
+    }
+
+    /**
+     * Cancels the pending precomputation of reorder solutions
+     */
+    private void cancelReorderPrecomputation() {
+        mReorderPrecomputeId++;
     }
 
     /*
@@ -2042,30 +2216,31 @@ public class CellLayout extends ViewGroup {
     private ItemConfiguration findReorderSolution(int pixelX, int pixelY, int minSpanX, int minSpanY,
                                                   int spanX, int spanY, int[] direction, View dragView, boolean decX,
                                                   ItemConfiguration solution) {
+        mReorderSolutionCache.validate(dragView);
         // Copy the current state into the solution. This solution will be manipulated as necessary.
         copyCurrentStateToSolution(solution, false);
         // Copy the current occupied array into the temporary occupied array. This array will be
         // manipulated as necessary to find a solution.
-        mOccupied.copyTo(mTmpOccupied);
+        ReorderSearch search = getReorderSearch();
+        search.reset(mOccupied);
 
         // We find the nearest cell into which we would place the dragged item, assuming there's
         // nothing in its way.
-        int result[] = new int[2];
-        result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
+        int[] result = findNearestArea(pixelX, pixelY, spanX, spanY, mTmpReorderCell);
 
         boolean success;
         // First we try the exact(确切的) nearest position of the item being dragged,
         // we will then want to try to move this around to other neighbouring positions
-        success = rearrangementExists(result[0], result[1], spanX, spanY, direction, dragView,
-                solution);
+        success = search.rearrangementExists(result[0], result[1], spanX, spanY, direction,
+                dragView, solution);
 
         if (!success) {
             // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
             // x, then 1 in y etc.
-            if (spanX > minSpanX && (minSpanY == spanY || decX)) {
+            if (!search.mTimedOut && spanX > minSpanX && (minSpanY == spanY || decX)) {
                 return findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX - 1, spanY,
                         direction, dragView, false, solution);
-            } else if (spanY > minSpanY) {
+            } else if (!search.mTimedOut && spanY > minSpanY) {
                 return findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY - 1,
                         direction, dragView, true, solution);
             }
@@ -2086,17 +2261,27 @@ public class CellLayout extends ViewGroup {
      * @param temp      是否使用缓存数据
      */
     private void copyCurrentStateToSolution(ItemConfiguration solution, boolean temp) {
+        // The solution can be reused when shrinking the dragged item, keep its CellAndSpans
+        solution.sortedViews.clear();
+        solution.fixedViews.clear();
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
             LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            CellAndSpan c;
-            if (temp) {
-                c = new CellAndSpan(lp.tmpCellX, lp.tmpCellY, lp.cellHSpan, lp.cellVSpan);
+            CellAndSpan c = solution.map.get(child);
+            if (c == null) {
+                c = new CellAndSpan();
+                solution.add(child, c);
             } else {
-                c = new CellAndSpan(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
+                solution.sortedViews.add(child);
+            }
+            c.cellX = temp ? lp.tmpCellX : lp.cellX;
+            c.cellY = temp ? lp.tmpCellY : lp.cellY;
+            c.spanX = lp.cellHSpan;
+            c.spanY = lp.cellVSpan;
+            if (!lp.canReorder) {
+                solution.fixedViews.add(child);
             }
-            solution.add(child, c);
         }
     }
 
@@ -2581,6 +2766,8 @@ public class CellLayout extends ViewGroup {
                          View dragView, int[] result, int resultSpan[], int mode) {
         // First we determine if things have moved enough to cause a different layout
         result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
+        int targetCellX = result[0];
+        int targetCellY = result[1];
 
         if (resultSpan == null) {
             resultSpan = new int[2];
@@ -2608,8 +2795,21 @@ public class CellLayout extends ViewGroup {
 
         // Find a solution involving(包括) pushing / displacing any items in the way(挡道)
         // 这里是查找一种推走其他View或者与其他View交换的交换方案
+        // The hint is only a preview, it is skipped if it takes too long to find. The reorder
+        // which follows finds the complete solution, reusing the outcomes cached by the hint.
+        ReorderSearch search = getReorderSearch();
+        if (mode == MODE_SHOW_REORDER_HINT) {
+            search.mDeadlineNanos = System.nanoTime() + REORDER_HINT_BUDGET_NANOS;
+        }
         ItemConfiguration swapSolution = findReorderSolution(pixelX, pixelY, minSpanX, minSpanY,
                 spanX, spanY, mDirectionVector, dragView, true, new ItemConfiguration());
+        boolean timedOut = search.mTimedOut;
+        search.mDeadlineNanos = 0;
+        search.mTimedOut = false;
+        if (mode == MODE_SHOW_REORDER_HINT || mode == MODE_DRAG_OVER) {
+            // Get ready for the next cells the drag might reach
+            precomputeReorderSolutions(dragView, targetCellX, targetCellY, spanX, spanY);
+        }
 
         // We attempt the approach(方法) which doesn't shuffle(打乱，处理) views at all
         ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
@@ -2626,7 +2826,10 @@ public class CellLayout extends ViewGroup {
         }
 
         if (mode == MODE_SHOW_REORDER_HINT) {
-            if (finalSolution != null) {
+            if (timedOut) {
+                resultSpan[0] = spanX;
+                resultSpan[1] = spanY;
+            } else if (finalSolution != null) {
                 beginOrAdjustReorderPreviewAnimations(finalSolution, dragView,
                         ReorderPreviewAnimation.MODE_HINT);
                 result[0] = finalSolution.cellX;
@@ -2692,10 +2895,13 @@ public class CellLayout extends ViewGroup {
         return mItemPlacementDirty;
     }
 
-    private static class ItemConfiguration extends CellAndSpan {
+    @VisibleForTesting
+    static class ItemConfiguration extends CellAndSpan {
         final ArrayMap<View, CellAndSpan> map = new ArrayMap<>();
         private final ArrayMap<View, CellAndSpan> savedMap = new ArrayMap<>();
         final ArrayList<View> sortedViews = new ArrayList<>();
+        // Views which can't be moved
+        final ArraySet<View> fixedViews = new ArraySet<>();
         ArrayList<View> intersectingViews;
         boolean isSolution = false;
 
@@ -2719,6 +2925,25 @@ public class CellLayout extends ViewGroup {
             sortedViews.add(v);
         }
 
+        /**
+         * Resets the positions of the views to the ones in {@param base}
+         */
+        void resetTo(ItemConfiguration base) {
+            sortedViews.clear();
+            for (View v : base.sortedViews) {
+                CellAndSpan c = map.get(v);
+                if (c == null) {
+                    c = new CellAndSpan();
+                    add(v, c);
+                } else {
+                    sortedViews.add(v);
+                }
+                c.copyFrom(base.map.get(v));
+            }
+            fixedViews.clear();
+            fixedViews.addAll(base.fixedViews);
+        }
+
         int area() {
             return spanX * spanY;
         }
@@ -2737,6 +2962,144 @@ public class CellLayout extends ViewGroup {
         }
     }
 
+    /**
+     * Cache of the outcomes of {@link #rearrangementExists} for a state of the layout. The same
+     * regions are tried many times during a drag: to show the reorder hint and then to reorder,
+     * when shrinking the dragged item, and by {@link #hasReorderSolution}. The cache is cleared
+     * whenever the occupancy, the position of a child or the dragged view changes.
+     */
+    @VisibleForTesting
+    class ReorderSolutionCache {
+
+        private static final int MAX_SIZE = 256;
+
+        // Position of every child in the solution of a region, in the order of the children
+        private final LongSparseArray<CellAndSpan[]> mSolutions = new LongSparseArray<>();
+
+        // State of the layout which the solutions apply to
+        private GridOccupancy mLayoutOccupied;
+        private View mDragView;
+        private View[] mChildren = new View[0];
+        private int[] mChildCells = new int[0];
+
+        /**
+         * Clears the cache if the state of the layout changed since the cached solutions were
+         * found
+         */
+        void validate(View dragView) {
+            int count = mShortcutsAndWidgets.getChildCount();
+            boolean valid = dragView == mDragView && count == mChildren.length
+                    && mOccupied.equals(mLayoutOccupied);
+            for (int i = 0; i < count && valid; i++) {
+                View child = mShortcutsAndWidgets.getChildAt(i);
+                LayoutParams lp = (LayoutParams) child.getLayoutParams();
+                valid = child == mChildren[i]
+                        && mChildCells[4 * i] == lp.cellX
+                        && mChildCells[4 * i + 1] == lp.cellY
+                        && mChildCells[4 * i + 2] == lp.cellHSpan
+                        && mChildCells[4 * i + 3] == (lp.canReorder ? lp.cellVSpan : -1);
+            }
+            if (valid) {
+                return;
+            }
+
+            mSolutions.clear();
+            mDragView = dragView;
+            mLayoutOccupied = new GridOccupancy(mCountX, mCountY);
+            mOccupied.copyTo(mLayoutOccupied);
+            mChildren = new View[count];
+            mChildCells = new int[4 * count];
+            for (int i = 0; i < count; i++) {
+                View child = mShortcutsAndWidgets.getChildAt(i);
+                LayoutParams lp = (LayoutParams) child.getLayoutParams();
+                mChildren[i] = child;
+                mChildCells[4 * i] = lp.cellX;
+                mChildCells[4 * i + 1] = lp.cellY;
+                mChildCells[4 * i + 2] = lp.cellHSpan;
+                mChildCells[4 * i + 3] = lp.canReorder ? lp.cellVSpan : -1;
+            }
+        }
+
+        /**
+         * Makes this cache apply to the same layout state as {@param other}
+         */
+        void copyStateFrom(ReorderSolutionCache other) {
+            mSolutions.clear();
+            mLayoutOccupied = other.mLayoutOccupied;
+            mDragView = other.mDragView;
+            mChildren = other.mChildren;
+            mChildCells = other.mChildCells;
+        }
+
+        /**
+         * Adds the outcomes cached by {@param other}, if it applies to the same layout state
+         */
+        void putAll(ReorderSolutionCache other) {
+            // The state arrays are replaced, not modified, when the state changes
+            if (other.mChildren != mChildren) {
+                return;
+            }
+            for (int i = 0; i < other.mSolutions.size(); i++) {
+                if (mSolutions.size() >= MAX_SIZE) {
+                    return;
+                }
+                mSolutions.put(other.mSolutions.keyAt(i), other.mSolutions.valueAt(i));
+            }
+        }
+
+        /**
+         * Returns the cached outcome of the region, or null if it is not cached
+         */
+        CellAndSpan[] get(long key) {
+            return mSolutions.get(key);
+        }
+
+        /**
+         * Applies a cached outcome to {@param solution}, returning false if there is no solution
+         */
+        boolean apply(CellAndSpan[] cached, ItemConfiguration solution) {
+            if (cached == NO_REORDER_SOLUTION) {
+                return false;
+            }
+            for (int i = 0; i < cached.length; i++) {
+                CellAndSpan c = solution.map.get(mChildren[i]);
+                if (c != null) {
+                    c.copyFrom(cached[i]);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Caches the outcome of a region
+         *
+         * @param solution the solution found, or null if there is none
+         */
+        void put(long key, @Nullable ItemConfiguration solution) {
+            if (mSolutions.size() >= MAX_SIZE) {
+                mSolutions.clear();
+            }
+            if (solution == null) {
+                mSolutions.put(key, NO_REORDER_SOLUTION);
+                return;
+            }
+            CellAndSpan[] cells = new CellAndSpan[mChildren.length];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = new CellAndSpan();
+                CellAndSpan c = solution.map.get(mChildren[i]);
+                if (c != null) {
+                    cells[i].copyFrom(c);
+                }
+            }
+            mSolutions.put(key, cells);
+        }
+
+        long getKey(int cellX, int cellY, int spanX, int spanY, int[] direction) {
+            return cellX | (cellY << 8) | (spanX << 16) | ((long) spanY << 24)
+                    | ((long) (direction[0] + 1) << 32) | ((long) (direction[1] + 1) << 34);
+        }
+    }
+
     /**
      * Find a starting cell position that will fit the given bounds nearest the requested
      * cell location. Uses Euclidean distance(欧几里得距离) to score multiple vacant(空) areas.
@@ -2803,6 +3166,7 @@ public class CellLayout extends ViewGroup {
         mDragOutlineCurrent = (mDragOutlineCurrent + 1) % mDragOutlineAnims.length;
         revertTempState();
         setIsDragOverlapping(false);
+        cancelReorderPrecomputation();
     }
 
     /**
@@ -2885,7 +3249,7 @@ public class CellLayout extends ViewGroup {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied.cells[x][y];
+            return mOccupied.isOccupied(x, y);
         } else {
             throw new RuntimeException("Position exceeds the bound of this CellLayout");
         }
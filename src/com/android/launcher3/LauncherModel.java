@@ -41,15 +41,19 @@ import com.android.launcher3.model.BgDataModel.Callbacks;
 import com.android.launcher3.model.CacheDataUpdatedTask;
 import com.android.launcher3.model.ItemInstallQueue;
 import com.android.launcher3.model.LoaderResults;
+import com.android.launcher3.model.LoaderStats;
 import com.android.launcher3.model.LoaderTask;
+import com.android.launcher3.model.LoaderTimings;
 import com.android.launcher3.model.ModelDelegate;
 import com.android.launcher3.model.ModelWriter;
 import com.android.launcher3.model.PackageIncrementalDownloadUpdatedTask;
 import com.android.launcher3.model.PackageInstallStateChangedTask;
 import com.android.launcher3.model.PackageUpdatedTask;
+import com.android.launcher3.model.PreviewModelCache;
 import com.android.launcher3.model.ReloadStringCacheTask;
 import com.android.launcher3.model.ShortcutsChangedTask;
 import com.android.launcher3.model.UserLockStateChangedTask;
+import com.android.launcher3.model.WorkspaceSnapshot;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
@@ -93,6 +97,9 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
     private final Object mLock = new Object();
 
     private LoaderTask mLoaderTask;
+    // Timings of the last loader task which ran, for dumps
+    @Nullable private LoaderTimings mLastLoaderTimings;
+    private final LoaderStats mLoaderStats = new LoaderStats();
     private boolean mIsLoaderTaskRunning;
 
     // Indicates whether the current model data is valid or not.
@@ -311,6 +318,14 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             stopLoader();
             mModelLoaded = false;
         }
+        // The workspace DB or the icons might have changed outside of the ModelWriter
+        PreviewModelCache previewModelCache = PreviewModelCache.INSTANCE.getNoCreate();
+        if (previewModelCache != null) {
+            previewModelCache.invalidate();
+        }
+        // Drop the workspace snapshot as well, so that it is not bound instead of the reload
+        Context context = mApp.getContext();
+        MODEL_EXECUTOR.execute(() -> WorkspaceSnapshot.delete(context));
 
         // Start the loader if launcher is already running, otherwise the loader will run,
         // the next time launcher starts
@@ -515,6 +530,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
     public class LoaderTransaction implements AutoCloseable {
 
         private final LoaderTask mTask;
+        private boolean mCommitted;
 
         private LoaderTransaction(LoaderTask task) throws CancellationException {
             synchronized (mLock) {
@@ -531,6 +547,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             synchronized (mLock) {
                 // Everything loaded bind the data.
                 mModelLoaded = true;
+                mCommitted = true;
             }
         }
 
@@ -542,7 +559,9 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
                     mLoaderTask = null;
                 }
                 mIsLoaderTaskRunning = false;
+                mLastLoaderTimings = mTask.getTimings();
             }
+            mLoaderStats.add(mTask.getTimings(), mCommitted);
         }
     }
 
@@ -659,6 +678,22 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         }
         mModelDelegate.dump(prefix, fd, writer, args);
         mBgDataModel.dump(prefix, fd, writer, args);
+        mApp.getIconCache().dump(prefix, writer);
+        LoaderTimings loaderTimings;
+        synchronized (mLock) {
+            loaderTimings = mLastLoaderTimings;
+        }
+        if (loaderTimings != null) {
+            loaderTimings.dump(prefix, writer);
+        }
+        mLoaderStats.dump(prefix, writer);
+    }
+
+    /**
+     * Returns the statistics of the loads of this process
+     */
+    public LoaderStats getLoaderStats() {
+        return mLoaderStats;
     }
 
     /**
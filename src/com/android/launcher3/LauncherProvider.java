@@ -477,6 +477,14 @@ public class LauncherProvider extends ContentProvider {
                 app.getModel().forceReload();
                 return null;
             }
+            case LauncherSettings.Settings.METHOD_GET_LOADER_STATS: {
+                LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+                if (app == null) return null;
+                Bundle result = new Bundle();
+                result.putByteArray(LauncherSettings.Settings.EXTRA_VALUE,
+                        app.getModel().getLoaderStats().toProto().toByteArray());
+                return result;
+            }
         }
         return null;
     }
@@ -432,6 +432,8 @@ public class LauncherSettings {
 
         public static final String METHOD_SWITCH_DATABASE = "switch_database";
 
+        public static final String METHOD_GET_LOADER_STATS = "get_loader_stats";
+
         public static final String EXTRA_VALUE = "value";
 
         public static final String EXTRA_DB_NAME = "db_name";
@@ -418,6 +418,9 @@ public class Workspace<T extends View & PageIndicator> extends PagedView<T>
                     ? dragObject.dragView.getContentViewParent().getParent()
                     : mDragInfo.cell.getParent().getParent());
             layout.markCellsAsUnoccupiedForView(mDragInfo.cell);
+            // Widgets are usually dropped close to where they were picked up
+            layout.precomputeReorderSolutions(mDragInfo.cell, mDragInfo.cellX, mDragInfo.cellY,
+                    mDragInfo.spanX, mDragInfo.spanY);
         }
 
         updateChildrenLayersEnabled();
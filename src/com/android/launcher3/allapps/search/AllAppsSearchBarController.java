@@ -102,6 +102,7 @@ public class AllAppsSearchBarController
         mQuery = s.toString();
         if (mQuery.isEmpty()) {
             mSearchAlgorithm.cancel(true);
+            mSearchAlgorithm.endSession();
             mCallback.clearSearchResult();
         } else {
             mSearchAlgorithm.cancel(false);
@@ -157,6 +158,7 @@ public class AllAppsSearchBarController
         mCallback.clearSearchResult();
         mInput.reset();
         mQuery = null;
+        mSearchAlgorithm.endSession();
     }
 
     /**
@@ -21,6 +21,8 @@ import android.content.Context;
 import android.os.Handler;
 
 import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
@@ -28,8 +30,10 @@ import com.android.launcher3.model.AllAppsList;
 import com.android.launcher3.model.BaseModelUpdateTask;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.AppSearchIndex;
 import com.android.launcher3.search.SearchAlgorithm;
 import com.android.launcher3.search.SearchCallback;
+import com.android.launcher3.search.SearchSession;
 import com.android.launcher3.search.StringMatcherUtility;
 
 import java.util.ArrayList;
@@ -44,6 +48,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
 
     private final LauncherAppState mAppState;
     private final Handler mResultHandler;
+    private final SearchSession<AppInfo> mSession = new SearchSession<>();
 
     public DefaultAppSearchAlgorithm(Context context) {
         mAppState = LauncherAppState.getInstance(context);
@@ -57,17 +62,57 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
         }
     }
 
+    @Override
+    public void endSession() {
+        mSession.reset();
+    }
+
     @Override
     public void doSearch(String query, SearchCallback<AdapterItem> callback) {
         mAppState.getModel().enqueueModelUpdateTask(new BaseModelUpdateTask() {
             @Override
             public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList apps) {
-                ArrayList<AdapterItem> result = getTitleMatchResult(apps.data, query);
+                ArrayList<AdapterItem> result =
+                        getTitleMatchResult(apps.getSearchIndex(), query, mSession);
                 mResultHandler.post(() -> callback.onSearchResult(query, result));
             }
         });
     }
 
+    /**
+     * Returns the {@link AppInfo}s matching specified query using the provided search index.
+     */
+    @WorkerThread
+    public static ArrayList<AdapterItem> getTitleMatchResult(AppSearchIndex index, String query) {
+        return getTitleMatchResult(index, query, null);
+    }
+
+    /**
+     * Returns the {@link AppInfo}s matching specified query using the provided search index,
+     * refining the results of the previous query in {@param session} when possible.
+     */
+    @WorkerThread
+    public static ArrayList<AdapterItem> getTitleMatchResult(AppSearchIndex index, String query,
+            @Nullable SearchSession<AppInfo> session) {
+        final String queryTextLower = query.toLowerCase();
+        final List<AppInfo> matches;
+        if (session != null) {
+            int version = index.getVersion();
+            matches = index.searchAll(queryTextLower,
+                    session.getCandidates(queryTextLower, version));
+            session.update(queryTextLower, version, matches);
+        } else {
+            matches = index.searchAll(queryTextLower, null);
+        }
+
+        final int count = Math.min(matches.size(), MAX_RESULTS_COUNT);
+        final ArrayList<AdapterItem> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(AdapterItem.asApp(matches.get(i)));
+        }
+        return result;
+    }
+
     /**
      * Filters {@link AppInfo}s matching specified query
      */
@@ -278,6 +278,10 @@ public final class FeatureFlags {
             "ENABLE_DISMISS_PREDICTION_UNDO", false,
             "Show an 'Undo' snackbar when users dismiss a predicted hotseat item");
 
+    public static final BooleanFlag ENABLE_ICON_PIXEL_STORE = getDebugFlag(
+            "ENABLE_ICON_PIXEL_STORE", false,
+            "Store raw icon pixels in a memory-mapped file instead of decoding icons from the DB");
+
     public static void initialize(Context context) {
         synchronized (sDebugFlags) {
             for (DebugFlag flag : sDebugFlags) {
@@ -27,6 +27,7 @@ import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.InvariantDeviceProfile.GridOption;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.model.PreviewModelCache;
 import com.android.launcher3.util.Executors;
 
 /**
@@ -42,6 +43,10 @@ import com.android.launcher3.util.Executors;
  *
  *     /preview: Opens a file stream for the grid preview
  *
+ *     get_preview: Call to render the preview of a grid in a surface. If the boolean "snapshot"
+ *          is set in the request, the preview is drawn once into a bitmap which is reused until
+ *          the workspace changes, instead of keeping a live view hierarchy per preview.
+ *
  *     /default_grid: Call update to set the current grid, with values
  *          name: name of the grid to apply
  */
@@ -68,7 +73,12 @@ public class GridCustomizationsProvider extends ContentProvider {
     private static final String KEY_SURFACE_PACKAGE = "surface_package";
     private static final String KEY_CALLBACK = "callback";
 
+    // Delay before releasing the preview models once all the previews are closed, so that they
+    // are still reused when the grid options are reopened right away
+    private static final long RELEASE_PREVIEW_MODELS_DELAY_MS = 10_000;
+
     private final ArrayMap<IBinder, PreviewLifecycleObserver> mActivePreviews = new ArrayMap<>();
+    private final Runnable mReleasePreviewModels = this::releasePreviewModels;
 
     @Override
     public boolean onCreate() {
@@ -173,6 +183,7 @@ public class GridCustomizationsProvider extends ContentProvider {
     private synchronized Bundle getPreview(Bundle request) {
         PreviewLifecycleObserver observer = null;
         try {
+            Executors.MAIN_EXECUTOR.getHandler().removeCallbacks(mReleasePreviewModels);
             PreviewSurfaceRenderer renderer = new PreviewSurfaceRenderer(getContext(), request);
 
             // Destroy previous
@@ -213,6 +224,17 @@ public class GridCustomizationsProvider extends ContentProvider {
         if (cached == observer) {
             mActivePreviews.remove(observer.renderer.getHostToken());
         }
+        if (mActivePreviews.isEmpty()) {
+            Executors.MAIN_EXECUTOR.getHandler().postDelayed(
+                    mReleasePreviewModels, RELEASE_PREVIEW_MODELS_DELAY_MS);
+        }
+    }
+
+    private synchronized void releasePreviewModels() {
+        PreviewModelCache previewModelCache = PreviewModelCache.INSTANCE.getNoCreate();
+        if (mActivePreviews.isEmpty() && previewModelCache != null) {
+            previewModelCache.evictAll();
+        }
     }
 
     private class PreviewLifecycleObserver implements Handler.Callback, DeathRecipient {
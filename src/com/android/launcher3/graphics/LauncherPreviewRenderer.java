@@ -330,6 +330,9 @@ public class LauncherPreviewRenderer extends ContextWrapper
                 : mHotseat;
         FolderIcon folderIcon = FolderIcon.inflateIcon(R.layout.folder_icon, this, screen,
                 info);
+        // The preview is not updated, and its model can be shared with other previews which
+        // would otherwise keep this icon alive
+        folderIcon.removeListeners();
         addInScreenFromBind(folderIcon, info);
     }
 
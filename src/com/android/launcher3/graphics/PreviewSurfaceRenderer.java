@@ -22,10 +22,14 @@ import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
 import android.app.WallpaperColors;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Picture;
 import android.hardware.display.DisplayManager;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.ContextThemeWrapper;
 import android.view.Display;
 import android.view.SurfaceControlViewHost;
@@ -33,11 +37,12 @@ import android.view.SurfaceControlViewHost.SurfacePackage;
 import android.view.View;
 import android.view.WindowManager.LayoutParams;
 import android.view.animation.AccelerateDecelerateInterpolator;
+import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
 
-import com.android.launcher3.DeviceProfile;
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings;
@@ -47,6 +52,7 @@ import com.android.launcher3.graphics.LauncherPreviewRenderer.PreviewContext;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.GridSizeMigrationTaskV2;
 import com.android.launcher3.model.LoaderTask;
+import com.android.launcher3.model.PreviewModelCache;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.RunnableList;
 import com.android.launcher3.util.Themes;
@@ -54,6 +60,7 @@ import com.android.launcher3.widget.LocalColorExtractor;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 /** Render preview using surface view. */
@@ -69,6 +76,22 @@ public class PreviewSurfaceRenderer {
     private static final String KEY_VIEW_HEIGHT = "height";
     private static final String KEY_DISPLAY_ID = "display_id";
     private static final String KEY_COLORS = "wallpaper_colors";
+    private static final String KEY_SNAPSHOT = "snapshot";
+
+    // Maximum size of the snapshots kept in memory
+    private static final int SNAPSHOT_CACHE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Static previews rendered in snapshot mode. A snapshot is only valid for the
+     * {@link PreviewModelCache#getGeneration() model generation} it was rendered with.
+     */
+    private static final LruCache<SnapshotKey, Snapshot> sSnapshots =
+            new LruCache<SnapshotKey, Snapshot>(SNAPSHOT_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(SnapshotKey key, Snapshot value) {
+                    return value.bitmap.getAllocationByteCount();
+                }
+            };
 
     private final Context mContext;
     private final InvariantDeviceProfile mIdp;
@@ -78,10 +101,14 @@ public class PreviewSurfaceRenderer {
     private final Display mDisplay;
     private final WallpaperColors mWallpaperColors;
     private final RunnableList mOnDestroyCallbacks = new RunnableList();
+    // Key of the snapshot of this preview, or null if the preview is not in snapshot mode
+    private final SnapshotKey mSnapshotKey;
 
     private final SurfaceControlViewHost mSurfaceControlViewHost;
 
     private boolean mDestroyed = false;
+    // Model generation of the rendered preview, only used in snapshot mode
+    private int mSnapshotGeneration;
 
     public PreviewSurfaceRenderer(Context context, Bundle bundle) throws Exception {
         mContext = context;
@@ -99,6 +126,8 @@ public class PreviewSurfaceRenderer {
         mHeight = bundle.getInt(KEY_VIEW_HEIGHT);
         mDisplay = context.getSystemService(DisplayManager.class)
                 .getDisplay(bundle.getInt(KEY_DISPLAY_ID));
+        mSnapshotKey = bundle.getBoolean(KEY_SNAPSHOT)
+                ? new SnapshotKey(gridName, mWallpaperColors, mWidth, mHeight) : null;
 
         mSurfaceControlViewHost = MAIN_EXECUTOR
                 .submit(() -> new SurfaceControlViewHost(mContext, mDisplay, mHostToken))
@@ -132,7 +161,16 @@ public class PreviewSurfaceRenderer {
 
     @WorkerThread
     private void loadModelData() {
-        final boolean migrated = doGridMigrationIfNecessary();
+        PreviewModelCache previewModelCache = PreviewModelCache.INSTANCE.get(mContext);
+        if (mSnapshotKey != null) {
+            int generation = previewModelCache.getGeneration();
+            Bitmap snapshot = getSnapshot(mSnapshotKey, generation);
+            if (snapshot != null) {
+                MAIN_EXECUTOR.execute(() -> renderSnapshot(snapshot));
+                return;
+            }
+            mSnapshotGeneration = generation;
+        }
 
         final Context inflationContext;
         if (mWallpaperColors != null) {
@@ -151,52 +189,70 @@ public class PreviewSurfaceRenderer {
                     Themes.getActivityThemeRes(mContext));
         }
 
-        if (migrated) {
+        if (GridSizeMigrationTaskV2.needsToMigrate(mContext, mIdp)) {
             PreviewContext previewContext = new PreviewContext(inflationContext, mIdp);
-            new LoaderTask(
-                    LauncherAppState.getInstance(previewContext),
-                    /* bgAllAppsList= */ null,
-                    new BgDataModel(),
-                    LauncherAppState.getInstance(previewContext).getModel().getModelDelegate(),
-                    /* results= */ null) {
+            boolean isTwoPanels = mIdp.getDeviceProfile(previewContext).isTwoPanels;
+            String key = PreviewModelCache.getKey(mContext, mIdp, isTwoPanels);
+            PreviewModelCache.Entry entry = previewModelCache.get(key);
+            if (entry != null) {
+                MAIN_EXECUTOR.execute(() -> {
+                    renderView(previewContext, entry.dataModel, entry.widgetProviderInfoMap);
+                    mOnDestroyCallbacks.add(previewContext::onDestroy);
+                });
+                return;
+            }
 
-                @Override
-                public void run() {
-                    DeviceProfile deviceProfile = mIdp.getDeviceProfile(previewContext);
-                    String query =
-                            LauncherSettings.Favorites.SCREEN + " = " + Workspace.FIRST_SCREEN_ID
-                            + " or " + LauncherSettings.Favorites.CONTAINER + " = "
-                            + LauncherSettings.Favorites.CONTAINER_HOTSEAT;
-                    if (deviceProfile.isTwoPanels) {
-                        query += " or " + LauncherSettings.Favorites.SCREEN + " = "
-                                + Workspace.SECOND_SCREEN_ID;
-                    }
-                    loadWorkspace(new ArrayList<>(), LauncherSettings.Favorites.PREVIEW_CONTENT_URI,
-                            query);
-
-                    MAIN_EXECUTOR.execute(() -> {
-                        renderView(previewContext, mBgDataModel, mWidgetProvidersMap);
-                        mOnDestroyCallbacks.add(previewContext::onDestroy);
-                    });
-                }
-            }.run();
-        } else {
-            LauncherAppState.getInstance(inflationContext).getModel().loadAsync(dataModel -> {
-                if (dataModel != null) {
-                    MAIN_EXECUTOR.execute(() -> renderView(inflationContext, dataModel, null));
-                } else {
-                    Log.e(TAG, "Model loading failed");
-                }
-            });
+            int generation = previewModelCache.getGeneration();
+            if (GridSizeMigrationTaskV2.migrateGridIfNeeded(mContext, mIdp)) {
+                loadPreviewModel(previewContext, previewModelCache, key, generation, isTwoPanels);
+                return;
+            }
+            previewContext.onDestroy();
         }
+
+        LauncherAppState.getInstance(inflationContext).getModel().loadAsync(dataModel -> {
+            if (dataModel != null) {
+                MAIN_EXECUTOR.execute(() -> renderView(inflationContext, dataModel, null));
+            } else {
+                Log.e(TAG, "Model loading failed");
+            }
+        });
     }
 
+    /**
+     * Loads the workspace migrated for preview, adds it to the {@link PreviewModelCache} and
+     * renders it
+     */
     @WorkerThread
-    private boolean doGridMigrationIfNecessary() {
-        if (!GridSizeMigrationTaskV2.needsToMigrate(mContext, mIdp)) {
-            return false;
-        }
-        return GridSizeMigrationTaskV2.migrateGridIfNeeded(mContext, mIdp);
+    private void loadPreviewModel(PreviewContext previewContext,
+            PreviewModelCache previewModelCache, String key, int generation, boolean isTwoPanels) {
+        new LoaderTask(
+                LauncherAppState.getInstance(previewContext),
+                /* bgAllAppsList= */ null,
+                new BgDataModel(),
+                LauncherAppState.getInstance(previewContext).getModel().getModelDelegate(),
+                /* results= */ null) {
+
+            @Override
+            public void run() {
+                String query =
+                        LauncherSettings.Favorites.SCREEN + " = " + Workspace.FIRST_SCREEN_ID
+                        + " or " + LauncherSettings.Favorites.CONTAINER + " = "
+                        + LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+                if (isTwoPanels) {
+                    query += " or " + LauncherSettings.Favorites.SCREEN + " = "
+                            + Workspace.SECOND_SCREEN_ID;
+                }
+                loadWorkspace(new ArrayList<>(), LauncherSettings.Favorites.PREVIEW_CONTENT_URI,
+                        query);
+                previewModelCache.put(key, generation, mBgDataModel, mWidgetProvidersMap);
+
+                MAIN_EXECUTOR.execute(() -> {
+                    renderView(previewContext, mBgDataModel, mWidgetProvidersMap);
+                    mOnDestroyCallbacks.add(previewContext::onDestroy);
+                });
+            }
+        }.run();
     }
 
     @UiThread
@@ -207,20 +263,114 @@ public class PreviewSurfaceRenderer {
         }
         View view = new LauncherPreviewRenderer(inflationContext, mIdp, mWallpaperColors)
                 .getRenderedView(dataModel, widgetProviderInfoMap);
+        int width = view.getMeasuredWidth();
+        int height = view.getMeasuredHeight();
         // This aspect scales the view to fit in the surface and centers it
-        final float scale = Math.min(mWidth / (float) view.getMeasuredWidth(),
-                mHeight / (float) view.getMeasuredHeight());
+        final float scale = Math.min(mWidth / (float) width, mHeight / (float) height);
+        if (mSnapshotKey != null) {
+            // Draw the preview at the size of the surface, and drop the views
+            Picture picture = new Picture();
+            Canvas canvas = picture.beginRecording(
+                    Math.max(1, Math.round(scale * width)),
+                    Math.max(1, Math.round(scale * height)));
+            canvas.scale(scale, scale);
+            view.draw(canvas);
+            picture.endRecording();
+            Bitmap snapshot = Bitmap.createBitmap(picture);
+            synchronized (sSnapshots) {
+                sSnapshots.put(mSnapshotKey, new Snapshot(snapshot, mSnapshotGeneration));
+            }
+            renderSnapshot(snapshot);
+            return;
+        }
+        showView(view, width, height, scale);
+    }
+
+    @UiThread
+    private void renderSnapshot(Bitmap snapshot) {
+        if (mDestroyed) {
+            return;
+        }
+        ImageView view = new ImageView(mContext);
+        view.setImageBitmap(snapshot);
+        showView(view, snapshot.getWidth(), snapshot.getHeight(), 1);
+    }
+
+    @UiThread
+    private void showView(View view, int width, int height, float scale) {
         view.setScaleX(scale);
         view.setScaleY(scale);
         view.setPivotX(0);
         view.setPivotY(0);
-        view.setTranslationX((mWidth - scale * view.getWidth()) / 2);
-        view.setTranslationY((mHeight - scale * view.getHeight()) / 2);
+        view.setTranslationX((mWidth - scale * width) / 2);
+        view.setTranslationY((mHeight - scale * height) / 2);
         view.setAlpha(0);
         view.animate().alpha(1)
                 .setInterpolator(new AccelerateDecelerateInterpolator())
                 .setDuration(FADE_IN_ANIMATION_DURATION)
                 .start();
-        mSurfaceControlViewHost.setView(view, view.getMeasuredWidth(), view.getMeasuredHeight());
+        mSurfaceControlViewHost.setView(view, width, height);
+    }
+
+    /**
+     * Returns the cached snapshot for {@param key}, or null if there is none or if the model
+     * changed since it was rendered
+     */
+    private static Bitmap getSnapshot(SnapshotKey key, int generation) {
+        synchronized (sSnapshots) {
+            Snapshot snapshot = sSnapshots.get(key);
+            if (snapshot == null) {
+                return null;
+            }
+            if (snapshot.generation != generation) {
+                sSnapshots.evictAll();
+                return null;
+            }
+            return snapshot.bitmap;
+        }
+    }
+
+    private static final class SnapshotKey {
+
+        @Nullable
+        private final String mGridName;
+        private final WallpaperColors mWallpaperColors;
+        private final int mWidth;
+        private final int mHeight;
+
+        SnapshotKey(@Nullable String gridName, WallpaperColors wallpaperColors, int width,
+                int height) {
+            mGridName = gridName;
+            mWallpaperColors = wallpaperColors;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SnapshotKey)) {
+                return false;
+            }
+            SnapshotKey other = (SnapshotKey) o;
+            return Objects.equals(mGridName, other.mGridName)
+                    && Objects.equals(mWallpaperColors, other.mWallpaperColors)
+                    && mWidth == other.mWidth && mHeight == other.mHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mGridName, mWallpaperColors, mWidth, mHeight);
+        }
+    }
+
+    private static final class Snapshot {
+
+        final Bitmap bitmap;
+        final int generation;
+
+        Snapshot(Bitmap bitmap, int generation) {
+            this.bitmap = bitmap;
+            this.generation = generation;
+        }
     }
 }
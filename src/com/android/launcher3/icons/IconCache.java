@@ -16,6 +16,7 @@
 
 package com.android.launcher3.icons;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -49,6 +50,7 @@ import com.android.launcher3.icons.ComponentWithLabel.ComponentCachingLogic;
 import com.android.launcher3.icons.cache.BaseIconCache;
 import com.android.launcher3.icons.cache.CachingLogic;
 import com.android.launcher3.icons.cache.HandlerRunnable;
+import com.android.launcher3.icons.cache.IconRenderPool;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.IconRequestInfo;
 import com.android.launcher3.model.data.ItemInfoWithIcon;
@@ -62,10 +64,13 @@ import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.widget.WidgetSections;
 import com.android.launcher3.widget.WidgetSections.WidgetSection;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -83,6 +88,10 @@ public class IconCache extends BaseIconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
+    // On low ram devices, fraction of the app memory class used for keeping icons in memory
+    private static final int LOW_RAM_HIGH_RES_BUDGET_DIVISOR = 16;
+    private static final int LOW_RAM_LOW_RES_BUDGET_DIVISOR = 256;
+
     private final Predicate<ItemInfoWithIcon> mIsUsingFallbackOrNonDefaultIconCheck = w ->
             w.bitmap != null && (w.bitmap.isNullOrLowRes() || !isDefaultIcon(w.bitmap, w.user));
 
@@ -106,7 +115,10 @@ public class IconCache extends BaseIconCache {
     public IconCache(Context context, InvariantDeviceProfile idp, String dbFileName,
             IconProvider iconProvider) {
         super(context, dbFileName, MODEL_EXECUTOR.getLooper(),
-                idp.fillResIconDpi, idp.iconBitmapSize, true /* inMemoryCache */);
+                idp.fillResIconDpi, idp.iconBitmapSize, true /* inMemoryCache */,
+                getMemoryBudget(context, LOW_RAM_HIGH_RES_BUDGET_DIVISOR),
+                getMemoryBudget(context, LOW_RAM_LOW_RES_BUDGET_DIVISOR),
+                FeatureFlags.ENABLE_ICON_PIXEL_STORE.get());
         mComponentWithLabelCachingLogic = new ComponentCachingLogic(context, false);
         mLauncherActivityInfoCachingLogic = LauncherActivityCachingLogic.newInstance(context);
         mShortcutCachingLogic = new ShortcutCachingLogic();
@@ -117,6 +129,17 @@ public class IconCache extends BaseIconCache {
         mWidgetCategoryBitmapInfos = new SparseArray<>();
     }
 
+    /**
+     * Returns the in-memory budget for a cache tier, which is only bounded on low ram devices
+     */
+    private static long getMemoryBudget(Context context, int divisor) {
+        ActivityManager am = context.getSystemService(ActivityManager.class);
+        if (am == null || !am.isLowRamDevice()) {
+            return MEMORY_BUDGET_UNBOUNDED;
+        }
+        return (long) am.getMemoryClass() * 1024 * 1024 / divisor;
+    }
+
     @Override
     protected long getSerialNumberForUser(UserHandle user) {
         return mUserManager.getSerialNumberForUser(user);
@@ -422,15 +445,34 @@ public class IconCache extends BaseIconCache {
         }
 
         Trace.beginSection("loadIconSubsectionWithFallback");
+        // Icons missing from the database, typically all of them on the first launch, are
+        // rendered in parallel first and then applied in order below.
+        ArrayList<LauncherActivityInfo> iconsToRender = new ArrayList<>();
+        for (List<IconRequestInfo<T>> iconRequests : duplicateIconRequestsMap.values()) {
+            IconRequestInfo<T> iconRequestInfo = iconRequests.get(0);
+            if (iconRequestInfo.launcherActivityInfo != null
+                    && needsFallbackIcon(iconRequestInfo.itemInfo)) {
+                iconsToRender.add(iconRequestInfo.launcherActivityInfo);
+            }
+        }
+        HashMap<LauncherActivityInfo, BitmapInfo> renderedIcons = new HashMap<>();
+        if (iconsToRender.size() > 1) {
+            AtomicReferenceArray<BitmapInfo> icons = IconRenderPool.renderIcons(
+                    mContext, mLauncherActivityInfoCachingLogic, iconsToRender);
+            for (int i = 0; i < iconsToRender.size(); i++) {
+                if (icons.get(i) != null) {
+                    renderedIcons.put(iconsToRender.get(i), icons.get(i));
+                }
+            }
+        }
+
         // Fallback title and icon loading
         for (ComponentName cn : duplicateIconRequestsMap.keySet()) {
             IconRequestInfo<T> iconRequestInfo = duplicateIconRequestsMap.get(cn).get(0);
             ItemInfoWithIcon itemInfo = iconRequestInfo.itemInfo;
             BitmapInfo icon = itemInfo.bitmap;
             boolean loadFallbackTitle = TextUtils.isEmpty(itemInfo.title);
-            boolean loadFallbackIcon = icon == null
-                    || isDefaultIcon(icon, itemInfo.user)
-                    || icon == BitmapInfo.LOW_RES_INFO;
+            boolean loadFallbackIcon = needsFallbackIcon(itemInfo);
 
             if (loadFallbackTitle || loadFallbackIcon) {
                 Log.i(TAG,
@@ -447,7 +489,10 @@ public class IconCache extends BaseIconCache {
                 }
                 entry.contentDescription = itemInfo.contentDescription;
 
-                if (loadFallbackIcon) {
+                BitmapInfo renderedIcon = lai == null ? null : renderedIcons.get(lai);
+                if (loadFallbackIcon && renderedIcon != null) {
+                    entry.bitmap = renderedIcon;
+                } else if (loadFallbackIcon) {
                     loadFallbackIcon(
                             lai,
                             entry,
@@ -473,6 +518,13 @@ public class IconCache extends BaseIconCache {
         Trace.endSection();
     }
 
+    private boolean needsFallbackIcon(ItemInfoWithIcon itemInfo) {
+        BitmapInfo icon = itemInfo.bitmap;
+        return icon == null
+                || isDefaultIcon(icon, itemInfo.user)
+                || icon == BitmapInfo.LOW_RES_INFO;
+    }
+
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
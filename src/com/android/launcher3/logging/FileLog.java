@@ -14,11 +14,15 @@ import com.android.launcher3.util.IOUtils;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
-import java.util.Calendar;
+import java.util.ArrayDeque;
 import java.util.Date;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -27,6 +31,11 @@ import java.util.concurrent.TimeUnit;
  * Wrapper around {@link Log} to allow writing to a file.
  * This class can safely be called from main thread.
  *
+ * Logs are buffered in memory and written in batches on a background thread, either once enough
+ * of them are buffered or shortly after the first one. If the writer falls behind, new logs are
+ * dropped instead of growing the buffer, and the number of dropped logs is written with the next
+ * batch.
+ *
  * Note: This should only be used for logging errors which have a persistent effect on user's data,
  * but whose effect may not be visible immediately.
  */
@@ -37,12 +46,37 @@ public final class FileLog {
     private static final DateFormat DATE_FORMAT =
             DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
 
-    private static final long MAX_LOG_FILE_SIZE = 8 << 20;  // 4 mb
+    @VisibleForTesting
+    static final long MAX_LOG_FILE_SIZE = 8 << 20;  // 8 mb
+
+    // Buffered logs are written once they reach this size, or after FLUSH_DELAY
+    private static final int FLUSH_THRESHOLD_CHARS = 16 << 10;
+    @VisibleForTesting
+    static final long FLUSH_DELAY = 1000;  // 1 second
+    // Logs printed while the buffer holds this much are dropped
+    @VisibleForTesting
+    static final int MAX_BUFFERED_CHARS = 256 << 10;
 
     private static Handler sHandler = null;
     private static File sLogsDirectory = null;
 
-    public static final int LOG_DAYS = 4;
+    // Logs waiting to be written, and the counters below, are guarded by sBuffer
+    private static final ArrayDeque<String> sBuffer = new ArrayDeque<>();
+    private static int sBufferedChars;
+    private static boolean sWriteScheduled;
+    private static long sWrittenCount;
+    private static long sDroppedCount;
+    private static long sPendingDroppedCount;
+    private static long sBatchCount;
+    private static int sMaxBufferedChars;
+
+    // Number of log files, which are written in turn as each one reaches MAX_LOG_FILE_SIZE
+    public static final int LOG_FILE_COUNT = 4;
+    /**
+     * @deprecated The log files are no longer rotated daily, use {@link #LOG_FILE_COUNT}
+     */
+    @Deprecated
+    public static final int LOG_DAYS = LOG_FILE_COUNT;
 
     public static void setDir(File logsDir) {
         if (ENABLED) {
@@ -89,18 +123,62 @@ public final class FileLog {
         if (e != null) {
             out += "\n" + Log.getStackTraceString(e);
         }
-        Message.obtain(getHandler(), LogWriterCallback.MSG_WRITE, out).sendToTarget();
+        synchronized (sBuffer) {
+            if (sBufferedChars + out.length() > MAX_BUFFERED_CHARS) {
+                sDroppedCount++;
+                sPendingDroppedCount++;
+                // Make sure that the dropped count gets written
+                scheduleWrite(false /* immediate */);
+                return;
+            }
+            int previousChars = sBufferedChars;
+            sBuffer.add(out);
+            sBufferedChars += out.length() + 1;
+            sMaxBufferedChars = Math.max(sMaxBufferedChars, sBufferedChars);
+            scheduleWrite(previousChars < FLUSH_THRESHOLD_CHARS
+                    && sBufferedChars >= FLUSH_THRESHOLD_CHARS);
+        }
+    }
+
+    /**
+     * Schedules the write of the buffered logs, either right away or after {@link #FLUSH_DELAY}
+     * if no write is scheduled yet. Must be called while holding {@link #sBuffer}.
+     */
+    private static void scheduleWrite(boolean immediate) {
+        Handler handler = getHandler();
+        if (immediate) {
+            handler.removeMessages(LogWriterCallback.MSG_WRITE);
+            handler.sendEmptyMessage(LogWriterCallback.MSG_WRITE);
+            sWriteScheduled = true;
+        } else if (!sWriteScheduled) {
+            handler.sendEmptyMessageDelayed(LogWriterCallback.MSG_WRITE, FLUSH_DELAY);
+            sWriteScheduled = true;
+        }
     }
 
     @VisibleForTesting
     static Handler getHandler() {
+        Handler handler;
+        boolean created = false;
         synchronized (DATE_FORMAT) {
             if (sHandler == null) {
                 sHandler = new Handler(createAndStartNewLooper("file-logger"),
                         new LogWriterCallback());
+                created = true;
+            }
+            handler = sHandler;
+        }
+        if (created) {
+            // Any write scheduled on the previous handler was lost when its thread was stopped,
+            // schedule it again for the logs which are still buffered.
+            synchronized (sBuffer) {
+                sWriteScheduled = !sBuffer.isEmpty() || sPendingDroppedCount > 0;
+                if (sWriteScheduled) {
+                    handler.sendEmptyMessageDelayed(LogWriterCallback.MSG_WRITE, FLUSH_DELAY);
+                }
             }
         }
-        return sHandler;
+        return handler;
     }
 
     /**
@@ -120,24 +198,32 @@ public final class FileLog {
     }
 
     /**
-     * Writes logs to the file.
-     * Log files are named log-0 for even days of the year and log-1 for odd days of the year.
-     * Logs older than 36 hours are purged.
+     * Writes logs to the files log-0 to log-3, moving to the next file once the current one
+     * reaches {@link #MAX_LOG_FILE_SIZE}. Files last modified more than 36 hours ago are purged
+     * whenever the logs are reopened.
      */
     private static class LogWriterCallback implements Handler.Callback {
 
         private static final long CLOSE_DELAY = 5000;  // 5 seconds
+        private static final long PURGE_AGE = TimeUnit.HOURS.toMillis(36);
 
         private static final int MSG_WRITE = 1;
         private static final int MSG_CLOSE = 2;
         private static final int MSG_FLUSH = 3;
 
-        private String mCurrentFileName = null;
-        private PrintWriter mCurrentWriter = null;
+        private final StringBuilder mBatch = new StringBuilder();
+        // DATE_FORMAT is used on the threads calling print(), and DateFormat is not thread safe
+        private final DateFormat mDateFormat =
+                DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+
+        // Index of the file being written, or -1 if it is not known yet
+        private int mCurrentIndex = -1;
+        private FileChannel mCurrentChannel = null;
+        private long mCurrentSize;
 
         private void closeWriter() {
-            IOUtils.closeSilently(mCurrentWriter);
-            mCurrentWriter = null;
+            IOUtils.closeSilently(mCurrentChannel);
+            mCurrentChannel = null;
         }
 
         @Override
@@ -147,44 +233,10 @@ public final class FileLog {
             }
             switch (msg.what) {
                 case MSG_WRITE: {
-                    Calendar cal = Calendar.getInstance();
-                    // suffix with 0 or 1 based on the day of the year.
-                    String fileName = FILE_NAME_PREFIX + (cal.get(Calendar.DAY_OF_YEAR) % LOG_DAYS);
-
-                    if (!fileName.equals(mCurrentFileName)) {
-                        closeWriter();
-                    }
-
-                    try {
-                        if (mCurrentWriter == null) {
-                            mCurrentFileName = fileName;
-
-                            boolean append = false;
-                            File logFile = new File(sLogsDirectory, fileName);
-                            if (logFile.exists()) {
-                                Calendar modifiedTime = Calendar.getInstance();
-                                modifiedTime.setTimeInMillis(logFile.lastModified());
-
-                                // If the file was modified more that 36 hours ago, purge the file.
-                                // We use instead of 24 to account for day-365 followed by day-1
-                                modifiedTime.add(Calendar.HOUR, 36);
-                                append = cal.before(modifiedTime)
-                                        && logFile.length() < MAX_LOG_FILE_SIZE;
-                            }
-                            mCurrentWriter = new PrintWriter(new FileWriter(logFile, append));
-                        }
-
-                        mCurrentWriter.println((String) msg.obj);
-                        mCurrentWriter.flush();
-
-                        // Auto close file stream after some time.
-                        sHandler.removeMessages(MSG_CLOSE);
-                        sHandler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY);
-                    } catch (Exception e) {
-                        Log.e("FileLog", "Error writing logs to file", e);
-                        // Close stream, will try reopening during next log
-                        closeWriter();
-                    }
+                    writeBufferedLogs();
+                    // Auto close file stream after some time.
+                    sHandler.removeMessages(MSG_CLOSE);
+                    sHandler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY);
                     return true;
                 }
                 case MSG_CLOSE: {
@@ -192,13 +244,22 @@ public final class FileLog {
                     return true;
                 }
                 case MSG_FLUSH: {
+                    writeBufferedLogs();
                     closeWriter();
                     Pair<PrintWriter, CountDownLatch> p =
                             (Pair<PrintWriter, CountDownLatch>) msg.obj;
 
                     if (p.first != null) {
-                        for (int i = 0; i < LOG_DAYS; i++) {
-                            dumpFile(p.first, FILE_NAME_PREFIX + i);
+                        // Dump the files from the oldest to the newest
+                        for (int i = 1; i <= LOG_FILE_COUNT; i++) {
+                            dumpFile(p.first, FILE_NAME_PREFIX
+                                    + (Math.max(mCurrentIndex, 0) + i) % LOG_FILE_COUNT);
+                        }
+                        synchronized (sBuffer) {
+                            p.first.println("FileLog: written=" + sWrittenCount
+                                    + " dropped=" + sDroppedCount
+                                    + " batches=" + sBatchCount
+                                    + " maxBufferedChars=" + sMaxBufferedChars);
                         }
                     }
                     p.second.countDown();
@@ -207,6 +268,79 @@ public final class FileLog {
             }
             return true;
         }
+
+        private void writeBufferedLogs() {
+            mBatch.setLength(0);
+            int count;
+            synchronized (sBuffer) {
+                sWriteScheduled = false;
+                if (sPendingDroppedCount > 0) {
+                    mBatch.append(mDateFormat.format(new Date())).append(" FileLog ")
+                            .append(sPendingDroppedCount).append(" logs dropped\n");
+                    sPendingDroppedCount = 0;
+                }
+                count = sBuffer.size();
+                for (String line : sBuffer) {
+                    mBatch.append(line).append('\n');
+                }
+                sBuffer.clear();
+                sBufferedChars = 0;
+            }
+            if (mBatch.length() == 0) {
+                return;
+            }
+
+            byte[] bytes = mBatch.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                if (mCurrentChannel == null) {
+                    openCurrentFile();
+                }
+                if (mCurrentSize > 0 && mCurrentSize + bytes.length > MAX_LOG_FILE_SIZE) {
+                    closeWriter();
+                    mCurrentIndex = (mCurrentIndex + 1) % LOG_FILE_COUNT;
+                    openFile(false /* append */);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    mCurrentSize += mCurrentChannel.write(buffer);
+                }
+                synchronized (sBuffer) {
+                    sWrittenCount += count;
+                    sBatchCount++;
+                }
+            } catch (Exception e) {
+                Log.e("FileLog", "Error writing logs to file", e);
+                // Close stream, will try reopening during next log
+                closeWriter();
+            }
+        }
+
+        private void openCurrentFile() throws IOException {
+            // Purge the old logs, and continue with the file which was written last
+            long now = System.currentTimeMillis();
+            long lastModified = 0;
+            int newestIndex = 0;
+            for (int i = 0; i < LOG_FILE_COUNT; i++) {
+                File logFile = new File(sLogsDirectory, FILE_NAME_PREFIX + i);
+                long modified = logFile.lastModified();
+                if (modified > 0 && now - modified > PURGE_AGE) {
+                    logFile.delete();
+                } else if (modified > lastModified) {
+                    lastModified = modified;
+                    newestIndex = i;
+                }
+            }
+            if (mCurrentIndex < 0) {
+                mCurrentIndex = newestIndex;
+            }
+            openFile(true /* append */);
+        }
+
+        private void openFile(boolean append) throws IOException {
+            File logFile = new File(sLogsDirectory, FILE_NAME_PREFIX + mCurrentIndex);
+            mCurrentChannel = new FileOutputStream(logFile, append).getChannel();
+            mCurrentSize = mCurrentChannel.size();
+        }
     }
 
     private static void dumpFile(PrintWriter out, String fileName) {
@@ -237,8 +371,8 @@ public final class FileLog {
         try {
             flushAll(null);
         } catch (InterruptedException e) { }
-        File[] files = new File[LOG_DAYS];
-        for (int i = 0; i < LOG_DAYS; i++) {
+        File[] files = new File[LOG_FILE_COUNT];
+        for (int i = 0; i < LOG_FILE_COUNT; i++) {
             files[i] = new File(sLogsDirectory, FILE_NAME_PREFIX + i);
         }
         return files;
@@ -35,6 +35,7 @@ import com.android.launcher3.model.BgDataModel.Callbacks;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.pm.PackageInstallInfo;
+import com.android.launcher3.search.AppSearchIndex;
 import com.android.launcher3.util.FlagOp;
 import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.util.SafeCloseable;
@@ -71,6 +72,7 @@ public class AllAppsList {
     private Consumer<AppInfo> mRemoveListener = NO_OP_CONSUMER;
 
     private AlphabeticIndexCompat mIndex;
+    private final AppSearchIndex mSearchIndex = new AppSearchIndex();
 
     /**
      * @see Callbacks#FLAG_HAS_SHORTCUT_PERMISSION
@@ -149,6 +151,7 @@ public class AllAppsList {
         }
 
         data.add(info);
+        mSearchIndex.add(info);
         mDataChanged = true;
     }
 
@@ -175,6 +178,7 @@ public class AllAppsList {
         }
 
         data.add(promiseAppInfo);
+        mSearchIndex.add(promiseAppInfo);
         mDataChanged = true;
 
         return promiseAppInfo;
@@ -182,7 +186,14 @@ public class AllAppsList {
 
     public void updateSectionName(AppInfo appInfo) {
         appInfo.sectionName = mIndex.computeSectionName(appInfo.title);
+        mSearchIndex.add(appInfo);
+    }
 
+    /**
+     * Returns the search index over the titles of all the apps in this list.
+     */
+    public AppSearchIndex getSearchIndex() {
+        return mSearchIndex;
     }
 
     /** Updates the given PackageInstallInfo's associated AppInfo's installation info. */
@@ -215,6 +226,7 @@ public class AllAppsList {
     private void removeApp(int index) {
         AppInfo removed = data.remove(index);
         if (removed != null) {
+            mSearchIndex.remove(removed);
             mDataChanged = true;
             mRemoveListener.accept(removed);
         }
@@ -222,6 +234,7 @@ public class AllAppsList {
 
     public void clear() {
         data.clear();
+        mSearchIndex.clear();
         mDataChanged = false;
         // Reset the index as locales might have changed
         mIndex = new AlphabeticIndexCompat(LocaleList.getDefault());
@@ -273,7 +286,7 @@ public class AllAppsList {
         for (AppInfo info : data) {
             if (info.user.equals(user) && packages.contains(info.componentName.getPackageName())) {
                 mIconCache.updateTitleAndIcon(info);
-                info.sectionName = mIndex.computeSectionName(info.title);
+                updateSectionName(info);
                 mDataChanged = true;
             }
         }
@@ -310,7 +323,7 @@ public class AllAppsList {
                     Intent launchIntent = AppInfo.makeLaunchIntent(info);
 
                     mIconCache.getTitleAndIcon(applicationInfo, info, false /* useLowResIcon */);
-                    applicationInfo.sectionName = mIndex.computeSectionName(applicationInfo.title);
+                    updateSectionName(applicationInfo);
                     applicationInfo.setProgressLevel(
                             PackageManagerHelper.getLoadingProgress(info),
                             PackageInstallInfo.STATUS_INSTALLED_DOWNLOADING);
@@ -104,6 +104,38 @@ public abstract class BaseLoaderResults {
         }
     }
 
+    /**
+     * Binds the items of {@param snapshot} on the pages bound first, so that they are visible
+     * while the workspace is loaded. The next call to {@link #bindWorkspace} replaces them with
+     * the loaded items.
+     */
+    public void bindWorkspaceSnapshot(WorkspaceSnapshot snapshot) {
+        int bindingId;
+        synchronized (mBgDataModel) {
+            bindingId = mMyBindingId = mBgDataModel.lastBindId;
+        }
+        IntArray orderedScreenIds = snapshot.getScreenIds();
+        for (Callbacks cb : mCallbacksList) {
+            IntSet pages = cb.getPagesToBindSynchronously(orderedScreenIds);
+            ArrayList<ItemInfo> items = pages == null ? null : snapshot.getItemsForPages(pages);
+            if (items == null) {
+                continue;
+            }
+            sortWorkspaceItemsSpatially(mApp.getInvariantDeviceProfile(), items);
+            Log.d(TAG, "bindWorkspaceSnapshot: items: " + items.size());
+            mUiExecutor.execute(() -> {
+                if (bindingId != mBgDataModel.lastBindId) {
+                    // The workspace was bound in the meantime
+                    return;
+                }
+                cb.clearPendingBinds();
+                cb.startBinding();
+                cb.bindScreens(orderedScreenIds);
+                cb.bindItems(items, false);
+            });
+        }
+    }
+
     public abstract void bindDeepShortcuts();
 
     public void bindAllApps() {
@@ -433,10 +433,12 @@ public class GridSizeMigrationTaskV2 {
          */
         private boolean findPlacement(DbEntry entry) {
             for (int y = mNextStartY; y <  mTrgY; y++) {
-                for (int x = mNextStartX; x < mTrgX; x++) {
-                    boolean fits = mOccupied.isRegionVacant(x, y, entry.spanX, entry.spanY);
-                    boolean minFits = mOccupied.isRegionVacant(x, y, entry.minSpanX,
-                            entry.minSpanY);
+                long fitting = mOccupied.getVacantCellsInRow(y, entry.spanX, entry.spanY);
+                long minFitting = mOccupied.getVacantCellsInRow(y, entry.minSpanX,
+                        entry.minSpanY);
+                for (int x = mNextStartX; x < mTrgX && (fitting | minFitting) != 0; x++) {
+                    boolean fits = (fitting & (1L << x)) != 0;
+                    boolean minFits = (minFitting & (1L << x)) != 0;
                     if (minFits) {
                         entry.spanX = entry.minSpanX;
                         entry.spanY = entry.minSpanY;
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.util.Executors.THREAD_POOL_EXECUTOR;
+import static com.android.launcher3.util.PackageManagerHelper.hasShortcutsPermission;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.content.pm.ShortcutInfo;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.shortcuts.ShortcutRequest;
+import com.android.launcher3.widget.WidgetManagerHelper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Fetches the system data needed by the later phases of {@link LoaderTask} concurrently on
+ * {@link com.android.launcher3.util.Executors#THREAD_POOL_EXECUTOR}, while the workspace is
+ * being loaded and bound.
+ *
+ * These fetches are independent binder calls: the activity list and the deep shortcuts of each
+ * profile, and the widget providers. The loader still consumes them in its usual order on the
+ * model thread, so the bind order is unchanged, and it only blocks if a fetch has not completed
+ * by the time it is needed. Any change happening after a fetch is delivered to the model as a
+ * regular update task, which runs after the loader.
+ */
+class LoaderPrefetcher {
+
+    private final Context mContext;
+    private final LoaderTimings mTimings;
+
+    private final HashMap<UserHandle, FutureTask<List<LauncherActivityInfo>>> mActivityLists =
+            new HashMap<>();
+    private final HashMap<UserHandle, FutureTask<List<ShortcutInfo>>> mDeepShortcuts =
+            new HashMap<>();
+    private FutureTask<List<AppWidgetProviderInfo>> mWidgetProviders;
+
+    private boolean mCancelled;
+
+    LoaderPrefetcher(Context context, LoaderTimings timings) {
+        mContext = context;
+        mTimings = timings;
+    }
+
+    /**
+     * Starts fetching the data for the provided profiles
+     */
+    synchronized void start(List<UserHandle> profiles) {
+        if (mCancelled) {
+            return;
+        }
+        LauncherApps launcherApps = mContext.getSystemService(LauncherApps.class);
+        UserManager userManager = mContext.getSystemService(UserManager.class);
+        for (UserHandle user : profiles) {
+            mActivityLists.put(user, submit("prefetchActivityList:" + user,
+                    () -> launcherApps.getActivityList(null, user)));
+            // Returns null if the shortcuts could not be fetched, in which case the loader
+            // checks the conditions again and queries them itself
+            mDeepShortcuts.put(user, submit("prefetchDeepShortcuts:" + user,
+                    () -> hasShortcutsPermission(mContext) && userManager.isUserUnlocked(user)
+                            ? new ShortcutRequest(mContext, user).query(ShortcutRequest.ALL)
+                            : null));
+        }
+        mWidgetProviders = submit("prefetchWidgetProviders",
+                () -> new WidgetManagerHelper(mContext).getAllProviders(null));
+    }
+
+    /**
+     * Cancels all the pending fetches. Any thread waiting on a fetch gets a
+     * {@link CancellationException}.
+     */
+    synchronized void cancel() {
+        mCancelled = true;
+        mActivityLists.values().forEach(f -> f.cancel(false));
+        mDeepShortcuts.values().forEach(f -> f.cancel(false));
+        if (mWidgetProviders != null) {
+            mWidgetProviders.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the activities of {@param user}, fetching them on the calling thread if they were
+     * not prefetched
+     */
+    List<LauncherActivityInfo> getActivityList(UserHandle user) {
+        Future<List<LauncherActivityInfo>> future = getFuture(mActivityLists, user);
+        if (future != null) {
+            return await(future);
+        }
+        mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
+        return mContext.getSystemService(LauncherApps.class).getActivityList(null, user);
+    }
+
+    /**
+     * Returns all the deep shortcuts of {@param user}, fetching them on the calling thread if
+     * they were not prefetched. The caller is responsible for checking that the user is unlocked
+     * and that the shortcuts can be queried.
+     */
+    List<ShortcutInfo> getDeepShortcuts(UserHandle user) {
+        Future<List<ShortcutInfo>> future = getFuture(mDeepShortcuts, user);
+        List<ShortcutInfo> shortcuts = future != null ? await(future) : null;
+        if (shortcuts != null) {
+            return shortcuts;
+        }
+        mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
+        return new ShortcutRequest(mContext, user).query(ShortcutRequest.ALL);
+    }
+
+    /**
+     * Returns all the widget providers, fetching them on the calling thread if they were not
+     * prefetched
+     */
+    List<AppWidgetProviderInfo> getWidgetProviders() {
+        Future<List<AppWidgetProviderInfo>> future;
+        synchronized (this) {
+            future = mWidgetProviders;
+        }
+        if (future != null) {
+            return await(future);
+        }
+        mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
+        return new WidgetManagerHelper(mContext).getAllProviders(null);
+    }
+
+    @Nullable
+    private synchronized <T> Future<T> getFuture(HashMap<UserHandle, FutureTask<T>> map,
+            UserHandle user) {
+        return map.get(user);
+    }
+
+    private <T> FutureTask<T> submit(String name, LoaderTimings.ThrowingSupplier<T> fetch) {
+        FutureTask<T> task = new FutureTask<>(() -> mTimings.measure(name, () -> {
+            mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
+            return fetch.get();
+        }));
+        THREAD_POOL_EXECUTOR.execute(task);
+        return task;
+    }
+
+    private static <T> T await(Future<T> future) throws CancellationException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Loader interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
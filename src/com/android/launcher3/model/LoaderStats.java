@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import com.android.launcher3.tracing.LoaderCounterProto;
+import com.android.launcher3.tracing.LoaderPhaseStatsProto;
+import com.android.launcher3.tracing.LoaderStatsProto;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics of the {@link LoaderTask} runs of the process, built from their
+ * {@link LoaderTimings}: a latency histogram per phase and the last and total value of each
+ * counter. Only the loads which completed are accumulated, as the phases of a stopped load do
+ * not cover the same work.
+ *
+ * The statistics are available in the model dump, through the launcher provider and in the
+ * launcher trace, see {@link #toProto()}.
+ */
+public class LoaderStats {
+
+    // Upper bounds of the latency buckets, the last bucket holds all the longer phases
+    private static final long[] BUCKET_UPPER_BOUNDS_MS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    // Phases and counters in the order they were first recorded
+    private final LinkedHashMap<String, PhaseStats> mPhases = new LinkedHashMap<>();
+    private final LinkedHashMap<String, CounterStats> mCounters = new LinkedHashMap<>();
+
+    private int mLoadCount;
+    private int mCancelledCount;
+
+    /**
+     * Adds the timings of a loader run
+     *
+     * @param completed false if the loader was stopped before completing
+     */
+    public synchronized void add(LoaderTimings timings, boolean completed) {
+        if (!completed) {
+            mCancelledCount++;
+            return;
+        }
+        mLoadCount++;
+        for (LoaderTimings.Phase phase : timings.getPhases()) {
+            PhaseStats stats = mPhases.get(phase.name);
+            if (stats == null) {
+                stats = new PhaseStats(phase.concurrent);
+                mPhases.put(phase.name, stats);
+            }
+            stats.add(phase.wallMs, phase.cpuMs);
+        }
+        // Counters missing from this run are reset, so that the last values are consistent
+        for (CounterStats stats : mCounters.values()) {
+            stats.lastValue = 0;
+        }
+        for (Map.Entry<String, Long> count : timings.getCounts().entrySet()) {
+            CounterStats stats = mCounters.get(count.getKey());
+            if (stats == null) {
+                stats = new CounterStats();
+                mCounters.put(count.getKey(), stats);
+            }
+            stats.lastValue = count.getValue();
+            stats.totalValue += count.getValue();
+        }
+    }
+
+    public synchronized LoaderStatsProto toProto() {
+        LoaderStatsProto.Builder proto = LoaderStatsProto.newBuilder()
+                .setLoadCount(mLoadCount)
+                .setCancelledCount(mCancelledCount);
+        for (long bound : BUCKET_UPPER_BOUNDS_MS) {
+            proto.addBucketUpperBoundsMs(bound);
+        }
+        for (Map.Entry<String, PhaseStats> e : mPhases.entrySet()) {
+            PhaseStats stats = e.getValue();
+            LoaderPhaseStatsProto.Builder phaseProto = LoaderPhaseStatsProto.newBuilder()
+                    .setName(e.getKey())
+                    .setConcurrent(stats.concurrent)
+                    .setCount(stats.count)
+                    .setTotalWallMs(stats.totalWallMs)
+                    .setTotalCpuMs(stats.totalCpuMs)
+                    .setMaxWallMs(stats.maxWallMs);
+            for (int bucketCount : stats.bucketCounts) {
+                phaseProto.addBucketCounts(bucketCount);
+            }
+            proto.addPhases(phaseProto);
+        }
+        for (Map.Entry<String, CounterStats> e : mCounters.entrySet()) {
+            proto.addCounters(LoaderCounterProto.newBuilder()
+                    .setName(e.getKey())
+                    .setLastValue(e.getValue().lastValue)
+                    .setTotalValue(e.getValue().totalValue));
+        }
+        return proto.build();
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Loader stats: loads=" + mLoadCount
+                + " cancelled=" + mCancelledCount);
+        writer.println(prefix + "  buckets (ms): " + Arrays.toString(BUCKET_UPPER_BOUNDS_MS)
+                + " and more");
+        for (Map.Entry<String, PhaseStats> e : mPhases.entrySet()) {
+            PhaseStats stats = e.getValue();
+            writer.println(prefix + "  " + (stats.concurrent ? "* " : "") + e.getKey()
+                    + ": count=" + stats.count
+                    + " avgWallMs=" + stats.totalWallMs / stats.count
+                    + " avgCpuMs=" + stats.totalCpuMs / stats.count
+                    + " maxWallMs=" + stats.maxWallMs
+                    + " buckets=" + Arrays.toString(stats.bucketCounts));
+        }
+        for (Map.Entry<String, CounterStats> e : mCounters.entrySet()) {
+            writer.println(prefix + "  " + e.getKey() + ": last=" + e.getValue().lastValue
+                    + " total=" + e.getValue().totalValue);
+        }
+        CounterStats hits = mCounters.get(LoaderTimings.COUNT_ICON_CACHE_HITS);
+        CounterStats misses = mCounters.get(LoaderTimings.COUNT_ICON_CACHE_MISSES);
+        if (hits != null && misses != null && hits.totalValue + misses.totalValue > 0) {
+            writer.println(prefix + "  icon cache hit ratio: "
+                    + hits.totalValue * 100 / (hits.totalValue + misses.totalValue) + "%");
+        }
+    }
+
+    private static class PhaseStats {
+
+        final boolean concurrent;
+        final int[] bucketCounts = new int[BUCKET_UPPER_BOUNDS_MS.length + 1];
+
+        int count;
+        long totalWallMs;
+        long totalCpuMs;
+        long maxWallMs;
+
+        PhaseStats(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+
+        void add(long wallMs, long cpuMs) {
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_MS.length
+                    && wallMs > BUCKET_UPPER_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            bucketCounts[bucket]++;
+            count++;
+            totalWallMs += wallMs;
+            totalCpuMs += cpuMs;
+            maxWallMs = Math.max(maxWallMs, wallMs);
+        }
+    }
+
+    private static class CounterStats {
+        long lastValue;
+        long totalValue;
+    }
+}
@@ -137,6 +137,9 @@ public class LoaderTask implements Runnable {
 
     private final UserManagerState mUserManagerState = new UserManagerState();
 
+    private final LoaderTimings mTimings = new LoaderTimings();
+    private final LoaderPrefetcher mPrefetcher;
+
     protected final Map<ComponentKey, AppWidgetProviderInfo> mWidgetProvidersMap = new ArrayMap<>();
 
     private boolean mStopped;
@@ -158,6 +161,14 @@ public class LoaderTask implements Runnable {
         mUserCache = UserCache.INSTANCE.get(mApp.getContext());
         mSessionHelper = InstallSessionHelper.INSTANCE.get(mApp.getContext());
         mIconCache = mApp.getIconCache();
+        mPrefetcher = new LoaderPrefetcher(mApp.getContext(), mTimings);
+    }
+
+    /**
+     * Returns the time taken by the phases of this task
+     */
+    public LoaderTimings getTimings() {
+        return mTimings;
     }
 
     protected synchronized void waitForIdle() {
@@ -202,6 +213,15 @@ public class LoaderTask implements Runnable {
         TimingLogger logger = new TimingLogger(TAG, "run");
         LoaderMemoryLogger memoryLogger = new LoaderMemoryLogger();
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
+            mTimings.start();
+            long iconCacheHits = mIconCache.getMemoryCacheHitCount();
+            long iconCacheMisses = mIconCache.getMemoryCacheMissCount();
+            // Fetch the data needed by the later steps while the workspace is loaded and bound
+            mPrefetcher.start(mUserCache.getUserProfiles());
+
+            bindWorkspaceSnapshotIfNeeded();
+            logASplit(logger, "bindWorkspaceSnapshot");
+
             List<ShortcutInfo> allShortcuts = new ArrayList<>();
             Trace.beginSection("LoadWorkspace");
             try {
@@ -210,6 +230,10 @@ public class LoaderTask implements Runnable {
                 Trace.endSection();
             }
             logASplit(logger, "loadWorkspace");
+            synchronized (mBgDataModel) {
+                mTimings.count(LoaderTimings.COUNT_WORKSPACE_ITEMS,
+                        mBgDataModel.itemsIdMap.size());
+            }
 
             // Sanitize data re-syncs widgets/shortcuts based on the workspace loaded from db.
             // sanitizeData should not be invoked if the workspace is loaded from a db different
@@ -244,6 +268,7 @@ public class LoaderTask implements Runnable {
                 Trace.endSection();
             }
             logASplit(logger, "loadAllApps");
+            mTimings.count(LoaderTimings.COUNT_APPS, allActivityList.size());
 
             verifyNotStopped();
             if (MxSettings.getInstance().isDrawerEnable()) {
@@ -277,6 +302,7 @@ public class LoaderTask implements Runnable {
             // third step
             List<ShortcutInfo> allDeepShortcuts = loadDeepShortcuts();
             logASplit(logger, "loadDeepShortcuts");
+            mTimings.count(LoaderTimings.COUNT_DEEP_SHORTCUTS, allDeepShortcuts.size());
 
             verifyNotStopped();
             mResults.bindDeepShortcuts();
@@ -296,8 +322,9 @@ public class LoaderTask implements Runnable {
 
             // fourth step
             List<ComponentWithLabelAndIcon> allWidgetsList =
-                    mBgDataModel.widgetsModel.update(mApp, null);
+                    mBgDataModel.widgetsModel.update(mApp, null, mPrefetcher.getWidgetProviders());
             logASplit(logger, "load widgets");
+            mTimings.count(LoaderTimings.COUNT_WIDGETS, allWidgetsList.size());
 
             verifyNotStopped();
             mResults.bindWidgets();
@@ -319,9 +346,19 @@ public class LoaderTask implements Runnable {
             verifyNotStopped();
             updateHandler.finish();
             logASplit(logger, "finish icon update");
+            mTimings.count(LoaderTimings.COUNT_ICON_CACHE_HITS,
+                    mIconCache.getMemoryCacheHitCount() - iconCacheHits);
+            mTimings.count(LoaderTimings.COUNT_ICON_CACHE_MISSES,
+                    mIconCache.getMemoryCacheMissCount() - iconCacheMisses);
 
             mModelDelegate.modelLoadComplete();
             transaction.commit();
+
+            if (mApp.getInvariantDeviceProfile().dbFile.equals(mDbName)) {
+                WorkspaceSnapshot.write(mApp.getContext(), mApp.getInvariantDeviceProfile(),
+                        mBgDataModel);
+                logASplit(logger, "writeWorkspaceSnapshot");
+            }
             memoryLogger.clearLogs();
         } catch (CancellationException e) {
             // Loader stopped, ignore
@@ -330,13 +367,32 @@ public class LoaderTask implements Runnable {
             memoryLogger.printLogs();
             throw e;
         } finally {
+            mPrefetcher.cancel();
             logger.dumpToLog();
         }
         TraceHelper.INSTANCE.endSection(traceToken);
     }
 
+    /**
+     * Binds the items saved at the end of the previous load if nothing was bound yet by this
+     * process, so that the first screen is shown while the workspace is loaded
+     */
+    private void bindWorkspaceSnapshotIfNeeded() {
+        synchronized (mBgDataModel) {
+            if (mBgDataModel.lastBindId != 0) {
+                return;
+            }
+        }
+        WorkspaceSnapshot snapshot = WorkspaceSnapshot.read(
+                mApp.getContext(), mApp.getInvariantDeviceProfile());
+        if (snapshot != null) {
+            mResults.bindWorkspaceSnapshot(snapshot);
+        }
+    }
+
     public synchronized void stopLocked() {
         mStopped = true;
+        mPrefetcher.cancel();
         this.notify();
     }
 
@@ -372,11 +428,13 @@ public class LoaderTask implements Runnable {
             Log.d(TAG, "loadWorkspace: resetting launcher database");
             LauncherSettings.Settings.call(contentResolver,
                     LauncherSettings.Settings.METHOD_CREATE_EMPTY_DB);
+            mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
         }
 
         Log.d(TAG, "loadWorkspace: loading default favorites");
         LauncherSettings.Settings.call(contentResolver,
                 LauncherSettings.Settings.METHOD_LOAD_DEFAULT_FAVORITES);
+        mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
 
         synchronized (mBgDataModel) {
             mBgDataModel.clear();
@@ -396,6 +454,8 @@ public class LoaderTask implements Runnable {
             final Bundle extras = c.getExtras();
             mDbName = extras == null
                     ? null : extras.getString(LauncherSettings.Settings.EXTRA_DB_NAME);
+            mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
+            mTimings.count(LoaderTimings.COUNT_DB_ROWS, c.getCount());
             try {
                 final int appWidgetIdIndex = c.getColumnIndexOrThrow(
                         LauncherSettings.Favorites.APPWIDGET_ID);
@@ -419,11 +479,13 @@ public class LoaderTask implements Runnable {
                 for (UserHandle user : mUserCache.getUserProfiles()) {
                     long serialNo = mUserCache.getSerialNumberForUser(user);
                     boolean userUnlocked = mUserManager.isUserUnlocked(user);
+                    mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
 
                     // We can only query for shortcuts when the user is unlocked.
                     if (userUnlocked) {
                         QueryResult pinnedShortcuts = new ShortcutRequest(context, user)
                                 .query(ShortcutRequest.PINNED);
+                        mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
                         if (pinnedShortcuts.wasSuccess()) {
                             for (ShortcutInfo shortcut : pinnedShortcuts) {
                                 shortcutKeyToPinnedShortcuts.put(ShortcutKey.fromInfo(shortcut),
@@ -479,7 +541,8 @@ public class LoaderTask implements Runnable {
                             // If there is no target package, its an implicit intent
                             // (legacy shortcut) which is always valid
                             boolean validTarget = TextUtils.isEmpty(targetPkg) ||
-                                    mLauncherApps.isPackageEnabled(targetPkg, c.user);
+                                    countBinderCall(
+                                            mLauncherApps.isPackageEnabled(targetPkg, c.user));
 
                             // If it's a deep shortcut, we'll use pinned shortcuts to restore it
                             if (cn != null && validTarget && c.itemType
@@ -488,12 +551,13 @@ public class LoaderTask implements Runnable {
                                 // component.
 
                                 // If the component is already present
-                                if (mLauncherApps.isActivityEnabled(cn, c.user)) {
+                                if (countBinderCall(mLauncherApps.isActivityEnabled(cn, c.user))) {
                                     // no special handling necessary for this item
                                     c.markRestored();
                                 } else {
                                     // Gracefully try to find a fallback activity.
                                     intent = pmHelper.getAppLaunchIntent(targetPkg, c.user);
+                                    mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
                                     if (intent != null) {
                                         c.restoreFlag = 0;
                                         c.updater().put(
@@ -530,7 +594,8 @@ public class LoaderTask implements Runnable {
                                         c.markDeleted("Unrestored app removed: " + targetPkg);
                                         continue;
                                     }
-                                } else if (pmHelper.isAppOnSdcard(targetPkg, c.user)) {
+                                } else if (countBinderCall(
+                                        pmHelper.isAppOnSdcard(targetPkg, c.user))) {
                                     // Package is present but not available.
                                     disabledState |= WorkspaceItemInfo.FLAG_DISABLED_NOT_AVAILABLE;
                                     // Add the icon on the workspace anyway.
@@ -588,8 +653,8 @@ public class LoaderTask implements Runnable {
                                     // use the last saved icon instead of the default.
                                     mIconCache.getShortcutIcon(info, pinnedShortcut, c::loadIcon);
 
-                                    if (pmHelper.isAppSuspended(
-                                            pinnedShortcut.getPackage(), info.user)) {
+                                    if (countBinderCall(pmHelper.isAppSuspended(
+                                            pinnedShortcut.getPackage(), info.user))) {
                                         info.runtimeStatusFlags |= FLAG_DISABLED_SUSPENDED;
                                     }
                                     intent = info.getIntent();
@@ -604,7 +669,8 @@ public class LoaderTask implements Runnable {
 
                                 // Shortcuts are only available on the primary profile
                                 if (!TextUtils.isEmpty(targetPkg)
-                                        && pmHelper.isAppSuspended(targetPkg, c.user)) {
+                                        && countBinderCall(
+                                                pmHelper.isAppSuspended(targetPkg, c.user))) {
                                     disabledState |= FLAG_DISABLED_SUSPENDED;
                                 }
                                 info.options = c.getInt(optionsIndex);
@@ -976,7 +1042,7 @@ public class LoaderTask implements Runnable {
         List<IconRequestInfo<AppInfo>> iconRequestInfos = new ArrayList<>();
         for (UserHandle user : profiles) {
             // Query for the set of apps
-            final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            final List<LauncherActivityInfo> apps = mPrefetcher.getActivityList(user);
             // Fail if we don't have any apps
             // TODO: Fix this. Only fail for the current user.
             if (apps == null || apps.isEmpty()) {
@@ -1046,8 +1112,7 @@ public class LoaderTask implements Runnable {
         if (mBgAllAppsList.hasShortcutHostPermission()) {
             for (UserHandle user : mUserCache.getUserProfiles()) {
                 if (mUserManager.isUserUnlocked(user)) {
-                    List<ShortcutInfo> shortcuts = new ShortcutRequest(mApp.getContext(), user)
-                            .query(ShortcutRequest.ALL);
+                    List<ShortcutInfo> shortcuts = mPrefetcher.getDeepShortcuts(user);
                     allShortcuts.addAll(shortcuts);
                     mBgDataModel.updateDeepShortcutCounts(null, user, shortcuts);
                 }
@@ -1124,8 +1189,17 @@ public class LoaderTask implements Runnable {
         FileLog.d(TAG, widgetDimension.toString());
     }
 
-    private static void logASplit(final TimingLogger logger, final String label) {
+    /**
+     * Records a binder call made by the loader, returning its {@param result}
+     */
+    private boolean countBinderCall(boolean result) {
+        mTimings.count(LoaderTimings.COUNT_BINDER_CALLS);
+        return result;
+    }
+
+    private void logASplit(final TimingLogger logger, final String label) {
         logger.addSplit(label);
+        mTimings.split(label);
         if (DEBUG) {
             Log.d(TAG, label);
         }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Records the wall and CPU time of the phases of a {@link LoaderTask} run. Phases run on the
+ * loader thread are recorded as consecutive splits, while phases run on other threads, like the
+ * prefetches of {@link LoaderPrefetcher}, are recorded independently.
+ *
+ * CPU time is the time spent by the thread running the phase, so the difference with the wall
+ * time is mostly spent waiting on binder calls, disk or other threads.
+ *
+ * It also holds the counters of the run, like the number of items loaded, see
+ * {@link #count(String, long)}.
+ */
+public class LoaderTimings {
+
+    // Number of rows read from the favorites DB
+    public static final String COUNT_DB_ROWS = "db_rows";
+    // Number of items loaded on the workspace, hotseat and in folders
+    public static final String COUNT_WORKSPACE_ITEMS = "workspace_items";
+    public static final String COUNT_APPS = "apps";
+    public static final String COUNT_DEEP_SHORTCUTS = "deep_shortcuts";
+    public static final String COUNT_WIDGETS = "widgets";
+    // Number of binder calls made to the system services and the launcher provider
+    public static final String COUNT_BINDER_CALLS = "binder_calls";
+    // Lookups of the icon cache during the run, from any thread
+    public static final String COUNT_ICON_CACHE_HITS = "icon_cache_hits";
+    public static final String COUNT_ICON_CACHE_MISSES = "icon_cache_misses";
+
+    private final ArrayList<Phase> mPhases = new ArrayList<>();
+    private final ArrayMap<String, Long> mCounts = new ArrayMap<>();
+
+    private long mSplitWallMs;
+    private long mSplitCpuMs;
+
+    /**
+     * Starts measuring the first split on the calling thread
+     */
+    void start() {
+        mSplitWallMs = SystemClock.elapsedRealtime();
+        mSplitCpuMs = SystemClock.currentThreadTimeMillis();
+    }
+
+    /**
+     * Records the time since the previous split on the calling thread as {@param name}
+     */
+    void split(String name) {
+        long wallMs = SystemClock.elapsedRealtime();
+        long cpuMs = SystemClock.currentThreadTimeMillis();
+        addPhase(name, wallMs - mSplitWallMs, cpuMs - mSplitCpuMs, false /* concurrent */);
+        mSplitWallMs = wallMs;
+        mSplitCpuMs = cpuMs;
+    }
+
+    /**
+     * Runs {@param phase} on the calling thread and records its time as {@param name}. This can
+     * be called from any thread.
+     */
+    <T> T measure(String name, ThrowingSupplier<T> phase) throws Exception {
+        long wallMs = SystemClock.elapsedRealtime();
+        long cpuMs = SystemClock.currentThreadTimeMillis();
+        try {
+            return phase.get();
+        } finally {
+            addPhase(name, SystemClock.elapsedRealtime() - wallMs,
+                    SystemClock.currentThreadTimeMillis() - cpuMs, true /* concurrent */);
+        }
+    }
+
+    private synchronized void addPhase(String name, long wallMs, long cpuMs,
+            boolean concurrent) {
+        mPhases.add(new Phase(name, wallMs, cpuMs, concurrent));
+    }
+
+    /**
+     * Adds one to the counter {@param name}. This can be called from any thread.
+     */
+    void count(String name) {
+        count(name, 1);
+    }
+
+    /**
+     * Adds {@param delta} to the counter {@param name}. This can be called from any thread.
+     */
+    synchronized void count(String name, long delta) {
+        Long value = mCounts.get(name);
+        mCounts.put(name, value == null ? delta : value + delta);
+    }
+
+    /**
+     * Returns a copy of the phases recorded so far, in the order they completed
+     */
+    public synchronized ArrayList<Phase> getPhases() {
+        return new ArrayList<>(mPhases);
+    }
+
+    /**
+     * Returns a copy of the counters recorded so far
+     */
+    public synchronized Map<String, Long> getCounts() {
+        return new ArrayMap<>(mCounts);
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Loader phases (wall ms / cpu ms):");
+        for (Phase phase : mPhases) {
+            writer.println(prefix + "  " + (phase.concurrent ? "* " : "") + phase.name + ": "
+                    + phase.wallMs + " / " + phase.cpuMs);
+        }
+        writer.println(prefix + "Loader counts: " + mCounts);
+    }
+
+    /**
+     * The time taken by a loader phase
+     */
+    public static class Phase {
+
+        public final String name;
+        public final long wallMs;
+        public final long cpuMs;
+        // True if the phase did not run on the loader thread
+        public final boolean concurrent;
+
+        Phase(String name, long wallMs, long cpuMs, boolean concurrent) {
+            this.name = name;
+            this.wallMs = wallMs;
+            this.cpuMs = cpuMs;
+            this.concurrent = concurrent;
+        }
+    }
+
+    interface ThrowingSupplier<T> {
+        T get() throws Exception;
+    }
+}
@@ -44,6 +44,7 @@ import com.android.launcher3.model.data.LauncherAppWidgetInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.Executors;
+import com.android.launcher3.util.IntSparseArrayMap;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LooperExecutor;
 import com.android.launcher3.widget.LauncherAppWidgetHost;
@@ -82,6 +83,12 @@ public class ModelWriter {
     private final List<Runnable> mDeleteRunnables = new ArrayList<>();
     private boolean mPreparingToUndo;
 
+    private final Object mUpdateLock = new Object();
+    // Batch of item updates already posted to the model thread, which new updates are added to
+    // until it runs or until another write is posted after it
+    @Nullable
+    private UpdateBatch mOpenBatch;
+
     public ModelWriter(Context context, LauncherModel model, BgDataModel dataModel,
             boolean hasVerticalHotseat, boolean verifyChanges,
             @Nullable Callbacks owner) {
@@ -169,13 +176,13 @@ public class ModelWriter {
         updateItemInfoProps(item, container, screenId, cellX, cellY);
         notifyItemModified(item);
 
-        enqueueDeleteRunnable(new UpdateItemRunnable(item, () ->
+        enqueueUpdate(new PendingUpdate(item, () ->
                 new ContentWriter(mContext)
                         .put(Favorites.CONTAINER, item.container)
                         .put(Favorites.CELLX, item.cellX)
                         .put(Favorites.CELLY, item.cellY)
                         .put(Favorites.RANK, item.rank)
-                        .put(Favorites.SCREEN, item.screenId)));
+                        .put(Favorites.SCREEN, item.screenId)), true /* canUndo */);
     }
 
     /**
@@ -183,7 +190,6 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, int container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
         int count = items.size();
         notifyOtherCallbacks(c -> c.bindItemsModified(items));
 
@@ -198,9 +204,9 @@ public class ModelWriter {
             values.put(Favorites.RANK, item.rank);
             values.put(Favorites.SCREEN, item.screenId);
 
-            contentValues.add(values);
+            enqueueUpdate(new PendingUpdate(item, () -> new ContentWriter(values, mContext)),
+                    true /* canUndo */);
         }
-        enqueueDeleteRunnable(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -213,7 +219,7 @@ public class ModelWriter {
         item.spanY = spanY;
         notifyItemModified(item);
 
-        MODEL_EXECUTOR.execute(new UpdateItemRunnable(item, () ->
+        enqueueUpdate(new PendingUpdate(item, () ->
                 new ContentWriter(mContext)
                         .put(Favorites.CONTAINER, item.container)
                         .put(Favorites.CELLX, item.cellX)
@@ -221,7 +227,7 @@ public class ModelWriter {
                         .put(Favorites.RANK, item.rank)
                         .put(Favorites.SPANX, item.spanX)
                         .put(Favorites.SPANY, item.spanY)
-                        .put(Favorites.SCREEN, item.screenId)));
+                        .put(Favorites.SCREEN, item.screenId)), false /* canUndo */);
     }
 
     /**
@@ -229,11 +235,18 @@ public class ModelWriter {
      */
     public void updateItemInDatabase(ItemInfo item) {
         notifyItemModified(item);
-        MODEL_EXECUTOR.execute(new UpdateItemRunnable(item, () -> {
+        enqueueUpdate(new PendingUpdate(item, () -> {
             ContentWriter writer = new ContentWriter(mContext);
             item.onAddToDatabase(writer);
             return writer;
-        }));
+        }), false /* canUndo */);
+    }
+
+    private static void invalidatePreviewModels() {
+        PreviewModelCache previewModelCache = PreviewModelCache.INSTANCE.getNoCreate();
+        if (previewModelCache != null) {
+            previewModelCache.invalidate();
+        }
     }
 
     private void notifyItemModified(ItemInfo item) {
@@ -254,7 +267,7 @@ public class ModelWriter {
 
         ModelVerifier verifier = new ModelVerifier();
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        MODEL_EXECUTOR.execute(() -> {
+        executeWrite(() -> {
             // Write the item on background thread, as some properties might have been updated in
             // the background.
             final ContentWriter writer = new ContentWriter(mContext);
@@ -262,6 +275,7 @@ public class ModelWriter {
             writer.put(Favorites._ID, item.id);
 
             cr.insert(Favorites.getContentUri(), writer.getValues(mContext));
+            invalidatePreviewModels();
 
             synchronized (mBgDataModel) {
                 checkItemInfoLocked(item.id, item, stackTrace);
@@ -303,6 +317,7 @@ public class ModelWriter {
             for (ItemInfo item : items) {
                 final Uri uri = Favorites.getContentUri(item.id);
                 mContext.getContentResolver().delete(uri, null, null);
+                invalidatePreviewModels();
 
                 mBgDataModel.removeItem(mContext, item);
                 verifier.verifyModel();
@@ -325,6 +340,7 @@ public class ModelWriter {
             info.contents.clear();
 
             cr.delete(LauncherSettings.Favorites.getContentUri(info.id), null, null);
+            invalidatePreviewModels();
             mBgDataModel.removeItem(mContext, info);
             verifier.verifyModel();
         });
@@ -373,14 +389,14 @@ public class ModelWriter {
         if (mPreparingToUndo) {
             mDeleteRunnables.add(r);
         } else {
-            MODEL_EXECUTOR.execute(r);
+            executeWrite(r);
         }
     }
 
     public void commitDelete() {
         mPreparingToUndo = false;
         for (Runnable runnable : mDeleteRunnables) {
-            MODEL_EXECUTOR.execute(runnable);
+            executeWrite(runnable);
         }
         mDeleteRunnables.clear();
     }
@@ -410,105 +426,157 @@ public class ModelWriter {
         });
     }
 
-    private class UpdateItemRunnable extends UpdateItemBaseRunnable {
-        private final ItemInfo mItem;
-        private final Supplier<ContentWriter> mWriter;
+    /**
+     * Adds {@param update} to the open batch of updates, or posts a new batch. If an Undo option
+     * is present and {@param canUndo} is true, the update is only run when the delete operations
+     * are committed.
+     */
+    private void enqueueUpdate(PendingUpdate update, boolean canUndo) {
+        if (canUndo && mPreparingToUndo) {
+            // Run the update on its own to keep its order with the delete operations
+            mDeleteRunnables.add(() -> {
+                UpdateBatch batch = new UpdateBatch();
+                batch.add(update);
+                batch.apply();
+            });
+            return;
+        }
+        synchronized (mUpdateLock) {
+            if (mOpenBatch == null) {
+                mOpenBatch = new UpdateBatch();
+                MODEL_EXECUTOR.execute(mOpenBatch);
+            }
+            mOpenBatch.add(update);
+        }
+    }
+
+    /**
+     * Posts a write other than an item update to the model thread. The open batch of updates is
+     * closed, so that the updates enqueued after this write are also applied after it.
+     */
+    private void executeWrite(Runnable r) {
+        synchronized (mUpdateLock) {
+            mOpenBatch = null;
+            MODEL_EXECUTOR.execute(r);
+        }
+    }
+
+    /**
+     * An update of the DB row of an item, whose values are read from the item on the model thread
+     */
+    private class PendingUpdate {
         private final int mItemId;
+        private final ArrayList<Supplier<ContentWriter>> mWriters = new ArrayList<>(1);
+        private final ModelVerifier mVerifier = new ModelVerifier();
+        private ItemInfo mItem;
+        private StackTraceElement[] mStackTrace;
 
-        UpdateItemRunnable(ItemInfo item, Supplier<ContentWriter> writer) {
+        PendingUpdate(ItemInfo item, Supplier<ContentWriter> writer) {
             mItem = item;
-            mWriter = writer;
             mItemId = item.id;
-        }
-
-        @Override
-        public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.get().getValues(mContext),
-                    null, null);
-            updateItemArrays(mItem, mItemId);
+            mWriters.add(writer);
+            mStackTrace = new Throwable().getStackTrace();
         }
     }
 
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
-
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
+    /**
+     * A write-behind batch of item updates. Updates of the same item are merged, and all the
+     * updates are applied in a single transaction, with a single change notification.
+     */
+    private class UpdateBatch implements Runnable {
+        private final IntSparseArrayMap<PendingUpdate> mUpdates = new IntSparseArrayMap<>();
+        // Verifier of the first update, which was created before the others
+        private ModelVerifier mVerifier;
+
+        void add(PendingUpdate update) {
+            if (mVerifier == null) {
+                mVerifier = update.mVerifier;
+            }
+            PendingUpdate existing = mUpdates.get(update.mItemId);
+            if (existing == null) {
+                mUpdates.put(update.mItemId, update);
+            } else {
+                // Later values override the previous ones
+                existing.mWriters.addAll(update.mWriters);
+                existing.mItem = update.mItem;
+                existing.mStackTrace = update.mStackTrace;
+            }
         }
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
-            for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final int itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
+            synchronized (mUpdateLock) {
+                if (mOpenBatch == this) {
+                    mOpenBatch = null;
+                }
+            }
+            apply();
+        }
+
+        void apply() {
+            ArrayList<ContentProviderOperation> ops = new ArrayList<>(mUpdates.size());
+            for (PendingUpdate update : mUpdates) {
+                ContentValues values = new ContentValues();
+                for (Supplier<ContentWriter> writer : update.mWriters) {
+                    values.putAll(writer.get().getValues(mContext));
+                }
+                ops.add(ContentProviderOperation.newUpdate(Favorites.getContentUri(update.mItemId))
+                        .withValues(values).build());
             }
             try {
                 mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }
-    }
+            invalidatePreviewModels();
 
-    private abstract class UpdateItemBaseRunnable implements Runnable {
-        private final StackTraceElement[] mStackTrace;
-        private final ModelVerifier mVerifier = new ModelVerifier();
-
-        UpdateItemBaseRunnable() {
-            mStackTrace = new Throwable().getStackTrace();
-        }
-
-        protected void updateItemArrays(ItemInfo item, int itemId) {
             // Lock on mBgLock *after* the db operation
             synchronized (mBgDataModel) {
-                checkItemInfoLocked(itemId, item, mStackTrace);
-
-                if (item.container != Favorites.CONTAINER_DESKTOP &&
-                        item.container != Favorites.CONTAINER_HOTSEAT) {
-                    // Item is in a folder, make sure this folder exists
-                    if (!mBgDataModel.folders.containsKey(item.container)) {
-                        // An items container is being set to a that of an item which is not in
-                        // the list of Folders.
-                        String msg = "item: " + item + " container being set to: " +
-                                item.container + ", not in the list of folders";
-                        Log.e(TAG, msg);
-                    }
+                for (PendingUpdate update : mUpdates) {
+                    updateItemArraysLocked(update.mItem, update.mItemId, update.mStackTrace);
                 }
+                mVerifier.verifyModel();
+            }
+        }
+    }
 
-                // Items are added/removed from the corresponding FolderInfo elsewhere, such
-                // as in Workspace.onDrop. Here, we just add/remove them from the list of items
-                // that are on the desktop, as appropriate
-                ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
-                if (modelItem != null &&
-                        (modelItem.container == Favorites.CONTAINER_DESKTOP ||
-                                modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
-                    switch (modelItem.itemType) {
-                        case Favorites.ITEM_TYPE_APPLICATION:
-                        case Favorites.ITEM_TYPE_SHORTCUT:
-                        case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
-                        case Favorites.ITEM_TYPE_FOLDER:
-                            if (!mBgDataModel.workspaceItems.contains(modelItem)) {
-                                mBgDataModel.workspaceItems.add(modelItem);
-                            }
-                            break;
-                        default:
-                            break;
+    private void updateItemArraysLocked(ItemInfo item, int itemId,
+            StackTraceElement[] stackTrace) {
+        checkItemInfoLocked(itemId, item, stackTrace);
+
+        if (item.container != Favorites.CONTAINER_DESKTOP &&
+                item.container != Favorites.CONTAINER_HOTSEAT) {
+            // Item is in a folder, make sure this folder exists
+            if (!mBgDataModel.folders.containsKey(item.container)) {
+                // An items container is being set to a that of an item which is not in
+                // the list of Folders.
+                String msg = "item: " + item + " container being set to: " +
+                        item.container + ", not in the list of folders";
+                Log.e(TAG, msg);
+            }
+        }
+
+        // Items are added/removed from the corresponding FolderInfo elsewhere, such
+        // as in Workspace.onDrop. Here, we just add/remove them from the list of items
+        // that are on the desktop, as appropriate
+        ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
+        if (modelItem != null &&
+                (modelItem.container == Favorites.CONTAINER_DESKTOP ||
+                        modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
+            switch (modelItem.itemType) {
+                case Favorites.ITEM_TYPE_APPLICATION:
+                case Favorites.ITEM_TYPE_SHORTCUT:
+                case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
+                case Favorites.ITEM_TYPE_FOLDER:
+                    if (!mBgDataModel.workspaceItems.contains(modelItem)) {
+                        mBgDataModel.workspaceItems.add(modelItem);
                     }
-                } else {
-                    mBgDataModel.workspaceItems.remove(modelItem);
-                }
-                mVerifier.verifyModel();
+                    break;
+                default:
+                    break;
             }
+        } else {
+            mBgDataModel.workspaceItems.remove(modelItem);
         }
     }
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.MainThreadInitializedObject;
+import com.android.launcher3.util.SafeCloseable;
+
+import java.util.Map;
+
+/**
+ * Cache of the models loaded to preview the workspace in a grid other than the current one, so
+ * that browsing the grid options does not migrate and load the workspace DB for each preview.
+ *
+ * The models are keyed by the source and destination grids of the preview migration. They are
+ * dropped whenever the workspace changes, see {@link #invalidate()}, and released when the
+ * previews are closed or the memory is low, see {@link #evictAll()}. A cached model is shared by
+ * all the previews of its grid and must not be modified.
+ */
+public class PreviewModelCache implements ComponentCallbacks2, SafeCloseable {
+
+    public static final MainThreadInitializedObject<PreviewModelCache> INSTANCE =
+            new MainThreadInitializedObject<>(PreviewModelCache::new);
+
+    // Number of grids kept in memory, which covers all the grid options of a device
+    private static final int MAX_SIZE = 4;
+
+    private final LruCache<String, Entry> mEntries = new LruCache<>(MAX_SIZE);
+
+    // Incremented on every invalidation, so that models loaded before it are not added
+    private int mGeneration;
+
+    private final Context mContext;
+
+    @VisibleForTesting
+    PreviewModelCache(Context context) {
+        mContext = context;
+        mContext.registerComponentCallbacks(this);
+    }
+
+    @Override
+    public void close() {
+        mContext.unregisterComponentCallbacks(this);
+        evictAll();
+    }
+
+    /**
+     * Returns the key of the preview model of {@param idp}, migrated from the current grid
+     */
+    @NonNull
+    public static String getKey(Context context, InvariantDeviceProfile idp, boolean twoPanels) {
+        return new DeviceGridState(context) + " -> " + new DeviceGridState(idp)
+                + (twoPanels ? ", twoPanels" : "");
+    }
+
+    /**
+     * Returns the current generation of the cache, to be passed to
+     * {@link #put(String, int, BgDataModel, Map)} with a model loaded after this call.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached model for {@param key}, or null if it is not loaded
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Adds a loaded model to the cache, unless the workspace changed since {@param generation}
+     */
+    public synchronized void put(@NonNull String key, int generation,
+            @NonNull BgDataModel dataModel,
+            @NonNull Map<ComponentKey, AppWidgetProviderInfo> widgetProviderInfoMap) {
+        if (generation == mGeneration) {
+            mEntries.put(key, new Entry(dataModel, widgetProviderInfoMap));
+        }
+    }
+
+    /**
+     * Removes all the cached models. Called when the workspace DB is modified.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    /**
+     * Removes all the cached models to release their memory. Unlike {@link #invalidate()}, the
+     * models being loaded are still added.
+     */
+    public synchronized void evictAll() {
+        mEntries.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // The previews are shown while the launcher UI is hidden, so only release the models
+        // when the process is in the background or the memory is low
+        if (level >= TRIM_MEMORY_BACKGROUND
+                || (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN)) {
+            evictAll();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) { }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    /**
+     * A model loaded for preview
+     */
+    public static final class Entry {
+
+        public final BgDataModel dataModel;
+        public final Map<ComponentKey, AppWidgetProviderInfo> widgetProviderInfoMap;
+
+        private Entry(BgDataModel dataModel,
+                Map<ComponentKey, AppWidgetProviderInfo> widgetProviderInfoMap) {
+            this.dataModel = dataModel;
+            this.widgetProviderInfoMap = widgetProviderInfoMap;
+        }
+    }
+}
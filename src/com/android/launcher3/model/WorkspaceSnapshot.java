@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_DESKTOP;
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_FOLDER;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.LauncherSettings;
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.pm.UserCache;
+import com.android.launcher3.util.IntArray;
+import com.android.launcher3.util.IntSet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+
+/**
+ * A persisted copy of the items on the hotseat and the first workspace screens, written after a
+ * successful load so that the next process start can bind them before the full workspace is
+ * loaded from the favorites DB.
+ *
+ * The snapshot only holds what is needed to draw these items: positions, titles, intents and the
+ * color of their icon, used as a low-res placeholder until the real icon is loaded. Widgets are
+ * not included. The snapshot is only used if the favorites DB has not been modified since it was
+ * written, which is checked using the number of rows and the last modified time of the DB.
+ */
+public class WorkspaceSnapshot {
+
+    private static final String TAG = "WorkspaceSnapshot";
+
+    private static final String FILE_NAME = "workspace_snapshot";
+    private static final int FORMAT_VERSION = 1;
+
+    // Number of workspace screens saved, enough for the pages bound first in two panel mode
+    private static final int MAX_SCREENS = 2;
+
+    private final IntArray mScreenIds;
+    private final IntSet mSavedScreens;
+    private final ArrayList<ItemInfo> mItems;
+
+    private WorkspaceSnapshot(IntArray screenIds, IntSet savedScreens, ArrayList<ItemInfo> items) {
+        mScreenIds = screenIds;
+        mSavedScreens = savedScreens;
+        mItems = items;
+    }
+
+    /**
+     * Returns the ordered ids of all the workspace screens when the snapshot was written
+     */
+    public IntArray getScreenIds() {
+        return mScreenIds;
+    }
+
+    /**
+     * Returns the hotseat items and the items on {@param pages}, or null if any of these pages
+     * was not saved in the snapshot
+     */
+    @Nullable
+    public ArrayList<ItemInfo> getItemsForPages(IntSet pages) {
+        for (int page : pages) {
+            if (!mSavedScreens.contains(page)) {
+                return null;
+            }
+        }
+        ArrayList<ItemInfo> result = new ArrayList<>();
+        for (ItemInfo item : mItems) {
+            if (item.container == CONTAINER_HOTSEAT || pages.contains(item.screenId)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the snapshot, returning null if there is none or if it does not match the current
+     * favorites DB
+     */
+    @Nullable
+    @WorkerThread
+    public static WorkspaceSnapshot read(Context context, InvariantDeviceProfile idp) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        UserCache userCache = UserCache.INSTANCE.get(context);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION
+                    || !TextUtils.equals(in.readUTF(), idp.dbFile)
+                    || in.readInt() != idp.numColumns
+                    || in.readInt() != idp.numRows
+                    || in.readInt() != idp.numDatabaseHotseatIcons
+                    || !in.readUTF().equals(queryDbState(context))) {
+                return null;
+            }
+
+            IntArray screenIds = new IntArray();
+            for (int i = in.readInt(); i > 0; i--) {
+                screenIds.add(in.readInt());
+            }
+            IntSet savedScreens = new IntSet();
+            for (int i = in.readInt(); i > 0; i--) {
+                savedScreens.add(in.readInt());
+            }
+            ArrayList<ItemInfo> items = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                ItemInfo item = readItem(in, userCache);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return new WorkspaceSnapshot(screenIds, savedScreens, items);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading workspace snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of {@param dataModel}, which must be fully loaded from the favorites DB
+     */
+    @WorkerThread
+    public static void write(Context context, InvariantDeviceProfile idp, BgDataModel dataModel) {
+        String dbState = queryDbState(context);
+        if (dbState == null) {
+            return;
+        }
+        UserCache userCache = UserCache.INSTANCE.get(context);
+
+        IntArray screenIds;
+        IntSet savedScreens = new IntSet();
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        synchronized (dataModel) {
+            screenIds = dataModel.collectWorkspaceScreens();
+            for (int i = 0; i < screenIds.size() && i < MAX_SCREENS; i++) {
+                savedScreens.add(screenIds.get(i));
+            }
+            for (ItemInfo item : dataModel.workspaceItems) {
+                if ((item.container == CONTAINER_HOTSEAT
+                        || (item.container == CONTAINER_DESKTOP
+                                && savedScreens.contains(item.screenId)))
+                        && isSupported(item)) {
+                    items.add(item);
+                }
+            }
+        }
+
+        AtomicFile file = new AtomicFile(getFile(context));
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(idp.dbFile);
+            out.writeInt(idp.numColumns);
+            out.writeInt(idp.numRows);
+            out.writeInt(idp.numDatabaseHotseatIcons);
+            out.writeUTF(dbState);
+
+            out.writeInt(screenIds.size());
+            for (int i = 0; i < screenIds.size(); i++) {
+                out.writeInt(screenIds.get(i));
+            }
+            IntArray saved = savedScreens.getArray();
+            out.writeInt(saved.size());
+            for (int i = 0; i < saved.size(); i++) {
+                out.writeInt(saved.get(i));
+            }
+            out.writeInt(items.size());
+            for (ItemInfo item : items) {
+                writeItem(out, item, userCache);
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error writing workspace snapshot", e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Deletes the snapshot, so that it is not bound on the next load
+     */
+    @WorkerThread
+    public static void delete(Context context) {
+        getFile(context).delete();
+    }
+
+    private static File getFile(Context context) {
+        // The cache dir is not backed up, so a snapshot is never restored on a different device
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Returns a string identifying the current content of the favorites DB
+     */
+    @Nullable
+    private static String queryDbState(Context context) {
+        try (Cursor c = context.getContentResolver().query(
+                LauncherSettings.Favorites.CONTENT_URI,
+                new String[] {"COUNT(*)", "MAX(" + LauncherSettings.Favorites.MODIFIED + ")"},
+                null, null, null)) {
+            if (c == null || !c.moveToNext()) {
+                return null;
+            }
+            Bundle extras = c.getExtras();
+            String dbName = extras == null
+                    ? null : extras.getString(LauncherSettings.Settings.EXTRA_DB_NAME);
+            return dbName + ":" + c.getInt(0) + ":" + c.getLong(1);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error querying favorites state", e);
+            return null;
+        }
+    }
+
+    private static boolean isSupported(ItemInfo item) {
+        if (item instanceof FolderInfo) {
+            return true;
+        }
+        return item instanceof WorkspaceItemInfo && ((WorkspaceItemInfo) item).intent != null
+                && (item.itemType == ITEM_TYPE_APPLICATION || item.itemType == ITEM_TYPE_SHORTCUT
+                        || item.itemType == ITEM_TYPE_DEEP_SHORTCUT);
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo item, UserCache userCache)
+            throws IOException {
+        out.writeInt(item.itemType);
+        out.writeInt(item.id);
+        out.writeInt(item.container);
+        out.writeInt(item.screenId);
+        out.writeInt(item.cellX);
+        out.writeInt(item.cellY);
+        out.writeInt(item.spanX);
+        out.writeInt(item.spanY);
+        out.writeInt(item.rank);
+        out.writeUTF(item.title == null ? "" : item.title.toString());
+        out.writeLong(userCache.getSerialNumberForUser(item.user));
+
+        if (item instanceof FolderInfo) {
+            FolderInfo folder = (FolderInfo) item;
+            out.writeInt(folder.options);
+            ArrayList<WorkspaceItemInfo> contents = new ArrayList<>();
+            for (WorkspaceItemInfo content : folder.contents) {
+                if (isSupported(content)) {
+                    contents.add(content);
+                }
+            }
+            out.writeInt(contents.size());
+            for (WorkspaceItemInfo content : contents) {
+                writeItem(out, content, userCache);
+            }
+        } else {
+            WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+            out.writeUTF(info.intent.toUri(0));
+            out.writeInt(info.bitmap.color);
+            out.writeInt(info.runtimeStatusFlags);
+            out.writeInt(info.status);
+            out.writeInt(info.options);
+        }
+    }
+
+    @Nullable
+    private static ItemInfo readItem(DataInputStream in, UserCache userCache)
+            throws IOException {
+        int itemType = in.readInt();
+        ItemInfo item = itemType == ITEM_TYPE_FOLDER ? new FolderInfo() : new WorkspaceItemInfo();
+        item.itemType = itemType;
+        item.id = in.readInt();
+        item.container = in.readInt();
+        item.screenId = in.readInt();
+        item.cellX = in.readInt();
+        item.cellY = in.readInt();
+        item.spanX = in.readInt();
+        item.spanY = in.readInt();
+        item.rank = in.readInt();
+        item.title = in.readUTF();
+        UserHandle user = userCache.getUserForSerialNumber(in.readLong());
+
+        if (item instanceof FolderInfo) {
+            FolderInfo folder = (FolderInfo) item;
+            folder.options = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) {
+                ItemInfo content = readItem(in, userCache);
+                if (content instanceof WorkspaceItemInfo) {
+                    folder.contents.add((WorkspaceItemInfo) content);
+                }
+            }
+        } else {
+            WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+            String uri = in.readUTF();
+            info.bitmap = BitmapInfo.of(BitmapInfo.LOW_RES_ICON, in.readInt());
+            info.runtimeStatusFlags = in.readInt();
+            info.status = in.readInt();
+            info.options = in.readInt();
+            try {
+                info.intent = Intent.parseUri(uri, 0);
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+        if (user == null) {
+            // The profile was removed, skip its items
+            return null;
+        }
+        item.user = user;
+        item.contentDescription = item.title;
+        return item;
+    }
+}
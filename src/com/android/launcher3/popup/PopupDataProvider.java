@@ -33,6 +33,7 @@ import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.ShortcutUtil;
 import com.android.launcher3.widget.model.WidgetsListBaseEntry;
 import com.android.launcher3.widget.model.WidgetsListContentEntry;
+import com.android.launcher3.widget.picker.search.WidgetsSearchTable;
 
 import java.io.PrintWriter;
 import java.util.Arrays;
@@ -62,6 +63,10 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
 
     /** All installed widgets. */
     private List<WidgetsListBaseEntry> mAllWidgets = List.of();
+    /** Incremented every time {@link #mAllWidgets} is replaced. */
+    private int mAllWidgetsVersion = 0;
+    /** Search table over {@link #mAllWidgets}, rebuilt every time it is replaced. */
+    private WidgetsSearchTable mWidgetsSearchTable = WidgetsSearchTable.EMPTY;
     /** Widgets that can be recommended to the users. */
     private List<ItemInfo> mRecommendedWidgets = List.of();
 
@@ -202,6 +207,8 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
 
     public void setAllWidgets(List<WidgetsListBaseEntry> allWidgets) {
         mAllWidgets = allWidgets;
+        mAllWidgetsVersion++;
+        mWidgetsSearchTable = new WidgetsSearchTable(allWidgets);
         mChangeListener.onWidgetsBound();
     }
 
@@ -213,6 +220,16 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
         return mAllWidgets;
     }
 
+    /** Returns the search table over the list of all widgets. */
+    public WidgetsSearchTable getWidgetsSearchTable() {
+        return mWidgetsSearchTable;
+    }
+
+    /** Returns a number which changes every time the list of all widgets is replaced. */
+    public int getAllWidgetsVersion() {
+        return mAllWidgetsVersion;
+    }
+
     /** Returns a list of recommended widgets. */
     public List<WidgetItem> getRecommendedWidgets() {
         HashMap<ComponentKey, WidgetItem> allWidgetItems = new HashMap<>();
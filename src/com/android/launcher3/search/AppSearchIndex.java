@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.model.data.AppInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * An incrementally maintained n-gram index over app titles, used to avoid running
+ * {@link StringMatcherUtility#matches} against every installed app on each keystroke.
+ *
+ * Every app is posted under all the unigrams and bigrams of its normalized title. A title
+ * matching a query must contain every gram of the normalized query, so the smallest posting
+ * list among the query grams is a superset of the final result. Candidates are then verified
+ * with {@link StringMatcherUtility} so that matching semantics stay unchanged.
+ *
+ * This class is not thread safe and is expected to be accessed on the model thread only.
+ */
+public class AppSearchIndex {
+
+    private static final int MAX_GRAM_LENGTH = 2;
+
+    // Gram to the set of entries whose normalized title contains it
+    private final HashMap<String, HashSet<Entry>> mPostings = new HashMap<>();
+    private final HashMap<AppInfo, Entry> mEntries = new HashMap<>();
+
+    // Entries which can not be reliably indexed and are always considered as candidates
+    private final HashSet<Entry> mUnindexedEntries = new HashSet<>();
+
+    private int mNextOrder = 0;
+    private int mVersion = 0;
+
+    /**
+     * Adds or re-indexes the provided app based on its current title
+     */
+    public void add(@NonNull AppInfo info) {
+        Entry entry = mEntries.get(info);
+        String title = info.title == null ? "" : info.title.toString();
+        if (entry != null) {
+            if (title.equals(entry.title)) {
+                return;
+            }
+            unlink(entry);
+            entry = new Entry(info, title, entry.order);
+        } else {
+            entry = new Entry(info, title, mNextOrder++);
+        }
+        mEntries.put(info, entry);
+        mVersion++;
+
+        String normalized = StringMatcherUtility.normalizeForIndex(title);
+        if (normalized == null) {
+            mUnindexedEntries.add(entry);
+            return;
+        }
+        entry.grams = collectGrams(normalized);
+        for (String gram : entry.grams) {
+            HashSet<Entry> posting = mPostings.get(gram);
+            if (posting == null) {
+                posting = new HashSet<>();
+                mPostings.put(gram, posting);
+            }
+            posting.add(entry);
+        }
+    }
+
+    /**
+     * Removes the provided app from the index
+     */
+    public void remove(@NonNull AppInfo info) {
+        Entry entry = mEntries.remove(info);
+        if (entry != null) {
+            unlink(entry);
+            mVersion++;
+        }
+    }
+
+    /**
+     * Removes all the apps from the index
+     */
+    public void clear() {
+        mPostings.clear();
+        mEntries.clear();
+        mUnindexedEntries.clear();
+        mNextOrder = 0;
+        mVersion++;
+    }
+
+    /**
+     * Returns a number which changes every time the contents of the index change
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns the number of apps in the index
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the apps matching {@param query}, in the order they were added to the index, up to
+     * {@param maxResults}.
+     *
+     * @param query the lower case search query
+     */
+    public List<AppInfo> search(@NonNull String query, int maxResults) {
+        List<AppInfo> matches = searchAll(query, null);
+        return matches.size() > maxResults ? matches.subList(0, Math.max(maxResults, 0)) : matches;
+    }
+
+    /**
+     * Returns all the apps matching {@param query}, in the order they were added to the index.
+     *
+     * @param candidates if not null, only these apps are considered. This allows refining the
+     *                   results of a previous query which {@param query} extends.
+     */
+    public List<AppInfo> searchAll(@NonNull String query,
+            @Nullable Collection<AppInfo> candidates) {
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        ArrayList<Entry> matches = new ArrayList<>();
+        StringMatcherUtility.StringMatcher matcher =
+                StringMatcherUtility.StringMatcher.getInstance();
+        if (candidates != null) {
+            for (AppInfo info : candidates) {
+                Entry entry = mEntries.get(info);
+                if (entry != null && entry.matches(query, matcher)) {
+                    matches.add(entry);
+                }
+            }
+        } else {
+            for (Entry entry : getCandidateEntries(query)) {
+                if (entry.matches(query, matcher)) {
+                    matches.add(entry);
+                }
+            }
+        }
+        matches.sort((a, b) -> Integer.compare(a.order, b.order));
+
+        ArrayList<AppInfo> result = new ArrayList<>(matches.size());
+        for (Entry entry : matches) {
+            result.add(entry.info);
+        }
+        return result;
+    }
+
+    private Collection<Entry> getCandidateEntries(String query) {
+        String normalized = StringMatcherUtility.normalizeForIndex(query);
+        if (normalized == null) {
+            return mEntries.values();
+        }
+
+        HashSet<Entry> smallest = null;
+        for (String gram : collectGrams(normalized)) {
+            HashSet<Entry> posting = mPostings.get(gram);
+            if (posting == null) {
+                smallest = null;
+                break;
+            }
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+
+        if (smallest == null) {
+            return mUnindexedEntries;
+        }
+        if (mUnindexedEntries.isEmpty()) {
+            return smallest;
+        }
+        ArrayList<Entry> result = new ArrayList<>(smallest.size() + mUnindexedEntries.size());
+        result.addAll(smallest);
+        result.addAll(mUnindexedEntries);
+        return result;
+    }
+
+    private void unlink(Entry entry) {
+        mUnindexedEntries.remove(entry);
+        if (entry.grams == null) {
+            return;
+        }
+        for (String gram : entry.grams) {
+            HashSet<Entry> posting = mPostings.get(gram);
+            if (posting != null) {
+                posting.remove(entry);
+                if (posting.isEmpty()) {
+                    mPostings.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static HashSet<String> collectGrams(String normalized) {
+        HashSet<String> grams = new HashSet<>();
+        int length = normalized.length();
+        for (int i = 0; i < length; i++) {
+            for (int n = 1; n <= MAX_GRAM_LENGTH && i + n <= length; n++) {
+                grams.add(normalized.substring(i, i + n));
+            }
+        }
+        return grams;
+    }
+
+    private static class Entry {
+
+        final AppInfo info;
+        final String title;
+        final int order;
+
+        HashSet<String> grams;
+
+        Entry(AppInfo info, String title, int order) {
+            this.info = info;
+            this.title = title;
+            this.order = order;
+        }
+
+        boolean matches(String query, StringMatcherUtility.StringMatcher matcher) {
+            return info.title != null
+                    && StringMatcherUtility.matches(query, info.title.toString(), matcher);
+        }
+    }
+}
@@ -39,6 +39,13 @@ public interface SearchAlgorithm<T> {
      */
     void cancel(boolean interruptActiveRequests);
 
+    /**
+     * Ends the current search session. Until then, a query which extends the previous query may
+     * be served by only refining the previous results, the next search after this call starts
+     * from scratch.
+     */
+    default void endSession() {}
+
     /**
      * Cleans up after search is no longer needed.
      */
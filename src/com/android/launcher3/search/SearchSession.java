@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Keeps the candidates of the last search so that a query which extends the previous query
+ * only needs to filter those candidates instead of searching from scratch.
+ *
+ * This relies on matching being monotonic: anything matching a query also matches all its
+ * prefixes, which holds for {@link StringMatcherUtility#matches} as long as both queries use
+ * the same matching mode.
+ *
+ * @param <C> Candidate type
+ */
+public class SearchSession<C> {
+
+    private String mQuery;
+    private int mDataVersion;
+    private List<C> mCandidates;
+
+    /**
+     * Returns the candidates to refine for {@param query}, or null if a full search is required.
+     *
+     * @param dataVersion version of the data being searched, candidates computed for a different
+     *                    version are discarded.
+     */
+    @Nullable
+    public synchronized List<C> getCandidates(@NonNull String query, int dataVersion) {
+        if (mCandidates == null || mQuery == null || mDataVersion != dataVersion
+                || !query.startsWith(mQuery)
+                || StringMatcherUtility.requestSimpleFuzzySearch(query)
+                        != StringMatcherUtility.requestSimpleFuzzySearch(mQuery)) {
+            return null;
+        }
+        return mCandidates;
+    }
+
+    /**
+     * Records the complete, untruncated set of matches for {@param query}
+     */
+    public synchronized void update(@NonNull String query, int dataVersion,
+            @NonNull List<C> candidates) {
+        mQuery = query;
+        mDataVersion = dataVersion;
+        mCandidates = candidates;
+    }
+
+    /**
+     * Clears the session so that the next search starts from scratch
+     */
+    public synchronized void reset() {
+        mQuery = null;
+        mCandidates = null;
+    }
+}
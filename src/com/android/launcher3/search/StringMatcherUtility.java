@@ -16,7 +16,10 @@
 
 package com.android.launcher3.search;
 
+import androidx.annotation.Nullable;
+
 import java.text.Collator;
+import java.text.Normalizer;
 
 /**
  * Utilities for matching query string to target string.
@@ -58,6 +61,55 @@ public class StringMatcherUtility {
         return false;
     }
 
+    /**
+     * Folds case, width and accents of every char while keeping a one to one mapping with the
+     * original string, so that a substring of the original maps to a substring of the result.
+     * Only the chars which fold to a single ascii letter, digit or symbol are kept: the
+     * {@link java.text.Collator} may consider other chars equal to different strings, for
+     * example "ø" to "o" or "ß" to "ss", which can't be represented with such a mapping.
+     *
+     * If {@link #matches} is true for a query and a target which can both be normalized, the
+     * normalized target contains the normalized query, which makes it suitable for pre-filtering
+     * candidates. This doesn't hold for locales whose collation treats a sequence of letters as a
+     * single letter, such as "aa" in Danish.
+     *
+     * @return the normalized string or null if the string contains chars which can not be
+     *         folded, or which the {@link java.text.Collator} may ignore, in which case it can
+     *         not be indexed.
+     */
+    @Nullable
+    public static String normalizeForIndex(String text) {
+        int length = text.length();
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (Character.getType(c)) {
+                case Character.FORMAT:
+                case Character.CONTROL:
+                case Character.NON_SPACING_MARK:
+                case Character.ENCLOSING_MARK:
+                case Character.COMBINING_SPACING_MARK:
+                    return null;
+            }
+            if (c < 0x80) {
+                sb.append(Character.toLowerCase(c));
+                continue;
+            }
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+            char base = decomposed.charAt(0);
+            if (base >= 0x80 || Character.getType(base) == Character.CONTROL) {
+                return null;
+            }
+            for (int j = 1; j < decomposed.length(); j++) {
+                if (Character.getType(decomposed.charAt(j)) != Character.NON_SPACING_MARK) {
+                    return null;
+                }
+            }
+            sb.append(Character.toLowerCase(base));
+        }
+        return sb.toString();
+    }
+
     /**
      * Returns true if the current point should be a break point. Following cases
      * are considered as break points:
@@ -147,7 +199,7 @@ public class StringMatcherUtility {
     /**
      * Matching optimization to search in Chinese.
      */
-    private static boolean requestSimpleFuzzySearch(String s) {
+    static boolean requestSimpleFuzzySearch(String s) {
         for (int i = 0; i < s.length(); ) {
             int codepoint = s.codePointAt(i);
             i += Character.charCount(codepoint);
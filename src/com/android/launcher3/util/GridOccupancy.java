@@ -1,23 +1,37 @@
 package com.android.launcher3.util;
 
+import android.graphics.Point;
 import android.graphics.Rect;
 
 import com.android.launcher3.model.data.ItemInfo;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * The occupancy is stored as one bitmask per row, where bit x is set if the cell (x, row) is
+ * occupied, so that spans are tested one row at a time and copies are cheap. The grid can have
+ * at most 64 columns.
  */
 public class GridOccupancy extends AbsGridOccupancy {
 
+    public static final int MAX_COUNT_X = Long.SIZE;
+
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    private final long[] mRows;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Grid too wide: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[Math.max(countY, 0)];
     }
 
     /**
@@ -30,15 +44,56 @@ public class GridOccupancy extends AbsGridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
-        return super.findVacantCell(vacantOut, cells, mCountX, mCountY, spanX, spanY);
+        return super.findVacantCell(vacantOut, mCountY, spanX, spanY);
     }
 
-    public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
+    /**
+     * Returns the top-left cells of all the vacant regions of the provided span, ordered by row
+     * and then by column. The regions can overlap each other.
+     */
+    public List<Point> findAllVacantCells(int spanX, int spanY) {
+        List<Point> result = new ArrayList<>();
+        for (int y = 0; y + spanY <= mCountY; y++) {
+            long vacant = getVacantCellsInRow(y, spanX, spanY);
+            while (vacant != 0) {
+                result.add(new Point(Long.numberOfTrailingZeros(vacant), y));
+                vacant &= vacant - 1;
             }
         }
+        return result;
+    }
+
+    /**
+     * Returns a bitmask of the cells in row {@param y} at which a vacant region of the provided
+     * span starts: bit x is set if the region (x, y, spanX, spanY) is vacant and in the grid.
+     */
+    @Override
+    public long getVacantCellsInRow(int y, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0 || spanX > mCountX || y < 0 || y + spanY > mCountY) {
+            return 0;
+        }
+        long occupied = 0;
+        for (int j = y; j < y + spanY; j++) {
+            occupied |= mRows[j];
+        }
+        // Only keep the cells followed by spanX - 1 vacant cells, doubling the tested width
+        // at each step
+        long vacant = ~occupied & getMask(mCountX);
+        int width = 1;
+        while (width < spanX) {
+            int shift = Math.min(width, spanX - width);
+            vacant &= vacant >>> shift;
+            width += shift;
+        }
+        return vacant & getMask(mCountX - spanX + 1);
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return x >= 0 && y >= 0 && x < mCountX && y < mCountY && (mRows[y] & (1L << x)) != 0;
+    }
+
+    public void copyTo(GridOccupancy dest) {
+        System.arraycopy(mRows, 0, dest.mRows, 0, mCountY);
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -47,21 +102,39 @@ public class GridOccupancy extends AbsGridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = getMask(spanX) << x;
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if {@param block} fits in this grid at (x, y): each occupied cell of the block
+     * is vacant in this grid, but the vacant cells of the block can overlap occupied cells.
+     */
+    public boolean isRegionVacant(int x, int y, GridOccupancy block) {
+        if (x < 0 || y < 0 || x + block.mCountX > mCountX || y + block.mCountY > mCountY) {
+            return false;
+        }
+        for (int j = 0; j < block.mCountY; j++) {
+            if ((mRows[y + j] & (block.mRows[j] << x)) != 0) {
+                return false;
             }
         }
         return true;
     }
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
-        if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        if (cellX < 0 || cellY < 0 || cellX >= mCountX || spanX <= 0) return;
+        long mask = getMask(Math.min(spanX, mCountX - cellX)) << cellX;
+        for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -79,6 +152,28 @@ public class GridOccupancy extends AbsGridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GridOccupancy)) {
+            return false;
+        }
+        GridOccupancy other = (GridOccupancy) o;
+        return mCountX == other.mCountX && mCountY == other.mCountY
+                && Arrays.equals(mRows, other.mRows);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mCountX + Arrays.hashCode(mRows);
+    }
+
+    /**
+     * Returns a mask of the {@param count} lowest bits
+     */
+    private static long getMask(int count) {
+        return count >= Long.SIZE ? -1L : (1L << count) - 1;
     }
 }
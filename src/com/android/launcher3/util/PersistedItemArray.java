@@ -33,22 +33,41 @@ import com.android.launcher3.pm.UserCache;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.LongFunction;
+import java.util.zip.CRC32;
 
 /**
  * Utility class to read/write a list of {@link com.android.launcher3.model.data.ItemInfo} on disk.
  * This class is not thread safe, the caller should ensure proper threading
+ *
+ * The items are stored in a binary file made of a header, with a magic number and the schema
+ * version, followed by length-prefixed records protected by a CRC. Each record adds an item at
+ * the end of the list or removes an item from it, so that most changes to the list are appended
+ * to the file instead of rewriting it, see {@link #write(Context, List)}. The file is rewritten
+ * when the list is reordered, or to compact it once it holds too many records.
+ *
+ * Items saved by older versions in an XML file are migrated when they are first read.
  */
 public class PersistedItemArray<T extends ItemInfo> {
 
@@ -57,55 +76,176 @@ public class PersistedItemArray<T extends ItemInfo> {
     private static final String TAG_ROOT = "items";
     private static final String TAG_ENTRY = "entry";
 
+    private static final int MAGIC = 0x4c504941; // LPIA
+    private static final int SCHEMA_VERSION = 1;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    // Records hold a single intent URI, written with DataOutput#writeUTF
+    private static final int MAX_RECORD_LENGTH = 1 << 17;
+    // Minimum number of records before the file is compacted
+    private static final int MIN_COMPACTION_RECORDS = 32;
+
     private final String mFileName;
+    private final String mLegacyFileName;
+
+    // Entries stored in the file and number of records it holds, or null if they are not known
+    @Nullable
+    private ArrayList<Entry> mFileEntries;
+    private int mFileRecordCount;
 
     public PersistedItemArray(String fileName) {
-        mFileName = fileName + ".xml";
+        mFileName = fileName + ".bin";
+        mLegacyFileName = fileName + ".xml";
     }
 
     /**
-     * Writes the provided list of items on the disk
+     * Writes the provided list of items on the disk. If the list only differs from the one on
+     * disk by removed items and items added at its end, the changes are appended to the file.
      */
     @WorkerThread
     public void write(Context context, List<T> items) {
+        UserCache userCache = UserCache.INSTANCE.get(context);
+        ArrayList<Entry> entries = new ArrayList<>(items.size());
+        for (T item : items) {
+            Intent intent = item.getIntent();
+            if (intent != null) {
+                entries.add(new Entry(item.itemType,
+                        userCache.getSerialNumberForUser(item.user), intent.toUri(0)));
+            }
+        }
+
+        AtomicFile file = getFile(context);
+        ArrayList<Entry> removed = new ArrayList<>();
+        List<Entry> added = file.getBaseFile().exists()
+                ? getAppendedEntries(entries, removed) : null;
+        if (added == null || mFileRecordCount + removed.size() + added.size()
+                > Math.max(MIN_COMPACTION_RECORDS, 2 * entries.size())) {
+            rewrite(context, entries);
+            return;
+        }
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+
+        try (FileOutputStream fos = new FileOutputStream(file.getBaseFile(), true)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            for (Entry entry : removed) {
+                writeRecord(out, OP_REMOVE, entry);
+            }
+            for (Entry entry : added) {
+                writeRecord(out, OP_ADD, entry);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append items in " + mFileName, e);
+            // The file may end with a partial record, which is ignored when reading
+            mFileEntries = null;
+            return;
+        }
+        mFileEntries = entries;
+        mFileRecordCount += removed.size() + added.size();
+    }
+
+    /**
+     * Returns the entries added at the end of the list on disk to get {@param entries}, after
+     * removing the entries added to {@param removedOut}, or null if the file must be rewritten
+     */
+    @Nullable
+    private List<Entry> getAppendedEntries(List<Entry> entries, List<Entry> removedOut) {
+        if (mFileEntries == null) {
+            return null;
+        }
+        HashMap<Entry, Integer> remainingCounts = new HashMap<>();
+        for (Entry entry : entries) {
+            remainingCounts.merge(entry, 1, Integer::sum);
+        }
+        HashMap<Entry, Integer> fileCounts = new HashMap<>();
+        for (Entry entry : mFileEntries) {
+            fileCounts.merge(entry, 1, Integer::sum);
+        }
+        int keptCount = 0;
+        for (Entry entry : mFileEntries) {
+            Integer count = remainingCounts.get(entry);
+            if (count == null || count == 0) {
+                if (fileCounts.get(entry) > 1) {
+                    // A remove record drops the first occurrence of the entry when it is read,
+                    // which may not be this one
+                    return null;
+                }
+                removedOut.add(entry);
+                continue;
+            }
+            remainingCounts.put(entry, count - 1);
+            if (keptCount >= entries.size() || !entries.get(keptCount).equals(entry)) {
+                // The remaining entries were reordered
+                return null;
+            }
+            keptCount++;
+        }
+        return entries.subList(keptCount, entries.size());
+    }
+
+    private void rewrite(Context context, List<Entry> entries) {
         AtomicFile file = getFile(context);
         FileOutputStream fos;
         try {
             fos = file.startWrite();
         } catch (IOException e) {
             Log.e(TAG, "Unable to persist items in " + mFileName, e);
+            mFileEntries = null;
             return;
         }
 
-        UserCache userCache = UserCache.INSTANCE.get(context);
-
         try {
-            XmlSerializer out = Xml.newSerializer();
-            out.setOutput(fos, StandardCharsets.UTF_8.name());
-            out.startDocument(null, true);
-            out.startTag(null, TAG_ROOT);
-            for (T item : items) {
-                Intent intent = item.getIntent();
-                if (intent == null) {
-                    continue;
-                }
-
-                out.startTag(null, TAG_ENTRY);
-                out.attribute(null, Favorites.ITEM_TYPE, Integer.toString(item.itemType));
-                out.attribute(null, Favorites.PROFILE_ID,
-                        Long.toString(userCache.getSerialNumberForUser(item.user)));
-                out.attribute(null, Favorites.INTENT, intent.toUri(0));
-                out.endTag(null, TAG_ENTRY);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(SCHEMA_VERSION);
+            for (Entry entry : entries) {
+                writeRecord(out, OP_ADD, entry);
             }
-            out.endTag(null, TAG_ROOT);
-            out.endDocument();
+            out.flush();
         } catch (IOException e) {
             file.failWrite(fos);
             Log.e(TAG, "Unable to persist items in " + mFileName, e);
+            mFileEntries = null;
             return;
         }
 
         file.finishWrite(fos);
+        mFileEntries = new ArrayList<>(entries);
+        mFileRecordCount = entries.size();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte op, Entry entry)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(op);
+        record.writeInt(entry.itemType);
+        record.writeLong(entry.userSerial);
+        record.writeUTF(entry.intentUri);
+        record.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Deletes the items from the disk
+     */
+    @WorkerThread
+    public void delete(Context context) {
+        getFile(context).delete();
+        context.getFileStreamPath(mLegacyFileName).delete();
+        mFileEntries = new ArrayList<>();
+        mFileRecordCount = 0;
     }
 
     /**
@@ -122,8 +262,107 @@ public class PersistedItemArray<T extends ItemInfo> {
      */
     @WorkerThread
     public List<T> read(Context context, ItemFactory<T> factory, LongFunction<UserHandle> userFn) {
-        List<T> result = new ArrayList<>();
-        try (FileInputStream fis = getFile(context).openRead()) {
+        List<Entry> entries = readEntries(context);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            try {
+                UserHandle user = userFn.apply(entry.userSerial);
+                Intent intent = Intent.parseUri(entry.intentUri, 0);
+                if (user != null && intent != null) {
+                    T item = factory.createInfo(entry.itemType, user, intent);
+                    if (item != null) {
+                        result.add(item);
+                    }
+                }
+            } catch (URISyntaxException | RuntimeException e) {
+                // Ignore this entry
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private List<Entry> readEntries(Context context) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        int recordCount = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(getFile(context).openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != SCHEMA_VERSION) {
+                Log.e(TAG, "Unknown format for items in " + mFileName);
+                mFileEntries = null;
+                return null;
+            }
+            byte[] payload = new byte[0];
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    throw new IOException("Invalid record length " + length);
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+                int expectedCrc = in.readInt();
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new IOException("Invalid record checksum");
+                }
+                DataInputStream record = new DataInputStream(
+                        new ByteArrayInputStream(payload, 0, length));
+                byte op = record.readByte();
+                Entry entry = new Entry(record.readInt(), record.readLong(), record.readUTF());
+                if (op == OP_ADD) {
+                    entries.add(entry);
+                } else if (op == OP_REMOVE) {
+                    entries.remove(entry);
+                }
+                recordCount++;
+            }
+        } catch (FileNotFoundException e) {
+            return migrateLegacyFile(context);
+        } catch (IOException e) {
+            // A partial or corrupted record ends the list, the file is rewritten on the next
+            // write
+            Log.e(TAG, "Unable to read all items in " + mFileName, e);
+            mFileEntries = null;
+            return entries;
+        }
+        mFileEntries = new ArrayList<>(entries);
+        mFileRecordCount = recordCount;
+        return entries;
+    }
+
+    /**
+     * Reads the items from the legacy XML file, if any, and moves them to the binary file
+     */
+    private List<Entry> migrateLegacyFile(Context context) {
+        File legacyFile = context.getFileStreamPath(mLegacyFileName);
+        List<Entry> entries = readLegacyEntries(new AtomicFile(legacyFile));
+        if (entries == null) {
+            mFileEntries = null;
+            return null;
+        }
+        rewrite(context, entries);
+        if (mFileEntries != null) {
+            new AtomicFile(legacyFile).delete();
+        }
+        return entries;
+    }
+
+    @Nullable
+    private List<Entry> readLegacyEntries(AtomicFile file) {
+        List<Entry> result = new ArrayList<>();
+        try (FileInputStream fis = file.openRead()) {
             XmlPullParser parser = Xml.newPullParser();
             parser.setInput(new InputStreamReader(fis, StandardCharsets.UTF_8));
 
@@ -139,16 +378,11 @@ public class PersistedItemArray<T extends ItemInfo> {
                 try {
                     int itemType = Integer.parseInt(
                             parser.getAttributeValue(null, Favorites.ITEM_TYPE));
-                    UserHandle user = userFn.apply(Long.parseLong(
-                            parser.getAttributeValue(null, Favorites.PROFILE_ID)));
-                    Intent intent = Intent.parseUri(
-                            parser.getAttributeValue(null, Favorites.INTENT), 0);
-
-                    if (user != null && intent != null) {
-                        T item = factory.createInfo(itemType, user, intent);
-                        if (item != null) {
-                            result.add(item);
-                        }
+                    long userSerial = Long.parseLong(
+                            parser.getAttributeValue(null, Favorites.PROFILE_ID));
+                    String intentUri = parser.getAttributeValue(null, Favorites.INTENT);
+                    if (intentUri != null) {
+                        result.add(new Entry(itemType, userSerial, intentUri));
                     }
                 } catch (Exception e) {
                     // Ignore this entry
@@ -157,8 +391,8 @@ public class PersistedItemArray<T extends ItemInfo> {
         } catch (FileNotFoundException e) {
             // Ignore
         } catch (IOException | XmlPullParserException e) {
-            Log.e(TAG, "Unable to read items in " + mFileName, e);
-            return Collections.emptyList();
+            Log.e(TAG, "Unable to read items in " + mLegacyFileName, e);
+            return null;
         }
         return result;
     }
@@ -181,4 +415,35 @@ public class PersistedItemArray<T extends ItemInfo> {
         @Nullable
         T createInfo(int itemType, UserHandle user, Intent intent);
     }
+
+    /**
+     * An item as stored on disk
+     */
+    private static final class Entry {
+
+        final int itemType;
+        final long userSerial;
+        final String intentUri;
+
+        Entry(int itemType, long userSerial, String intentUri) {
+            this.itemType = itemType;
+            this.userSerial = userSerial;
+            this.intentUri = intentUri;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return itemType == other.itemType && userSerial == other.userSerial
+                    && intentUri.equals(other.intentUri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemType, userSerial, intentUri);
+        }
+    }
 }
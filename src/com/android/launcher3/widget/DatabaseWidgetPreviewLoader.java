@@ -27,10 +27,10 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.os.Handler;
 import android.util.Log;
+import android.util.Pair;
 import android.util.Size;
+import android.view.View;
 
 import androidx.annotation.NonNull;
 
@@ -41,11 +41,11 @@ import com.android.launcher3.Utilities;
 import com.android.launcher3.icons.BitmapRenderer;
 import com.android.launcher3.icons.LauncherIcons;
 import com.android.launcher3.icons.ShadowGenerator;
-import com.android.launcher3.icons.cache.HandlerRunnable;
 import com.android.launcher3.model.WidgetItem;
 import com.android.launcher3.pm.ShortcutConfigActivityInfo;
-import com.android.launcher3.util.Executors;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.views.ActivityContext;
+import com.android.launcher3.widget.WidgetPreviewCache.PackageVersion;
 import com.android.launcher3.widget.util.WidgetSizes;
 
 import java.util.concurrent.ExecutionException;
@@ -57,10 +57,12 @@ public class DatabaseWidgetPreviewLoader {
     private static final String TAG = "WidgetPreviewLoader";
 
     private final Context mContext;
+    private final WidgetPreviewCache mPreviewCache;
     private final float mPreviewBoxCornerRadius;
 
     public DatabaseWidgetPreviewLoader(Context context) {
         mContext = context;
+        mPreviewCache = WidgetPreviewCache.INSTANCE.get(context);
         float previewCornerRadius = RoundedCornerEnforcement.computeEnforcedRadius(context);
         mPreviewBoxCornerRadius = previewCornerRadius > 0
                 ? previewCornerRadius
@@ -68,23 +70,39 @@ public class DatabaseWidgetPreviewLoader {
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread.
+     * Loads the widget preview from {@link WidgetPreviewCache}, or generates it if it is not
+     * cached, using {@link WidgetPreviewLoadQueue}. Must be called on UI thread.
      *
-     * @return a request id which can be used to cancel the request.
+     * @param cell the view displaying the preview, used to prioritize the request
+     * @return a request which can be used to cancel the request.
      */
     @NonNull
-    public HandlerRunnable loadPreview(
+    public WidgetPreviewLoadQueue.Request loadPreview(
             @NonNull WidgetItem item,
             @NonNull Size previewSize,
+            @NonNull View cell,
             @NonNull Consumer<Bitmap> callback) {
-        Handler handler = Executors.UI_HELPER_EXECUTOR.getHandler();
-        HandlerRunnable<Bitmap> request = new HandlerRunnable<>(handler,
-                () -> generatePreview(item, previewSize.getWidth(), previewSize.getHeight()),
-                MAIN_EXECUTOR,
+        return WidgetPreviewLoadQueue.INSTANCE.enqueue(
+                Pair.create(new ComponentKey(item.componentName, item.user), previewSize),
+                cell,
+                () -> loadPreview(item, previewSize),
                 callback);
-        Utilities.postAsyncCallback(handler, request);
-        return request;
+    }
+
+    private Bitmap loadPreview(WidgetItem item, Size previewSize) {
+        // The version is captured before rendering, so that a preview rendered during a package
+        // update is not cached for the new version
+        PackageVersion version =
+                mPreviewCache.getPackageVersion(item.componentName.getPackageName());
+        Bitmap preview = version == null
+                ? null : mPreviewCache.getPreview(item, previewSize, version);
+        if (preview == null) {
+            preview = generatePreview(item, previewSize.getWidth(), previewSize.getHeight());
+            if (preview != null && version != null) {
+                mPreviewCache.putPreview(item, previewSize, version, preview);
+            }
+        }
+        return preview;
     }
 
     /**
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+
+import static com.android.launcher3.icons.GraphicsUtils.flattenBitmap;
+import static com.android.launcher3.util.Executors.THREAD_POOL_EXECUTOR;
+
+import android.app.ActivityManager;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.UserHandle;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.pm.UserCache;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.MainThreadInitializedObject;
+import com.android.launcher3.util.SQLiteCacheHelper;
+
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Cache of the generated widget and shortcut previews, with an in-memory LRU cache backed by a
+ * DB. Previews are keyed by their component, user, size and package version.
+ *
+ * The callers get the {@link PackageVersion} before rendering a preview and pass it when adding
+ * the preview, so that a preview rendered before a package update is never returned for the new
+ * version. A persisted preview is also only used if the system state matches the one it was
+ * generated with. The previews of a package are removed when the package is updated or removed,
+ * see {@link #removePackage(String, UserHandle)}.
+ */
+public class WidgetPreviewCache {
+
+    private static final String TAG = "WidgetPreviewCache";
+
+    public static final MainThreadInitializedObject<WidgetPreviewCache> INSTANCE =
+            new MainThreadInitializedObject<>(WidgetPreviewCache::new);
+
+    // Maximum size of the previews kept in memory, limited to a fraction of the memory class
+    private static final int MAX_MEMORY_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MEMORY_CACHE_CLASS_DIVISOR = 8;
+
+    private final Context mContext;
+    private final UserCache mUserCache;
+    private final CacheDb mDb;
+
+    private final LruCache<WidgetCacheKey, Bitmap> mMemoryCache;
+
+    // Current versions of the packages
+    private final HashMap<String, PackageVersion> mPackageVersions = new HashMap<>();
+    // System state of the previews in the memory cache
+    private String mMemoryCacheSystemState = "";
+
+    @VisibleForTesting
+    WidgetPreviewCache(Context context) {
+        mContext = context;
+        mUserCache = UserCache.INSTANCE.get(context);
+        mDb = new CacheDb(context);
+        mMemoryCache = new LruCache<WidgetCacheKey, Bitmap>(getMemoryCacheSize(context)) {
+            @Override
+            protected int sizeOf(WidgetCacheKey key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    private static int getMemoryCacheSize(Context context) {
+        ActivityManager am = context.getSystemService(ActivityManager.class);
+        if (am == null) {
+            return MAX_MEMORY_CACHE_BYTES;
+        }
+        return (int) Math.min(MAX_MEMORY_CACHE_BYTES,
+                (long) am.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_CLASS_DIVISOR);
+    }
+
+    /**
+     * Releases the previews kept in memory according to {@param level}, see
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}. The persisted previews are
+     * kept.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mMemoryCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Returns the current version of the package, or null if it is not installed
+     */
+    @WorkerThread
+    @Nullable
+    public PackageVersion getPackageVersion(String packageName) {
+        synchronized (this) {
+            PackageVersion version = mPackageVersions.get(packageName);
+            if (version != null) {
+                return version;
+            }
+        }
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(packageName,
+                    PackageManager.GET_UNINSTALLED_PACKAGES);
+            PackageVersion version =
+                    new PackageVersion(info.getLongVersionCode(), info.lastUpdateTime);
+            synchronized (this) {
+                mPackageVersions.put(packageName, version);
+            }
+            return version;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "PackageInfo not found", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached preview of {@param key} for the provided size and package version, or
+     * null if there is no valid preview
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap getPreview(@NonNull ComponentKey key, @NonNull Size size,
+            @NonNull PackageVersion version) {
+        String systemState = getSystemState();
+        synchronized (this) {
+            if (!systemState.equals(mMemoryCacheSystemState)) {
+                mMemoryCache.evictAll();
+                mMemoryCacheSystemState = systemState;
+            }
+        }
+        WidgetCacheKey cacheKey = new WidgetCacheKey(key, size, version);
+        Bitmap preview = mMemoryCache.get(cacheKey);
+        if (preview != null) {
+            return preview;
+        }
+
+        try (Cursor c = mDb.query(
+                new String[] {CacheDb.COLUMN_PREVIEW_BITMAP},
+                CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER + " = ? AND "
+                        + CacheDb.COLUMN_SIZE + " = ? AND " + CacheDb.COLUMN_VERSION + " = ? AND "
+                        + CacheDb.COLUMN_LAST_UPDATED + " = ? AND "
+                        + CacheDb.COLUMN_SYSTEM_STATE + " = ?",
+                new String[] {
+                        key.componentName.flattenToShortString(),
+                        Long.toString(mUserCache.getSerialNumberForUser(key.user)),
+                        cacheKey.size,
+                        Long.toString(version.versionCode),
+                        Long.toString(version.lastUpdateTime),
+                        systemState})) {
+            if (c.moveToNext()) {
+                byte[] blob = c.getBlob(0);
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inPreferredConfig = Config.HARDWARE;
+                preview = BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Error loading preview from DB", e);
+        }
+        if (preview != null) {
+            mMemoryCache.put(cacheKey, preview);
+        }
+        return preview;
+    }
+
+    /**
+     * Adds a preview of {@param key} for the provided size to the cache, where {@param version}
+     * is the version of the package when the rendering of the preview started
+     */
+    @WorkerThread
+    public void putPreview(@NonNull ComponentKey key, @NonNull Size size,
+            @NonNull PackageVersion version, @NonNull Bitmap preview) {
+        String packageName = key.componentName.getPackageName();
+        if (!version.equals(getPackageVersion(packageName))) {
+            // The package was updated while the preview was rendered
+            return;
+        }
+        WidgetCacheKey cacheKey = new WidgetCacheKey(key, size, version);
+        mMemoryCache.put(cacheKey, preview);
+
+        String systemState = getSystemState();
+        long userSerial = mUserCache.getSerialNumberForUser(key.user);
+        // Compressing the preview is slow, so it is persisted off the preview thread
+        THREAD_POOL_EXECUTOR.execute(() -> {
+            if (!version.equals(getPackageVersion(packageName))) {
+                // Don't replace the preview of a newer version
+                return;
+            }
+            Bitmap bitmap = preview.getConfig() == Config.HARDWARE
+                    ? preview.copy(Config.ARGB_8888, false) : preview;
+            byte[] blob = bitmap == null ? null : flattenBitmap(bitmap);
+            if (blob == null) {
+                return;
+            }
+            ContentValues values = new ContentValues();
+            values.put(CacheDb.COLUMN_COMPONENT, key.componentName.flattenToShortString());
+            values.put(CacheDb.COLUMN_USER, userSerial);
+            values.put(CacheDb.COLUMN_SIZE, cacheKey.size);
+            values.put(CacheDb.COLUMN_PACKAGE, packageName);
+            values.put(CacheDb.COLUMN_VERSION, version.versionCode);
+            values.put(CacheDb.COLUMN_LAST_UPDATED, version.lastUpdateTime);
+            values.put(CacheDb.COLUMN_SYSTEM_STATE, systemState);
+            values.put(CacheDb.COLUMN_PREVIEW_BITMAP, blob);
+            mDb.insertOrReplace(values);
+        });
+    }
+
+    /**
+     * Removes all the previews of the provided package and user
+     */
+    public void removePackage(String packageName, UserHandle user) {
+        synchronized (this) {
+            mPackageVersions.remove(packageName);
+        }
+        for (WidgetCacheKey key : mMemoryCache.snapshot().keySet()) {
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                mMemoryCache.remove(key);
+            }
+        }
+        long userSerial = mUserCache.getSerialNumberForUser(user);
+        THREAD_POOL_EXECUTOR.execute(() -> mDb.delete(
+                CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
+                new String[] {packageName, Long.toString(userSerial)}));
+    }
+
+    /**
+     * Returns the state of the system which the previews depend on, beyond their package
+     */
+    private String getSystemState() {
+        Configuration config = mContext.getResources().getConfiguration();
+        return config.getLocales().toLanguageTags()
+                + "," + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK)
+                + "," + config.densityDpi
+                + "," + Build.VERSION.SDK_INT
+                + "," + LauncherAppState.getInstance(mContext).getIconProvider()
+                        .getSystemIconState();
+    }
+
+    /**
+     * Version of a package, which its previews are rendered for
+     */
+    public static final class PackageVersion {
+
+        final long versionCode;
+        final long lastUpdateTime;
+
+        @VisibleForTesting
+        PackageVersion(long versionCode, long lastUpdateTime) {
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(versionCode, lastUpdateTime);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PackageVersion
+                    && ((PackageVersion) o).versionCode == versionCode
+                    && ((PackageVersion) o).lastUpdateTime == lastUpdateTime;
+        }
+    }
+
+    private static final class WidgetCacheKey extends ComponentKey {
+
+        final String size;
+        final PackageVersion version;
+
+        WidgetCacheKey(ComponentKey key, Size size, PackageVersion version) {
+            super(key.componentName, key.user);
+            this.size = size.getWidth() + "x" + size.getHeight();
+            this.version = version;
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode() ^ size.hashCode() ^ version.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return super.equals(o) && Objects.equals(((WidgetCacheKey) o).size, size)
+                    && Objects.equals(((WidgetCacheKey) o).version, version);
+        }
+    }
+
+    private static final class CacheDb extends SQLiteCacheHelper {
+
+        private static final int DB_VERSION = 1;
+
+        private static final String TABLE_NAME = "shortcut_and_widget_previews";
+        private static final String COLUMN_COMPONENT = "componentName";
+        private static final String COLUMN_USER = "profileId";
+        private static final String COLUMN_SIZE = "size";
+        private static final String COLUMN_PACKAGE = "packageName";
+        private static final String COLUMN_LAST_UPDATED = "lastUpdated";
+        private static final String COLUMN_VERSION = "version";
+        private static final String COLUMN_SYSTEM_STATE = "system_state";
+        private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
+
+        CacheDb(Context context) {
+            super(context, LauncherFiles.WIDGET_PREVIEWS_DB, DB_VERSION, TABLE_NAME);
+        }
+
+        @Override
+        protected void onCreateTable(SQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                    + COLUMN_COMPONENT + " TEXT NOT NULL, "
+                    + COLUMN_USER + " INTEGER NOT NULL, "
+                    + COLUMN_SIZE + " TEXT NOT NULL, "
+                    + COLUMN_PACKAGE + " TEXT NOT NULL, "
+                    + COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_SYSTEM_STATE + " TEXT, "
+                    + COLUMN_PREVIEW_BITMAP + " BLOB, "
+                    + "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ", "
+                    + COLUMN_SIZE + ") "
+                    + ");");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget;
+
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewParent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Schedules the loading of widget previews on a small pool of worker threads.
+ *
+ * Pending loads are not run in the order they were requested: each time a worker is free, it
+ * runs the load whose cells are the closest to the visible part of their scrolling container,
+ * usually the widgets {@link RecyclerView}. This way, flinging through the widget picker does
+ * not keep the visible previews waiting behind the ones which were scrolled past. Requests for
+ * the same preview are coalesced into a single load, and cancelled requests, for example of
+ * recycled cells, are dropped before they run.
+ *
+ * This class must only be accessed on the main thread.
+ */
+public final class WidgetPreviewLoadQueue {
+
+    private static final String TAG = "WidgetPreviewLoadQueue";
+
+    static final WidgetPreviewLoadQueue INSTANCE = new WidgetPreviewLoadQueue();
+
+    private static final int WORKER_COUNT = Math.max(1,
+            Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_MS = 1000;
+
+    private final ArrayList<Load> mPendingLoads = new ArrayList<>();
+    // Pending and running loads, by the key of the preview they load
+    private final HashMap<Object, Load> mLoads = new HashMap<>();
+    private final int[] mTempLocation = new int[2];
+
+    private ThreadPoolExecutor mExecutor;
+    private int mRunningCount;
+
+    private WidgetPreviewLoadQueue() { }
+
+    /**
+     * Requests the preview identified by {@param key}, which is loaded by {@param loader} on a
+     * worker thread unless another request for the same preview is pending or running.
+     *
+     * @param cell the view displaying the preview, used to prioritize the request
+     * @param callback called on the main thread with the loaded preview, unless the request is
+     *                 cancelled
+     */
+    @UiThread
+    @NonNull
+    Request enqueue(@NonNull Object key, @NonNull View cell, @NonNull Supplier<Bitmap> loader,
+            @NonNull Consumer<Bitmap> callback) {
+        Load load = mLoads.get(key);
+        if (load == null) {
+            load = new Load(key, loader);
+            mLoads.put(key, load);
+            mPendingLoads.add(load);
+        }
+        Request request = new Request(load, cell, callback);
+        load.requests.add(request);
+        runPendingLoads();
+        return request;
+    }
+
+    private void runPendingLoads() {
+        while (mRunningCount < WORKER_COUNT && !mPendingLoads.isEmpty()) {
+            Load load = removeClosestPendingLoad();
+            mRunningCount++;
+            getExecutor().execute(() -> {
+                Bitmap preview = null;
+                try {
+                    preview = load.loader.get();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Error loading widget preview", e);
+                }
+                Bitmap result = preview;
+                MAIN_EXECUTOR.execute(() -> onLoadComplete(load, result));
+            });
+        }
+    }
+
+    private void onLoadComplete(Load load, Bitmap preview) {
+        mRunningCount--;
+        mLoads.remove(load.key);
+        for (Request request : new ArrayList<>(load.requests)) {
+            if (request.mLoad == load) {
+                request.mLoad = null;
+                request.mCallback.accept(preview);
+            }
+        }
+        runPendingLoads();
+    }
+
+    private Load removeClosestPendingLoad() {
+        int closestIndex = 0;
+        int closestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < mPendingLoads.size(); i++) {
+            for (Request request : mPendingLoads.get(i).requests) {
+                int distance = getDistanceFromViewport(request.mCell);
+                if (distance < closestDistance) {
+                    closestIndex = i;
+                    closestDistance = distance;
+                }
+            }
+            if (closestDistance == 0) {
+                // Visible cells are loaded in the order they were requested
+                break;
+            }
+        }
+        return mPendingLoads.remove(closestIndex);
+    }
+
+    /**
+     * Returns the vertical distance in pixels between {@param cell} and the visible part of
+     * its scrolling container, or of its window if it is not in a {@link RecyclerView}
+     */
+    private int getDistanceFromViewport(View cell) {
+        if (!cell.isAttachedToWindow()) {
+            return Integer.MAX_VALUE;
+        }
+        View viewport = cell.getRootView();
+        for (ViewParent parent = cell.getParent(); parent instanceof View;
+                parent = parent.getParent()) {
+            if (parent instanceof RecyclerView) {
+                viewport = (View) parent;
+                break;
+            }
+        }
+        cell.getLocationInWindow(mTempLocation);
+        int top = mTempLocation[1];
+        int bottom = top + cell.getHeight();
+        viewport.getLocationInWindow(mTempLocation);
+        int viewportTop = mTempLocation[1];
+        int viewportBottom = viewportTop + viewport.getHeight();
+        if (bottom < viewportTop) {
+            return viewportTop - bottom;
+        } else if (top > viewportBottom) {
+            return top - viewportBottom;
+        }
+        return 0;
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (mExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            mExecutor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                    KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    r -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                        r.run();
+                    }, "widget-preview-" + threadCount.incrementAndGet()));
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mExecutor;
+    }
+
+    /**
+     * A request for a preview, which can be cancelled until its callback is called
+     */
+    public final class Request {
+
+        private final View mCell;
+        private final Consumer<Bitmap> mCallback;
+
+        // Null once the request has completed or is cancelled
+        private Load mLoad;
+
+        private Request(Load load, View cell, Consumer<Bitmap> callback) {
+            mLoad = load;
+            mCell = cell;
+            mCallback = callback;
+        }
+
+        /**
+         * Cancels the request. The preview is still loaded if it is already being loaded or if
+         * other requests need it.
+         */
+        @UiThread
+        public void cancel() {
+            Load load = mLoad;
+            if (load == null) {
+                return;
+            }
+            mLoad = null;
+            load.requests.remove(this);
+            if (load.requests.isEmpty() && mPendingLoads.remove(load)) {
+                mLoads.remove(load.key);
+            }
+        }
+    }
+
+    private static final class Load {
+
+        final Object key;
+        final Supplier<Bitmap> loader;
+        final ArrayList<Request> requests = new ArrayList<>();
+
+        Load(Object key, Supplier<Bitmap> loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.android.launcher3.widget.picker.search;
 
+import static com.android.launcher3.util.Executors.UI_HELPER_EXECUTOR;
+
 import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.ImageButton;
@@ -53,7 +55,7 @@ public class LauncherWidgetsSearchBar extends LinearLayout implements WidgetsSea
     @Override
     public void initialize(PopupDataProvider dataProvider, SearchModeListener searchModeListener) {
         mController = new WidgetsSearchBarController(
-                new SimpleWidgetsSearchAlgorithm(dataProvider),
+                new SimpleWidgetsSearchAlgorithm(dataProvider, UI_HELPER_EXECUTOR),
                 mEditText, mCancelButton, searchModeListener);
     }
 
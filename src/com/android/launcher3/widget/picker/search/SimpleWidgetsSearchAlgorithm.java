@@ -16,79 +16,161 @@
 
 package com.android.launcher3.widget.picker.search;
 
-import static com.android.launcher3.search.StringMatcherUtility.matches;
+import static com.android.launcher3.search.StringMatcherUtility.normalizeForIndex;
 
 import android.os.Handler;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
 import com.android.launcher3.model.WidgetItem;
 import com.android.launcher3.popup.PopupDataProvider;
 import com.android.launcher3.search.SearchAlgorithm;
 import com.android.launcher3.search.SearchCallback;
+import com.android.launcher3.search.SearchSession;
 import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
 import com.android.launcher3.widget.model.WidgetsListBaseEntry;
 import com.android.launcher3.widget.model.WidgetsListContentEntry;
 import com.android.launcher3.widget.model.WidgetsListHeaderEntry;
 import com.android.launcher3.widget.model.WidgetsListSearchHeaderEntry;
+import com.android.launcher3.widget.picker.search.WidgetsSearchTable.Row;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
- * Implementation of {@link SearchAlgorithm} that posts a task to query on the main thread.
+ * Implementation of {@link SearchAlgorithm} that queries the {@link WidgetsSearchTable} of the
+ * {@link PopupDataProvider} and posts the result on the main thread.
+ *
+ * By default the query runs synchronously on the calling thread. When created with a search
+ * executor, the query runs on that executor instead: every new query or interrupting cancel
+ * invalidates the queries in flight, which stop early and never deliver their stale results.
  */
 public final class SimpleWidgetsSearchAlgorithm implements SearchAlgorithm<WidgetsListBaseEntry> {
 
+    // Number of packages searched between two checks for cancellation
+    private static final int CANCELLATION_CHECK_INTERVAL = 16;
+
     private final Handler mResultHandler;
     private final PopupDataProvider mDataProvider;
+    @Nullable private final Executor mSearchExecutor;
+    private final SearchSession<Row> mSession = new SearchSession<>();
+    private final AtomicInteger mQueryToken = new AtomicInteger();
 
     public SimpleWidgetsSearchAlgorithm(PopupDataProvider dataProvider) {
+        this(dataProvider, null);
+    }
+
+    public SimpleWidgetsSearchAlgorithm(PopupDataProvider dataProvider,
+            @Nullable Executor searchExecutor) {
         mResultHandler = new Handler();
         mDataProvider = dataProvider;
+        mSearchExecutor = searchExecutor;
     }
 
     @Override
     public void doSearch(String query, SearchCallback<WidgetsListBaseEntry> callback) {
-        ArrayList<WidgetsListBaseEntry> result = getFilteredWidgets(mDataProvider, query);
-        mResultHandler.post(() -> callback.onSearchResult(query, result));
+        final int token = mQueryToken.incrementAndGet();
+        final BooleanSupplier isCancelled = () -> mQueryToken.get() != token;
+        final WidgetsSearchTable table = getSearchTable(mDataProvider);
+        final int version = mDataProvider.getAllWidgetsVersion();
+        Runnable searchTask = () -> {
+            ArrayList<WidgetsListBaseEntry> result =
+                    getFilteredWidgets(table, version, query, mSession, isCancelled);
+            if (result == null) {
+                return;
+            }
+            mResultHandler.post(() -> {
+                if (!isCancelled.getAsBoolean()) {
+                    callback.onSearchResult(query, result);
+                }
+            });
+        };
+
+        if (mSearchExecutor == null) {
+            searchTask.run();
+        } else {
+            mSearchExecutor.execute(searchTask);
+        }
     }
 
     @Override
     public void cancel(boolean interruptActiveRequests) {
         if (interruptActiveRequests) {
+            mQueryToken.incrementAndGet();
             mResultHandler.removeCallbacksAndMessages(/*token= */null);
         }
     }
 
+    @Override
+    public void endSession() {
+        mSession.reset();
+    }
+
+    @Override
+    public void destroy() {
+        cancel(/* interruptActiveRequests= */ true);
+    }
+
     /**
      * Returns entries for all matched widgets
      */
     public static ArrayList<WidgetsListBaseEntry> getFilteredWidgets(
             PopupDataProvider dataProvider, String input) {
-        ArrayList<WidgetsListBaseEntry> results = new ArrayList<>();
-        dataProvider.getAllWidgets().stream()
-                .filter(entry -> entry instanceof WidgetsListHeaderEntry)
-                .forEach(headerEntry -> {
-                    List<WidgetItem> matchedWidgetItems = filterWidgetItems(
-                            input, headerEntry.mPkgItem.title.toString(), headerEntry.mWidgets);
-                    if (matchedWidgetItems.size() > 0) {
-                        results.add(new WidgetsListSearchHeaderEntry(headerEntry.mPkgItem,
-                                headerEntry.mTitleSectionName, matchedWidgetItems));
-                        results.add(new WidgetsListContentEntry(headerEntry.mPkgItem,
-                                headerEntry.mTitleSectionName, matchedWidgetItems));
-                    }
-                });
-        return results;
+        return getFilteredWidgets(getSearchTable(dataProvider),
+                dataProvider.getAllWidgetsVersion(), input, null, () -> false);
+    }
+
+    private static WidgetsSearchTable getSearchTable(PopupDataProvider dataProvider) {
+        WidgetsSearchTable table = dataProvider.getWidgetsSearchTable();
+        return table != null ? table : new WidgetsSearchTable(dataProvider.getAllWidgets());
     }
 
-    private static List<WidgetItem> filterWidgetItems(String query, String packageTitle,
-            List<WidgetItem> items) {
+    /**
+     * Returns entries for all matched widgets, only looking at the packages which matched the
+     * previous query in {@param session} when {@param input} extends it.
+     *
+     * @return the matched entries, or null if the query was cancelled
+     */
+    @Nullable
+    @WorkerThread
+    private static ArrayList<WidgetsListBaseEntry> getFilteredWidgets(WidgetsSearchTable table,
+            int version, String input, @Nullable SearchSession<Row> session,
+            BooleanSupplier isCancelled) {
+        if (isCancelled.getAsBoolean()) {
+            return null;
+        }
+        List<Row> candidates = session == null ? null : session.getCandidates(input, version);
+        if (candidates == null) {
+            candidates = table.getRows();
+        }
+
+        ArrayList<WidgetsListBaseEntry> results = new ArrayList<>();
+        ArrayList<Row> matchedRows = new ArrayList<>();
         StringMatcher matcher = StringMatcher.getInstance();
-        if (matches(query, packageTitle, matcher)) {
-            return items;
+        String normalizedInput = normalizeForIndex(input);
+        int count = candidates.size();
+        for (int i = 0; i < count; i++) {
+            if (i % CANCELLATION_CHECK_INTERVAL == 0 && isCancelled.getAsBoolean()) {
+                return null;
+            }
+            Row row = candidates.get(i);
+            List<WidgetItem> matchedWidgetItems = row.filter(input, normalizedInput, matcher);
+            if (matchedWidgetItems.size() > 0) {
+                WidgetsListHeaderEntry headerEntry = row.entry;
+                matchedRows.add(row);
+                results.add(new WidgetsListSearchHeaderEntry(headerEntry.mPkgItem,
+                        headerEntry.mTitleSectionName, matchedWidgetItems));
+                results.add(new WidgetsListContentEntry(headerEntry.mPkgItem,
+                        headerEntry.mTitleSectionName, matchedWidgetItems));
+            }
+        }
+        if (session != null) {
+            session.update(input, version, matchedRows);
         }
-        return items.stream()
-                .filter(item -> matches(query, item.label, matcher))
-                .collect(Collectors.toList());
+        return results;
     }
 }
@@ -66,6 +66,7 @@ public class WidgetsSearchBarController implements TextWatcher,
         mQuery = s.toString();
         if (mQuery.isEmpty()) {
             mSearchAlgorithm.cancel(/* interruptActiveRequests= */ true);
+            mSearchAlgorithm.endSession();
             mSearchModeListener.exitSearchMode();
             mCancelButton.setVisibility(GONE);
         } else {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget.picker.search;
+
+import static com.android.launcher3.search.StringMatcherUtility.matches;
+import static com.android.launcher3.search.StringMatcherUtility.normalizeForIndex;
+
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.model.WidgetItem;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+import com.android.launcher3.widget.model.WidgetsListBaseEntry;
+import com.android.launcher3.widget.model.WidgetsListHeaderEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable table of the widget packages and their normalized labels, built once when the
+ * list of all widgets is bound so that searching does not need to walk and fold the widget
+ * list on every keystroke. Being immutable, it can be safely searched on a background thread.
+ */
+public final class WidgetsSearchTable {
+
+    public static final WidgetsSearchTable EMPTY = new WidgetsSearchTable(Collections.emptyList());
+
+    private final List<Row> mRows;
+
+    public WidgetsSearchTable(List<WidgetsListBaseEntry> allWidgets) {
+        ArrayList<Row> rows = new ArrayList<>();
+        for (WidgetsListBaseEntry entry : allWidgets) {
+            if (entry instanceof WidgetsListHeaderEntry) {
+                rows.add(new Row((WidgetsListHeaderEntry) entry));
+            }
+        }
+        mRows = Collections.unmodifiableList(rows);
+    }
+
+    /** Returns all the rows of this table, one per widget package. */
+    public List<Row> getRows() {
+        return mRows;
+    }
+
+    /** A widget package with the normalized labels of the package and of its widgets. */
+    public static final class Row {
+
+        public final WidgetsListHeaderEntry entry;
+
+        private final String mTitle;
+        @Nullable private final String mNormalizedTitle;
+        private final String[] mNormalizedLabels;
+
+        Row(WidgetsListHeaderEntry entry) {
+            this.entry = entry;
+            mTitle = entry.mPkgItem.title == null ? "" : entry.mPkgItem.title.toString();
+            mNormalizedTitle = normalizeForIndex(mTitle);
+            List<WidgetItem> widgets = entry.mWidgets;
+            mNormalizedLabels = new String[widgets.size()];
+            for (int i = 0; i < mNormalizedLabels.length; i++) {
+                String label = widgets.get(i).label;
+                mNormalizedLabels[i] = label == null ? "" : normalizeForIndex(label);
+            }
+        }
+
+        /**
+         * Returns the widgets of this package matching the query, all of them if the package
+         * title matches.
+         *
+         * @param normalizedQuery the query normalized with
+         *                        {@link com.android.launcher3.search.StringMatcherUtility
+         *                        #normalizeForIndex}, used to skip labels which can not match.
+         */
+        List<WidgetItem> filter(String query, @Nullable String normalizedQuery,
+                StringMatcher matcher) {
+            if (mayMatch(mNormalizedTitle, normalizedQuery) && matches(query, mTitle, matcher)) {
+                return entry.mWidgets;
+            }
+            List<WidgetItem> widgets = entry.mWidgets;
+            ArrayList<WidgetItem> result = new ArrayList<>();
+            for (int i = 0; i < mNormalizedLabels.length; i++) {
+                WidgetItem item = widgets.get(i);
+                if (item.label != null && mayMatch(mNormalizedLabels[i], normalizedQuery)
+                        && matches(query, item.label, matcher)) {
+                    result.add(item);
+                }
+            }
+            return result;
+        }
+
+        private static boolean mayMatch(@Nullable String normalizedTarget,
+                @Nullable String normalizedQuery) {
+            return normalizedTarget == null || normalizedQuery == null
+                    || normalizedTarget.contains(normalizedQuery);
+        }
+    }
+}
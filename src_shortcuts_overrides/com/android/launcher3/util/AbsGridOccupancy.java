@@ -26,30 +26,27 @@ public abstract class AbsGridOccupancy {
      * Find the first vacant cell, if there is one.
      *
      * @param vacantOut Holds the x and y coordinate of the vacant cell
+     * @param countY Number of rows in the grid.
      * @param spanX Horizontal cell span.
      * @param spanY Vertical cell span.
      *
      * @return true if a vacant cell was found
      */
-    protected boolean findVacantCell(int[] vacantOut, boolean[][] cells, int countX, int countY,
-            int spanX, int spanY) {
+    protected boolean findVacantCell(int[] vacantOut, int countY, int spanX, int spanY) {
         for (int y = 0; (y + spanY) <= countY; y++) {
-            for (int x = 0; (x + spanX) <= countX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            long vacant = getVacantCellsInRow(y, spanX, spanY);
+            if (vacant != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(vacant);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
+
+    /**
+     * Returns a bitmask of the cells in row {@param y} at which a vacant region of the provided
+     * span starts, where bit x corresponds to column x.
+     */
+    public abstract long getVacantCellsInRow(int y, int spanX, int spanY);
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.CellLayout.ItemConfiguration;
+import com.android.launcher3.CellLayout.ReorderSolutionCache;
+import com.android.launcher3.util.ActivityContextWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for {@link CellLayout}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class CellLayoutTest {
+
+    private CellLayout mCellLayout;
+
+    @Before
+    public void setUp() throws Exception {
+        mCellLayout = MAIN_EXECUTOR.submit(() ->
+                new CellLayout(new ActivityContextWrapper(getApplicationContext()))).get();
+    }
+
+    @Test
+    public void testPrecomputedNoSolutionIsKept() {
+        ReorderSolutionCache cache = mCellLayout.new ReorderSolutionCache();
+        ReorderSolutionCache precomputed = mCellLayout.new ReorderSolutionCache();
+        precomputed.copyStateFrom(cache);
+        long key = precomputed.getKey(0, 0, 2, 2, new int[] {1, 0});
+        precomputed.put(key, null);
+
+        cache.putAll(precomputed);
+        assertNotNull(cache.get(key));
+        assertFalse(cache.apply(cache.get(key), new ItemConfiguration()));
+    }
+}
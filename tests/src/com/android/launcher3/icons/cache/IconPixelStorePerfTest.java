@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.launcher3.icons.GraphicsUtils.flattenBitmap;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.android.launcher3.icons.BitmapInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Compares loading icons from {@link IconPixelStore} with decoding them from the PNG stored in
+ * the icon DB
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class IconPixelStorePerfTest {
+
+    private static final String TAG = "IconPixelStorePerfTest";
+
+    private static final int ICON_SIZE = 192;
+    private static final int ITERATIONS = 200;
+
+    private File mFile;
+    private IconPixelStore mStore;
+    private String mKey;
+
+    @Before
+    public void setUp() {
+        mFile = new File(getApplicationContext().getCacheDir(), "icon-pixel-store-perf-test");
+        mFile.delete();
+        mStore = new IconPixelStore(mFile, ICON_SIZE);
+        mKey = IconPixelStore.getKey(new ComponentName("com.example", "com.example.Main"), 0);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.clear();
+    }
+
+    @Test
+    public void testReadIsNotSlowerThanPngDecode() {
+        Bitmap icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Config.ARGB_8888);
+        icon.eraseColor(Color.GREEN);
+        mStore.write(mKey, 10, 1, "state", BitmapInfo.of(icon, Color.GREEN));
+        byte[] png = flattenBitmap(icon);
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inPreferredConfig = Config.HARDWARE;
+
+        // Warm up both code paths before measuring
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            assertNotNull(BitmapFactory.decodeByteArray(png, 0, png.length, decodeOptions));
+            assertNotNull(mStore.read(mKey, 10, 1, "state"));
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(BitmapFactory.decodeByteArray(png, 0, png.length, decodeOptions));
+        }
+        long decodeNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(mStore.read(mKey, 10, 1, "state"));
+        }
+        long storeNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        String result = "Average icon load, PNG decode: " + decodeNanos / ITERATIONS
+                + "ns, pixel store: " + storeNanos / ITERATIONS + "ns";
+        Log.d(TAG, result);
+        assertTrue(result, storeNanos <= decodeNanos);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.cache;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.icons.BitmapInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Tests for {@link IconPixelStore}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconPixelStoreTest {
+
+    private static final int ICON_SIZE = 48;
+
+    private File mFile;
+    private IconPixelStore mStore;
+    private String mKey;
+
+    @Before
+    public void setUp() {
+        mFile = new File(getApplicationContext().getCacheDir(), "icon-pixel-store-test");
+        mFile.delete();
+        mStore = new IconPixelStore(mFile, ICON_SIZE);
+        mKey = IconPixelStore.getKey(new ComponentName("com.example", "com.example.Main"), 0);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.clear();
+    }
+
+    @Test
+    public void testReadWrite() {
+        mStore.write(mKey, 10, 1, "state", createIcon(Color.RED));
+
+        IconPixelStore.Pixels pixels = mStore.read(mKey, 10, 1, "state");
+        assertNotNull(pixels);
+        assertEquals(ICON_SIZE, pixels.icon.getWidth());
+        assertEquals(Color.RED, getSoftwareCopy(pixels.icon).getPixel(ICON_SIZE / 2, 0));
+        assertNull(pixels.mono);
+    }
+
+    @Test
+    public void testReadValidatesDbRow() {
+        mStore.write(mKey, 10, 1, "state", createIcon(Color.RED));
+
+        assertNull(mStore.read(mKey, 11, 1, "state"));
+        assertNull(mStore.read(mKey, 10, 2, "state"));
+        assertNull(mStore.read(mKey, 10, 1, "other-state"));
+    }
+
+    @Test
+    public void testRecordsPersistAndReplace() {
+        mStore.write(mKey, 10, 1, "state", createIcon(Color.RED));
+        mStore.write(mKey, 20, 2, "state", createIcon(Color.BLUE));
+        mStore.close();
+
+        IconPixelStore store = new IconPixelStore(mFile, ICON_SIZE);
+        assertNull(store.read(mKey, 10, 1, "state"));
+        IconPixelStore.Pixels pixels = store.read(mKey, 20, 2, "state");
+        assertNotNull(pixels);
+        assertEquals(Color.BLUE, getSoftwareCopy(pixels.icon).getPixel(ICON_SIZE / 2, 0));
+        store.close();
+
+        // A different icon size invalidates the whole file
+        store = new IconPixelStore(mFile, ICON_SIZE * 2);
+        assertNull(store.read(mKey, 20, 2, "state"));
+        store.close();
+    }
+
+    @Test
+    public void testReadsWhileFileGrowsPastMappedChunks() {
+        int[] colors = {Color.RED, Color.GREEN, Color.BLUE};
+        int count = IconPixelStore.MAP_CHUNK_SIZE / (ICON_SIZE * ICON_SIZE * 4) + 2;
+        for (int i = 0; i < count; i++) {
+            mStore.write(createKey(i), 10, 1, "state", createIcon(colors[i % colors.length]));
+            assertNotNull(mStore.read(createKey(i), 10, 1, "state"));
+        }
+
+        for (int i = 0; i < count; i++) {
+            IconPixelStore.Pixels pixels = mStore.read(createKey(i), 10, 1, "state");
+            assertNotNull(pixels);
+            assertEquals(colors[i % colors.length],
+                    getSoftwareCopy(pixels.icon).getPixel(ICON_SIZE / 2, 0));
+        }
+    }
+
+    private static String createKey(int id) {
+        return IconPixelStore.getKey(new ComponentName("com.example", "com.example.Main" + id), 0);
+    }
+
+    private static BitmapInfo createIcon(int color) {
+        Bitmap icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Config.ARGB_8888);
+        icon.eraseColor(color);
+        return BitmapInfo.of(icon, color);
+    }
+
+    private static Bitmap getSoftwareCopy(Bitmap bitmap) {
+        return bitmap.getConfig() == Config.HARDWARE
+                ? bitmap.copy(Config.ARGB_8888, false) : bitmap;
+    }
+}
@@ -2,9 +2,12 @@ package com.android.launcher3.logging;
 
 import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import android.os.SystemClock;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
@@ -14,8 +17,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Calendar;
 
 /**
@@ -40,7 +48,7 @@ public class FileLogTest {
     @After
     public void tearDown() {
         // Clear existing logs
-        for (int i = 0; i < FileLog.LOG_DAYS; i++) {
+        for (int i = 0; i < FileLog.LOG_FILE_COUNT; i++) {
             new File(mTempDir, "log-" + i).delete();
         }
         mTempDir.delete();
@@ -79,7 +87,7 @@ public class FileLogTest {
 
         Calendar threeDaysAgo = Calendar.getInstance();
         threeDaysAgo.add(Calendar.HOUR, -72);
-        for (int i = 0; i < FileLog.LOG_DAYS; i++) {
+        for (int i = 0; i < FileLog.LOG_FILE_COUNT; i++) {
             new File(mTempDir, "log-" + i).setLastModified(threeDaysAgo.getTimeInMillis());
         }
 
@@ -93,4 +101,77 @@ public class FileLogTest {
         // Old logs have been truncated
         assertFalse(writer.toString().contains("hoolalala"));
     }
+
+    @Test
+    public void testLogsAreWrittenAfterDelay() throws Exception {
+        if (!FileLog.ENABLED) {
+            return;
+        }
+        FileLog.print("Testing", "hoolalala");
+        // The log is written without any flush
+        assertTrue(waitForLogFiles("hoolalala"));
+    }
+
+    @Test
+    public void testDroppedLogsAreCounted() throws Exception {
+        if (!FileLog.ENABLED) {
+            return;
+        }
+        char[] msg = new char[FileLog.MAX_BUFFERED_CHARS + 1];
+        Arrays.fill(msg, 'a');
+        FileLog.print("Testing", new String(msg));
+        // The dropped log is reported without any other log or flush
+        assertTrue(waitForLogFiles(" 1 logs dropped"));
+    }
+
+    @Test
+    public void testFullFileIsRotated() throws Exception {
+        if (!FileLog.ENABLED) {
+            return;
+        }
+        // Fill all the files, the next batch goes to the file after the one being written
+        for (int i = 0; i < FileLog.LOG_FILE_COUNT; i++) {
+            try (RandomAccessFile file =
+                         new RandomAccessFile(new File(mTempDir, "log-" + i), "rw")) {
+                file.setLength(FileLog.MAX_LOG_FILE_SIZE);
+            }
+        }
+        FileLog.print("Testing", "hoolalala");
+        assertTrue(FileLog.flushAll(null));
+
+        int rotatedIndex = -1;
+        for (int i = 0; i < FileLog.LOG_FILE_COUNT; i++) {
+            if (new File(mTempDir, "log-" + i).length() < FileLog.MAX_LOG_FILE_SIZE) {
+                assertEquals(-1, rotatedIndex);
+                rotatedIndex = i;
+            }
+        }
+        assertTrue(rotatedIndex >= 0);
+        assertTrue(readLogFile(rotatedIndex).contains("hoolalala"));
+        int previousIndex = (rotatedIndex + FileLog.LOG_FILE_COUNT - 1) % FileLog.LOG_FILE_COUNT;
+        assertEquals(FileLog.MAX_LOG_FILE_SIZE,
+                new File(mTempDir, "log-" + previousIndex).length());
+    }
+
+    /**
+     * Waits for the logs to contain the provided text, without flushing them
+     */
+    private boolean waitForLogFiles(String text) throws IOException {
+        long deadline = SystemClock.uptimeMillis() + 5 * FileLog.FLUSH_DELAY;
+        do {
+            for (int i = 0; i < FileLog.LOG_FILE_COUNT; i++) {
+                if (readLogFile(i).contains(text)) {
+                    return true;
+                }
+            }
+            SystemClock.sleep(100);
+        } while (SystemClock.uptimeMillis() < deadline);
+        return false;
+    }
+
+    private String readLogFile(int index) throws IOException {
+        File file = new File(mTempDir, "log-" + index);
+        return file.exists()
+                ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : "";
+    }
 }
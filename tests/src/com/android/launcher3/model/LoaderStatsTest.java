@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.tracing.LoaderCounterProto;
+import com.android.launcher3.tracing.LoaderPhaseStatsProto;
+import com.android.launcher3.tracing.LoaderStatsProto;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for {@link LoaderStats}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LoaderStatsTest {
+
+    @Test
+    public void testCompletedLoadsAreAccumulated() {
+        LoaderStats stats = new LoaderStats();
+        stats.add(createTimings(10), true /* completed */);
+        stats.add(createTimings(5), true /* completed */);
+
+        LoaderStatsProto proto = stats.toProto();
+        assertEquals(2, proto.getLoadCount());
+        assertEquals(0, proto.getCancelledCount());
+
+        LoaderPhaseStatsProto phase = proto.getPhases(0);
+        assertEquals("loadWorkspace", phase.getName());
+        assertEquals(2, phase.getCount());
+        int bucketTotal = 0;
+        for (int bucketCount : phase.getBucketCountsList()) {
+            bucketTotal += bucketCount;
+        }
+        assertEquals(2, bucketTotal);
+        assertEquals(proto.getBucketUpperBoundsMsCount() + 1, phase.getBucketCountsCount());
+
+        LoaderCounterProto counter = proto.getCounters(0);
+        assertEquals(LoaderTimings.COUNT_DB_ROWS, counter.getName());
+        assertEquals(5, counter.getLastValue());
+        assertEquals(15, counter.getTotalValue());
+    }
+
+    @Test
+    public void testCancelledLoadsAreOnlyCounted() {
+        LoaderStats stats = new LoaderStats();
+        stats.add(createTimings(10), false /* completed */);
+
+        LoaderStatsProto proto = stats.toProto();
+        assertEquals(0, proto.getLoadCount());
+        assertEquals(1, proto.getCancelledCount());
+        assertEquals(0, proto.getPhasesCount());
+        assertEquals(0, proto.getCountersCount());
+    }
+
+    private static LoaderTimings createTimings(int dbRows) {
+        LoaderTimings timings = new LoaderTimings();
+        timings.start();
+        timings.count(LoaderTimings.COUNT_DB_ROWS, dbRows);
+        timings.split("loadWorkspace");
+        return timings;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+/**
+ * Tests for {@link PreviewModelCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PreviewModelCacheTest {
+
+    private static final String KEY = "grid";
+
+    private final PreviewModelCache mCache = new PreviewModelCache(getApplicationContext());
+
+    @After
+    public void tearDown() {
+        mCache.close();
+    }
+
+    @Test
+    public void testModelIsReusedUntilInvalidated() {
+        BgDataModel dataModel = new BgDataModel();
+        mCache.put(KEY, mCache.getGeneration(), dataModel, Collections.emptyMap());
+        assertSame(dataModel, mCache.get(KEY).dataModel);
+
+        mCache.invalidate();
+        assertNull(mCache.get(KEY));
+    }
+
+    @Test
+    public void testModelLoadedBeforeInvalidationIsNotAdded() {
+        int generation = mCache.getGeneration();
+        mCache.invalidate();
+        mCache.put(KEY, generation, new BgDataModel(), Collections.emptyMap());
+        assertNull(mCache.get(KEY));
+    }
+
+    @Test
+    public void testModelIsReleasedOnTrimMemory() {
+        BgDataModel dataModel = new BgDataModel();
+        mCache.put(KEY, mCache.getGeneration(), dataModel, Collections.emptyMap());
+
+        // The previews are shown while the launcher UI is hidden
+        mCache.onTrimMemory(TRIM_MEMORY_UI_HIDDEN);
+        assertSame(dataModel, mCache.get(KEY).dataModel);
+
+        mCache.onTrimMemory(TRIM_MEMORY_RUNNING_LOW);
+        assertNull(mCache.get(KEY));
+    }
+
+    @Test
+    public void testModelLoadedBeforeEvictionIsAdded() {
+        int generation = mCache.getGeneration();
+        mCache.evictAll();
+        BgDataModel dataModel = new BgDataModel();
+        mCache.put(KEY, generation, dataModel, Collections.emptyMap());
+        assertSame(dataModel, mCache.get(KEY).dataModel);
+    }
+}
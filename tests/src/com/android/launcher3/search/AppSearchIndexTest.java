@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.os.Process;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.model.data.AppInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link AppSearchIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AppSearchIndexTest {
+
+    private AppSearchIndex mIndex;
+    private AppInfo mWhiteCow;
+    private AppInfo mCatsAndDogs;
+    private AppInfo mCafe;
+
+    @Before
+    public void setup() {
+        mIndex = new AppSearchIndex();
+        mWhiteCow = createApp("white", "White Cow");
+        mCatsAndDogs = createApp("cats", "cats&Dogs");
+        mCafe = createApp("cafe", "Café");
+        mIndex.add(mWhiteCow);
+        mIndex.add(mCatsAndDogs);
+        mIndex.add(mCafe);
+    }
+
+    @Test
+    public void testSearch() {
+        assertEquals(Arrays.asList(mWhiteCow), mIndex.search("cow", 5));
+        assertEquals(Arrays.asList(mWhiteCow), mIndex.search("white c", 5));
+        assertEquals(Arrays.asList(mCatsAndDogs), mIndex.search("dog", 5));
+        assertEquals(Arrays.asList(mCatsAndDogs, mCafe), mIndex.search("ca", 5));
+        assertEquals(Arrays.asList(mCafe), mIndex.search("cafe", 5));
+        assertTrue(mIndex.search("hite", 5).isEmpty());
+        assertTrue(mIndex.search("zebra", 5).isEmpty());
+    }
+
+    @Test
+    public void testSearchMatchesCharsWhichCanNotBeFolded() {
+        AppInfo bjorn = createApp("bjorn", "Bjørn");
+        AppInfo strasse = createApp("strasse", "Straße");
+        mIndex.add(bjorn);
+        mIndex.add(strasse);
+
+        StringMatcherUtility.StringMatcher matcher =
+                StringMatcherUtility.StringMatcher.getInstance();
+        for (String query : new String[] {"bjorn", "bjø", "strasse", "stra"}) {
+            List<AppInfo> expected = new ArrayList<>();
+            for (AppInfo info : Arrays.asList(mWhiteCow, mCatsAndDogs, mCafe, bjorn, strasse)) {
+                if (StringMatcherUtility.matches(query, info.title.toString(), matcher)) {
+                    expected.add(info);
+                }
+            }
+            assertEquals(query, expected, mIndex.search(query, 5));
+        }
+        assertEquals(Arrays.asList(bjorn), mIndex.search("bjorn", 5));
+    }
+
+    @Test
+    public void testMaxResults() {
+        assertEquals(Arrays.asList(mCatsAndDogs), mIndex.search("ca", 1));
+    }
+
+    @Test
+    public void testRefineWithSession() {
+        SearchSession<AppInfo> session = new SearchSession<>();
+        List<AppInfo> matches = mIndex.searchAll("c", null);
+        session.update("c", mIndex.getVersion(), matches);
+
+        List<AppInfo> candidates = session.getCandidates("ca", mIndex.getVersion());
+        assertEquals(matches, candidates);
+        assertEquals(Arrays.asList(mCatsAndDogs, mCafe), mIndex.searchAll("ca", candidates));
+
+        // Deleting characters or changing the index requires a full search
+        assertNull(session.getCandidates("", mIndex.getVersion()));
+        mIndex.remove(mCafe);
+        assertNull(session.getCandidates("ca", mIndex.getVersion()));
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        mCafe.title = "Coffee";
+        mIndex.add(mCafe);
+        assertTrue(mIndex.search("cafe", 5).isEmpty());
+        assertEquals(Arrays.asList(mCafe), mIndex.search("cof", 5));
+
+        mIndex.remove(mWhiteCow);
+        assertTrue(mIndex.search("cow", 5).isEmpty());
+        assertEquals(2, mIndex.size());
+    }
+
+    private static AppInfo createApp(String className, String title) {
+        return new AppInfo(new ComponentName("com.example", className), title,
+                Process.myUserHandle(), null);
+    }
+}
@@ -16,8 +16,11 @@
 package com.android.launcher3.search;
 
 import static com.android.launcher3.search.StringMatcherUtility.matches;
+import static com.android.launcher3.search.StringMatcherUtility.normalizeForIndex;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import androidx.test.filters.SmallTest;
@@ -93,4 +96,37 @@ public class StringMatcherUtilityTest {
         assertFalse(matches("ㄷ", "로드라이브", MATCHER));
         assertFalse(matches("åç", "abc", MATCHER));
     }
+
+    @Test
+    public void testNormalizeForIndex() {
+        assertEquals("white cow", normalizeForIndex("White Cow"));
+        assertEquals("cafe", normalizeForIndex("Café"));
+        assertEquals("ab2", normalizeForIndex("Ａb²"));
+
+        // Chars which the collator may match with other strings can not be folded
+        assertNull(normalizeForIndex("Bjørn"));
+        assertNull(normalizeForIndex("Łódź"));
+        assertNull(normalizeForIndex("Đà Nẵng"));
+        assertNull(normalizeForIndex("Straße"));
+        assertNull(normalizeForIndex("Æble"));
+        assertNull(normalizeForIndex("ﬁle"));
+        assertNull(normalizeForIndex("다운로드"));
+    }
+
+    @Test
+    public void testNormalizedTargetContainsMatchedQuery() {
+        String[] targets = {"Bjørn", "Łódź", "Đà Nẵng", "Straße", "Æble", "ﬁle", "Café"};
+        String[] queries = {"bjorn", "lodz", "da", "strasse", "ae", "fi", "file", "cafe"};
+        for (String target : targets) {
+            String normalizedTarget = normalizeForIndex(target);
+            for (String query : queries) {
+                String normalizedQuery = normalizeForIndex(query);
+                if (matches(query, target, MATCHER)
+                        && normalizedTarget != null && normalizedQuery != null) {
+                    assertTrue(query + " in " + target,
+                            normalizedTarget.contains(normalizedQuery));
+                }
+            }
+        }
+    }
 }
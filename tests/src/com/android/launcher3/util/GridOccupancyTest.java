@@ -4,12 +4,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import android.graphics.Point;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 /**
  * Unit tests for {@link GridOccupancy}
  */
@@ -55,13 +62,99 @@ public class GridOccupancyTest {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    @Test
+    public void testIsRegionVacantForBlock() {
+        GridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+        GridOccupancy block = initGrid(2,
+                0, 1,
+                1, 1
+        );
+
+        // Only the occupied cells of the block need to be vacant
+        assertTrue(grid.isRegionVacant(3, 1, block));
+        assertFalse(grid.isRegionVacant(3, 1, 2, 2));
+        assertTrue(grid.isRegionVacant(0, 1, block));
+        assertFalse(grid.isRegionVacant(1, 0, block));
+        assertFalse(grid.isRegionVacant(4, 0, block));
+    }
+
+    @Test
+    public void testFindAllVacantCells() {
+        GridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+
+        assertEquals(Arrays.asList(new Point(0, 1), new Point(2, 2), new Point(3, 2)),
+                grid.findAllVacantCells(2, 2));
+        assertEquals(Arrays.asList(new Point(4, 0), new Point(0, 1), new Point(1, 1)),
+                grid.findAllVacantCells(1, 2).subList(0, 3));
+        assertTrue(grid.findAllVacantCells(3, 3).isEmpty());
+    }
+
+    @Test
+    public void testQueriesMatchCellByCellScan() {
+        Random random = new Random(0);
+        for (int countX : new int[] {1, 5, 13, GridOccupancy.MAX_COUNT_X}) {
+            int countY = 6;
+            boolean[][] cells = new boolean[countX][countY];
+            GridOccupancy grid = new GridOccupancy(countX, countY);
+            for (int x = 0; x < countX; x++) {
+                for (int y = 0; y < countY; y++) {
+                    cells[x][y] = random.nextInt(4) == 0;
+                    grid.markCells(x, y, 1, 1, cells[x][y]);
+                }
+            }
+
+            for (int spanX = 1; spanX <= Math.min(countX, 4); spanX++) {
+                for (int spanY = 1; spanY <= 3; spanY++) {
+                    List<Point> expected = new ArrayList<>();
+                    for (int y = 0; y + spanY <= countY; y++) {
+                        for (int x = 0; x + spanX <= countX; x++) {
+                            boolean vacant = isVacant(cells, x, y, spanX, spanY);
+                            assertEquals(vacant, grid.isRegionVacant(x, y, spanX, spanY));
+                            if (vacant) {
+                                expected.add(new Point(x, y));
+                            }
+                        }
+                    }
+                    assertEquals(expected, grid.findAllVacantCells(spanX, spanY));
+
+                    int[] vacant = new int[2];
+                    assertEquals(!expected.isEmpty(), grid.findVacantCell(vacant, spanX, spanY));
+                    if (!expected.isEmpty()) {
+                        assertEquals(expected.get(0), new Point(vacant[0], vacant[1]));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isVacant(boolean[][] cells, int x, int y, int spanX, int spanY) {
+        for (int i = x; i < x + spanX; i++) {
+            for (int j = y; j < y + spanY; j++) {
+                if (cells[i][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.pm.UserCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link PersistedItemArray}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PersistedItemArrayTest {
+
+    private static final String FILE_NAME = "persisted_item_array_test";
+
+    private Context mContext;
+    private PersistedItemArray<WorkspaceItemInfo> mStorage;
+
+    @Before
+    public void setUp() {
+        mContext = getApplicationContext();
+        mStorage = new PersistedItemArray<>(FILE_NAME);
+        mStorage.delete(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mStorage.delete(mContext);
+    }
+
+    @Test
+    public void testAppendsAndRemovesAreReadBack() {
+        mStorage.write(mContext, createItems("a", "b"));
+        mStorage.write(mContext, createItems("a", "b", "c"));
+        long appendedLength = mStorage.getFile(mContext).getBaseFile().length();
+        mStorage.write(mContext, createItems("b", "c"));
+
+        assertEquals(Arrays.asList("b", "c"), readClassNames(new PersistedItemArray<>(FILE_NAME)));
+        // The removal of "a" was appended instead of rewriting the file
+        assertTrue(mStorage.getFile(mContext).getBaseFile().length() > appendedLength);
+    }
+
+    @Test
+    public void testReorderedItemsAreRewritten() {
+        mStorage.write(mContext, createItems("a", "b", "c"));
+        mStorage.write(mContext, createItems("c", "a", "b"));
+
+        assertEquals(Arrays.asList("c", "a", "b"),
+                readClassNames(new PersistedItemArray<>(FILE_NAME)));
+    }
+
+    @Test
+    public void testRemovedDuplicateIsRewritten() {
+        mStorage.write(mContext, createItems("a", "b"));
+        mStorage.write(mContext, createItems("a", "b", "a"));
+        mStorage.write(mContext, createItems("a", "b"));
+
+        assertEquals(Arrays.asList("a", "b"), readClassNames(new PersistedItemArray<>(FILE_NAME)));
+    }
+
+    @Test
+    public void testPartialRecordIsIgnored() throws IOException {
+        mStorage.write(mContext, createItems("a", "b"));
+        try (FileOutputStream fos = new FileOutputStream(
+                mStorage.getFile(mContext).getBaseFile(), true)) {
+            fos.write(new byte[] {0, 0, 0, 42, 1, 2});
+        }
+
+        PersistedItemArray<WorkspaceItemInfo> storage = new PersistedItemArray<>(FILE_NAME);
+        assertEquals(Arrays.asList("a", "b"), readClassNames(storage));
+
+        // The next write replaces the corrupted file
+        storage.write(mContext, createItems("a", "b", "c"));
+        assertEquals(Arrays.asList("a", "b", "c"),
+                readClassNames(new PersistedItemArray<>(FILE_NAME)));
+    }
+
+    @Test
+    public void testLegacyXmlIsMigrated() throws IOException {
+        String intent = new Intent(Intent.ACTION_MAIN)
+                .setComponent(new ComponentName("com.example", "a")).toUri(0);
+        long serial = UserCache.INSTANCE.get(mContext)
+                .getSerialNumberForUser(Process.myUserHandle());
+        String xml = "<?xml version='1.0' encoding='utf-8' standalone='yes' ?><items>"
+                + "<entry itemType=\"" + ITEM_TYPE_APPLICATION + "\" profileId=\"" + serial
+                + "\" intent=\"" + intent.replace("&", "&amp;") + "\" /></items>";
+        try (FileOutputStream fos = mContext.openFileOutput(FILE_NAME + ".xml", 0)) {
+            fos.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(Arrays.asList("a"), readClassNames(mStorage));
+        assertFalse(mContext.getFileStreamPath(FILE_NAME + ".xml").exists());
+        assertEquals(Arrays.asList("a"), readClassNames(new PersistedItemArray<>(FILE_NAME)));
+    }
+
+    private List<WorkspaceItemInfo> createItems(String... classNames) {
+        List<WorkspaceItemInfo> items = new ArrayList<>();
+        for (String className : classNames) {
+            WorkspaceItemInfo item = new WorkspaceItemInfo();
+            item.itemType = ITEM_TYPE_APPLICATION;
+            item.user = Process.myUserHandle();
+            item.intent = new Intent(Intent.ACTION_MAIN)
+                    .setComponent(new ComponentName("com.example", className));
+            items.add(item);
+        }
+        return items;
+    }
+
+    private List<String> readClassNames(PersistedItemArray<WorkspaceItemInfo> storage) {
+        List<String> classNames = new ArrayList<>();
+        for (WorkspaceItemInfo item : storage.read(mContext, (itemType, user, intent) -> {
+            WorkspaceItemInfo info = new WorkspaceItemInfo();
+            info.intent = intent;
+            return info;
+        })) {
+            classNames.add(item.intent.getComponent().getClassName());
+        }
+        return classNames;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
+import static com.android.launcher3.util.LauncherModelHelper.TEST_PACKAGE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+
+import android.content.ComponentName;
+import android.content.pm.PackageInfo;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.os.Process;
+import android.util.Size;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LauncherModelHelper;
+import com.android.launcher3.util.LauncherModelHelper.SanboxModelContext;
+import com.android.launcher3.widget.WidgetPreviewCache.PackageVersion;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for {@link WidgetPreviewCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WidgetPreviewCacheTest {
+
+    private static final Size SIZE = new Size(40, 20);
+
+    private final ComponentKey mKey = new ComponentKey(
+            new ComponentName(TEST_PACKAGE, TEST_PACKAGE + ".Widget"), Process.myUserHandle());
+
+    private LauncherModelHelper mModelHelper;
+    private SanboxModelContext mContext;
+    private WidgetPreviewCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mModelHelper = new LauncherModelHelper();
+        mContext = mModelHelper.sandboxContext;
+        setPackageVersion(1, 100);
+        mCache = new WidgetPreviewCache(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void testPreviewIsInvalidatedByPackageUpdate() throws Exception {
+        PackageVersion version = mCache.getPackageVersion(TEST_PACKAGE);
+        Bitmap preview = createPreview();
+        mCache.putPreview(mKey, SIZE, version, preview);
+        assertSame(preview, mCache.getPreview(mKey, SIZE, version));
+
+        updatePackage(2, 200);
+        PackageVersion newVersion = mCache.getPackageVersion(TEST_PACKAGE);
+        assertNotEquals(version, newVersion);
+        assertNull(mCache.getPreview(mKey, SIZE, newVersion));
+    }
+
+    @Test
+    public void testPreviewRenderedBeforeUpdateIsNotCached() throws Exception {
+        // The rendering starts before the update, and finishes after it
+        PackageVersion version = mCache.getPackageVersion(TEST_PACKAGE);
+        updatePackage(2, 200);
+        mCache.putPreview(mKey, SIZE, version, createPreview());
+
+        PackageVersion newVersion = mCache.getPackageVersion(TEST_PACKAGE);
+        assertNull(mCache.getPreview(mKey, SIZE, newVersion));
+        assertNull(mCache.getPreview(mKey, SIZE, version));
+    }
+
+    @Test
+    public void testVersionIsReadOnceUntilPackageIsRemoved() throws Exception {
+        PackageVersion version = mCache.getPackageVersion(TEST_PACKAGE);
+        setPackageVersion(2, 200);
+        assertEquals(version, mCache.getPackageVersion(TEST_PACKAGE));
+
+        mCache.removePackage(TEST_PACKAGE, Process.myUserHandle());
+        assertEquals(new PackageVersion(2, 200), mCache.getPackageVersion(TEST_PACKAGE));
+    }
+
+    @Test
+    public void testMemoryCacheIsReleasedOnTrimMemory() throws Exception {
+        PackageVersion version = mCache.getPackageVersion(TEST_PACKAGE);
+        Bitmap preview = createPreview();
+        mCache.putPreview(mKey, SIZE, version, preview);
+
+        mCache.onTrimMemory(TRIM_MEMORY_RUNNING_MODERATE);
+        assertSame(preview, mCache.getPreview(mKey, SIZE, version));
+
+        mCache.onTrimMemory(TRIM_MEMORY_UI_HIDDEN);
+        assertNotSame(preview, mCache.getPreview(mKey, SIZE, version));
+    }
+
+    /**
+     * Simulates the update of the package, as handled by the package updated task
+     */
+    private void updatePackage(long versionCode, long lastUpdateTime) throws Exception {
+        setPackageVersion(versionCode, lastUpdateTime);
+        mCache.removePackage(TEST_PACKAGE, Process.myUserHandle());
+    }
+
+    private void setPackageVersion(long versionCode, long lastUpdateTime) throws Exception {
+        PackageInfo info = new PackageInfo();
+        info.packageName = TEST_PACKAGE;
+        info.setLongVersionCode(versionCode);
+        info.lastUpdateTime = lastUpdateTime;
+        doReturn(info).when(mContext.getPackageManager())
+                .getPackageInfo(eq(TEST_PACKAGE), anyInt());
+    }
+
+    private static Bitmap createPreview() {
+        return Bitmap.createBitmap(SIZE.getWidth(), SIZE.getHeight(), Config.ARGB_8888);
+    }
+}
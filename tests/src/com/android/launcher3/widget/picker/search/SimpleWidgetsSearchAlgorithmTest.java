@@ -157,6 +157,25 @@ public class SimpleWidgetsSearchAlgorithmTest {
                 SimpleWidgetsSearchAlgorithm.getFilteredWidgets(mDataProvider, "Widget1"));
     }
 
+    @Test
+    public void filter_shouldMatchCharsWhichCanNotBeFolded() {
+        WidgetsListHeaderEntry headerEntry =
+                createWidgetsHeaderEntry("com.example.android.Bjorn", "Bjørn", 1);
+        WidgetsListContentEntry contentEntry =
+                createWidgetsContentEntry("com.example.android.Bjorn", "Bjørn", 1);
+        doReturn(List.of(headerEntry, contentEntry, mCalendarHeaderEntry, mCalendarContentEntry))
+                .when(mDataProvider)
+                .getAllWidgets();
+
+        assertEquals(List.of(
+                new WidgetsListSearchHeaderEntry(
+                        headerEntry.mPkgItem,
+                        headerEntry.mTitleSectionName,
+                        headerEntry.mWidgets),
+                contentEntry),
+                SimpleWidgetsSearchAlgorithm.getFilteredWidgets(mDataProvider, "bjorn"));
+    }
+
     @Test
     public void doSearch_shouldInformCallback() throws Exception {
         doReturn(List.of(mCalendarHeaderEntry, mCalendarContentEntry, mCameraHeaderEntry,